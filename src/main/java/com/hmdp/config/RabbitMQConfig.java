@@ -1,6 +1,11 @@
 package com.hmdp.config;
 
 import org.springframework.amqp.core.*;
+import org.springframework.amqp.rabbit.config.SimpleRabbitListenerContainerFactory;
+import org.springframework.amqp.rabbit.connection.ConnectionFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.amqp.SimpleRabbitListenerContainerFactoryConfigurer;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 
@@ -9,6 +14,7 @@ public class RabbitMQConfig {
     public static final String ORDER_EXCHANGE = "order.exchange";
     public static final String ORDER_QUEUE = "order.queue";
     public static final String ORDER_ROUTING_KEY = "order.routing.key";
+    public static final String ORDER_BATCH_CONTAINER_FACTORY = "orderBatchContainerFactory";
 
     @Bean
     public DirectExchange orderExchange() {
@@ -26,4 +32,26 @@ public class RabbitMQConfig {
                 .to(orderExchange)
                 .with(ORDER_ROUTING_KEY);
     }
+
+    /**
+     * 批量消费订单的监听容器：攒够 batchSize 条消息，或 receiveTimeout 毫秒内没有新消息时，
+     * 将整批消息一次性交给监听方法，监听方法正常返回后整批确认
+     */
+    @Bean(ORDER_BATCH_CONTAINER_FACTORY)
+    @ConditionalOnProperty(name = "hmdp.order.batch.enabled", havingValue = "true")
+    public SimpleRabbitListenerContainerFactory orderBatchContainerFactory(
+            SimpleRabbitListenerContainerFactoryConfigurer configurer,
+            ConnectionFactory connectionFactory,
+            @Value("${hmdp.order.batch.size:200}") int batchSize,
+            @Value("${hmdp.order.batch.receive-timeout:50}") long receiveTimeout) {
+        SimpleRabbitListenerContainerFactory factory = new SimpleRabbitListenerContainerFactory();
+        configurer.configure(factory, connectionFactory);
+        factory.setBatchListener(true);
+        factory.setConsumerBatchEnabled(true);
+        factory.setBatchSize(batchSize);
+        factory.setReceiveTimeout(receiveTimeout);
+        // 预取数量不能小于批大小，否则永远凑不满一批
+        factory.setPrefetchCount(batchSize);
+        return factory;
+    }
 }
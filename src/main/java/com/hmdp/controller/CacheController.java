@@ -0,0 +1,139 @@
+package com.hmdp.controller;
+
+import com.hmdp.dto.Result;
+import com.hmdp.utils.CacheRebuildScheduler;
+import com.hmdp.utils.CacheStats;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.IdBloomFilter;
+import com.hmdp.utils.ShopFilterIndex;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopGeoLoader;
+import com.hmdp.utils.ShopNameIndex;
+import com.hmdp.utils.ShopRanking;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PostMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
+import org.springframework.web.bind.annotation.RestController;
+
+import javax.annotation.Resource;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+@RestController
+@RequestMapping("/cache")
+public class CacheController {
+
+    @Resource
+    private CacheStats cacheStats;
+    @Resource
+    private IdBloomFilter idBloomFilter;
+    @Resource
+    private CacheRebuildScheduler rebuildScheduler;
+    @Resource
+    private HotKeyDetector hotKeyDetector;
+    @Resource
+    private ShopGeoIndex shopGeoIndex;
+    @Resource
+    private ShopGeoLoader shopGeoLoader;
+    @Resource
+    private ShopNameIndex shopNameIndex;
+    @Resource
+    private ShopFilterIndex shopFilterIndex;
+    @Resource
+    private ShopRanking shopRanking;
+
+    /**
+     * 按key前缀查询缓存命中率
+     * @return 每个前缀的本地命中、Redis命中和回源次数
+     */
+    @GetMapping("/stats")
+    public Result stats() {
+        return Result.ok(cacheStats.snapshot());
+    }
+
+    /**
+     * 查询布隆过滤器状态
+     * @return 每个前缀的位数、哈希个数、内存占用、估算元素个数、当前误判率和拦截次数
+     */
+    @GetMapping("/bloom")
+    public Result bloom() {
+        return Result.ok(idBloomFilter.stats());
+    }
+
+    /**
+     * 在后台重新扫描数据库构建布隆过滤器，用于直接导入数据库等情况下的手工修复
+     * @param keyPrefix 缓存key前缀，例如 cache:shop:
+     */
+    @PostMapping("/bloom/rebuild")
+    public Result rebuildBloom(@RequestParam("keyPrefix") String keyPrefix) {
+        if (!idBloomFilter.startRebuild(keyPrefix)) {
+            return Result.fail("没有该前缀的布隆过滤器");
+        }
+        return Result.ok(idBloomFilter.stats());
+    }
+
+    /**
+     * 查询缓存重建调度器状态
+     * @return 队列深度、放弃次数，以及每个前缀的限流次数和重建耗时
+     */
+    @GetMapping("/rebuild")
+    public Result rebuild() {
+        return Result.ok(rebuildScheduler.stats());
+    }
+
+    /**
+     * 查询当前的热点key
+     * @return 热点key及其在本节点窗口内的访问次数估计，按访问次数从高到低排列
+     */
+    @GetMapping("/hot-keys")
+    public Result hotKeys() {
+        return Result.ok(hotKeyDetector.hotKeys());
+    }
+
+    /**
+     * 查询店铺地理位置索引的状态
+     * @return 本地索引是否加载完成、每个类型的店铺数，以及Redis GEO的加载进度
+     */
+    @GetMapping("/geo")
+    public Result geo() {
+        Map<String, Object> geo = new LinkedHashMap<>();
+        geo.put("local", shopGeoIndex.stats());
+        geo.put("redis", shopGeoLoader.progress());
+        return Result.ok(geo);
+    }
+
+    /**
+     * 店铺名称索引和筛选索引的大小，排行榜的加载进度
+     */
+    @GetMapping("/search")
+    public Result search() {
+        Map<String, Object> search = new LinkedHashMap<>();
+        search.put("name", shopNameIndex.stats());
+        search.put("filter", shopFilterIndex.stats());
+        search.put("rank", shopRanking.progress());
+        return Result.ok(search);
+    }
+
+    /**
+     * 在后台把店铺排行榜全量加载到Redis，默认从上次的检查点继续
+     * @param restart 是否忽略检查点从头加载
+     * @return 当前进度
+     */
+    @PostMapping("/rank/load")
+    public Result loadRank(@RequestParam(value = "restart", defaultValue = "false") Boolean restart) {
+        shopRanking.startLoad(restart);
+        return Result.ok(shopRanking.progress());
+    }
+
+    /**
+     * 在后台把店铺坐标全量加载到Redis GEO，默认从上次的检查点继续
+     * @param restart 是否忽略检查点从头加载
+     * @return 当前进度
+     */
+    @PostMapping("/geo/load")
+    public Result loadGeo(@RequestParam(value = "restart", defaultValue = "false") Boolean restart) {
+        shopGeoLoader.startLoad(restart);
+        return Result.ok(shopGeoLoader.progress());
+    }
+}
@@ -1,13 +1,11 @@
 package com.hmdp.controller;
 
 
-import cn.hutool.core.util.StrUtil;
-import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopFilter;
 import com.hmdp.entity.Shop;
 import com.hmdp.service.IShopService;
 import com.hmdp.utils.CacheClient;
-import com.hmdp.utils.SystemConstants;
 import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
@@ -43,10 +41,8 @@ public class ShopController {
      */
     @PostMapping
     public Result saveShop(@RequestBody Shop shop) {
-        // 写入数据库
-        shopService.save(shop);
-        // 返回店铺id
-        return Result.ok(shop.getId());
+        // 写入数据库，返回店铺id
+        return shopService.saveShop(shop);
     }
 
     /**
@@ -76,6 +72,52 @@ public class ShopController {
         return shopService.queryShopByType(typeId, current, x, y);
     }
 
+    /**
+     * 按距离从近到远滚动查询附近的商铺
+     * @param typeId 商铺类型
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return 商铺列表和下一页的游标
+     */
+    @GetMapping("/of/type/nearby")
+    public Result queryNearbyShops(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam("x") Double x,
+            @RequestParam("y") Double y,
+            @RequestParam(value = "cursor", required = false) String cursor
+    ) {
+        return shopService.queryNearbyShops(typeId, x, y, cursor);
+    }
+
+    /**
+     * 按销量、评分或评论数滚动查询某类型的商铺排行
+     * @param typeId 商铺类型
+     * @param sortBy 排序方式：sold、score、comments
+     * @param cursor 上一页返回的游标，第一页不传
+     * @return 商铺列表和下一页的游标
+     */
+    @GetMapping("/of/type/rank")
+    public Result queryShopRanking(
+            @RequestParam("typeId") Integer typeId,
+            @RequestParam(value = "sortBy", defaultValue = "sold") String sortBy,
+            @RequestParam(value = "cursor", required = false) String cursor
+    ) {
+        return shopService.queryShopRanking(typeId, sortBy, cursor);
+    }
+
+    /**
+     * 按类型、商圈、人均价格、评分、是否营业中组合筛选商铺，按销量或评分排序
+     * @param filter 筛选条件，不传的条件不参与筛选
+     * @param current 页码
+     * @return 商铺列表
+     */
+    @GetMapping("/of/filter")
+    public Result queryShopByFilter(
+            ShopFilter filter,
+            @RequestParam(value = "current", defaultValue = "1") Integer current
+    ) {
+        return shopService.queryShopByFilter(filter, current);
+    }
+
     /**
      * 根据商铺名称关键字分页查询商铺信息
      * @param name 商铺名称关键字
@@ -87,11 +129,16 @@ public class ShopController {
             @RequestParam(value = "name", required = false) String name,
             @RequestParam(value = "current", defaultValue = "1") Integer current
     ) {
-        // 根据类型分页查询
-        Page<Shop> page = shopService.query()
-                .like(StrUtil.isNotBlank(name), "name", name)
-                .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
-        // 返回数据
-        return Result.ok(page.getRecords());
+        return shopService.queryShopByName(name, current);
+    }
+
+    /**
+     * 根据名称前缀联想商铺
+     * @param prefix 名称前缀
+     * @return 商铺id、名称和商圈
+     */
+    @GetMapping("/of/name/suggest")
+    public Result suggestShopNames(@RequestParam("prefix") String prefix) {
+        return shopService.suggestShopNames(prefix);
     }
 }
@@ -3,10 +3,9 @@ package com.hmdp.controller;
 
 import com.hmdp.dto.Result;
 import com.hmdp.service.IVoucherOrderService;
-import org.springframework.web.bind.annotation.PathVariable;
-import org.springframework.web.bind.annotation.PostMapping;
-import org.springframework.web.bind.annotation.RequestMapping;
-import org.springframework.web.bind.annotation.RestController;
+import com.hmdp.service.impl.VoucherOrderBatchConsumer;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.web.bind.annotation.*;
 
 import javax.annotation.Resource;
 
@@ -23,6 +22,8 @@ import javax.annotation.Resource;
 public class VoucherOrderController {
     @Resource
     private IVoucherOrderService voucherOrderService;
+    @Resource
+    private ObjectProvider<VoucherOrderBatchConsumer> batchConsumer;
 
 
     @PostMapping("seckill/{id}")
@@ -30,6 +31,16 @@ public class VoucherOrderController {
         return voucherOrderService.seckillVoucher(voucherId);
     }
 
+    /**
+     * 查询批量落库统计
+     * @return 批大小、落库耗时、每秒写入行数，未开启批量模式时返回空
+     */
+    @GetMapping("batch/stats")
+    public Result batchStats() {
+        VoucherOrderBatchConsumer consumer = batchConsumer.getIfAvailable();
+        return consumer == null ? Result.ok() : Result.ok(consumer.stats());
+    }
+
 
 
 
@@ -0,0 +1,18 @@
+package com.hmdp.dto;
+
+import lombok.AllArgsConstructor;
+import lombok.Data;
+import lombok.NoArgsConstructor;
+
+import java.util.List;
+
+/**
+ * 游标分页结果，cursor 为空表示没有下一页
+ */
+@Data
+@AllArgsConstructor
+@NoArgsConstructor
+public class CursorResult {
+    private List<?> list;
+    private String cursor;
+}
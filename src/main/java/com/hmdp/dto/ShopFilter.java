@@ -0,0 +1,32 @@
+package com.hmdp.dto;
+
+import lombok.Data;
+
+/**
+ * 店铺多条件筛选，为空的条件不参与筛选
+ */
+@Data
+public class ShopFilter {
+    private Long typeId;
+    /**
+     * 商圈，精确匹配
+     */
+    private String area;
+    /**
+     * 人均价格区间，包含两端
+     */
+    private Long minPrice;
+    private Long maxPrice;
+    /**
+     * 最低评分，1~5分，例如4.5
+     */
+    private Double minScore;
+    /**
+     * 只看当前营业中的店铺
+     */
+    private Boolean openNow;
+    /**
+     * 排序方式：sold（销量，默认）、score（评分）
+     */
+    private String sortBy;
+}
@@ -2,6 +2,12 @@ package com.hmdp.mapper;
 
 import com.hmdp.entity.Shop;
 import com.baomidou.mybatisplus.core.mapper.BaseMapper;
+import org.apache.ibatis.annotations.Options;
+import org.apache.ibatis.annotations.Param;
+import org.apache.ibatis.annotations.ResultType;
+import org.apache.ibatis.annotations.Select;
+import org.apache.ibatis.mapping.ResultSetType;
+import org.apache.ibatis.session.ResultHandler;
 
 /**
  * <p>
@@ -13,4 +19,43 @@ import com.baomidou.mybatisplus.core.mapper.BaseMapper;
  */
 public interface ShopMapper extends BaseMapper<Shop> {
 
+    /**
+     * 流式读取全部id，MySQL驱动在fetchSize为Integer.MIN_VALUE时逐行返回，不会把整张表读入内存
+     */
+    @Select("select id from tb_shop")
+    @Options(resultSetType = ResultSetType.FORWARD_ONLY, fetchSize = Integer.MIN_VALUE)
+    @ResultType(Long.class)
+    void scanIds(ResultHandler<Long> handler);
+
+    /**
+     * 按id顺序流式读取id大于lastId的店铺的id、类型和坐标，用于构建地理位置索引，中断后可以从上次的位置继续
+     */
+    @Select("select id, type_id, x, y from tb_shop where id > #{lastId} order by id")
+    @Options(resultSetType = ResultSetType.FORWARD_ONLY, fetchSize = Integer.MIN_VALUE)
+    @ResultType(Shop.class)
+    void scanLocations(@Param("lastId") long lastId, ResultHandler<Shop> handler);
+
+    /**
+     * 按销量从高到低流式读取店铺的id、名称、商圈和销量，用于构建名称索引
+     */
+    @Select("select id, name, area, sold from tb_shop order by sold desc, id")
+    @Options(resultSetType = ResultSetType.FORWARD_ONLY, fetchSize = Integer.MIN_VALUE)
+    @ResultType(Shop.class)
+    void scanNames(ResultHandler<Shop> handler);
+
+    /**
+     * 流式读取店铺参与筛选和排序的字段，用于构建筛选索引
+     */
+    @Select("select id, type_id, area, avg_price, score, sold, open_hours from tb_shop")
+    @Options(resultSetType = ResultSetType.FORWARD_ONLY, fetchSize = Integer.MIN_VALUE)
+    @ResultType(Shop.class)
+    void scanFilters(ResultHandler<Shop> handler);
+
+    /**
+     * 按id顺序流式读取id大于lastId的店铺的类型、销量、评分和评论数，用于构建排行榜，中断后可以从上次的位置继续
+     */
+    @Select("select id, type_id, sold, score, comments from tb_shop where id > #{lastId} order by id")
+    @Options(resultSetType = ResultSetType.FORWARD_ONLY, fetchSize = Integer.MIN_VALUE)
+    @ResultType(Shop.class)
+    void scanRanks(@Param("lastId") long lastId, ResultHandler<Shop> handler);
 }
@@ -2,6 +2,7 @@ package com.hmdp.service;
 
 import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopFilter;
 import com.hmdp.entity.Shop;
 
 /**
@@ -15,10 +16,28 @@ import com.hmdp.entity.Shop;
 public interface IShopService extends IService<Shop> {
 
 
+    Result saveShop(Shop shop);
+
     Result queryById(Long id);
 
+    Shop queryShopWithMutex(Long id);
+
     Result updateShopById(Shop shop);
     Result queryWithLogicalExpire(Long id);
 
+    Shop queryShopWithLogicalExpire(Long id);
+
     Result queryShopByType(Integer typeId, Integer current, Double x, Double y);
+
+    Result queryNearbyShops(Integer typeId, Double x, Double y, String cursor);
+
+    Result deleteShopById(Long id);
+
+    Result queryShopByName(String name, Integer current);
+
+    Result suggestShopNames(String prefix);
+
+    Result queryShopByFilter(ShopFilter filter, Integer current);
+
+    Result queryShopRanking(Integer typeId, String sortBy, String cursor);
 }
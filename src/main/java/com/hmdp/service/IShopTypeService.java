@@ -4,6 +4,8 @@ import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.ShopType;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -15,4 +17,6 @@ import com.hmdp.entity.ShopType;
 public interface IShopTypeService extends IService<ShopType> {
 
     Result queryTypeList();
+
+    List<ShopType> listTypes();
 }
@@ -13,4 +13,5 @@ import com.hmdp.entity.UserInfo;
  */
 public interface IUserInfoService extends IService<UserInfo> {
 
+    UserInfo queryInfoById(Long userId);
 }
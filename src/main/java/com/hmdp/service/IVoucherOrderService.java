@@ -4,7 +4,16 @@ import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.VoucherOrder;
 
+import java.util.List;
+
 public interface IVoucherOrderService extends IService<VoucherOrder> {
     Result seckillVoucher(Long voucherId);
     void createVoucherOrder(VoucherOrder voucherOrder);
+
+    /**
+     * 批量创建订单：按优惠券分组，每组一次去重查询、一次扣减库存、一次多行插入
+     * @param voucherOrders 一批订单
+     * @return 实际写入的订单行数
+     */
+    int createVoucherOrderBatch(List<VoucherOrder> voucherOrders);
 }
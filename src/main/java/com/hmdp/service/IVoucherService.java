@@ -4,6 +4,8 @@ import com.baomidou.mybatisplus.extension.service.IService;
 import com.hmdp.dto.Result;
 import com.hmdp.entity.Voucher;
 
+import java.util.List;
+
 /**
  * <p>
  *  服务类
@@ -16,5 +18,9 @@ public interface IVoucherService extends IService<Voucher> {
 
     Result queryVoucherOfShop(Long shopId);
 
+    List<Voucher> listVouchersOfShop(Long shopId);
+
+    void addVoucher(Voucher voucher);
+
     void addSeckillVoucher(Voucher voucher);
 }
@@ -1,7 +1,6 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
-import cn.hutool.core.util.StrUtil;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.dto.Result;
@@ -14,20 +13,30 @@ import com.hmdp.mapper.BlogMapper;
 import com.hmdp.service.IBlogService;
 import com.hmdp.service.IFollowService;
 import com.hmdp.service.IUserService;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.HmdpCached;
+import com.hmdp.utils.IdBloomFilter;
 import com.hmdp.utils.SystemConstants;
 import com.hmdp.utils.UserHolder;
 import lombok.RequiredArgsConstructor;
+import org.springframework.aop.framework.AopContext;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.core.ZSetOperations;
 import org.springframework.stereotype.Service;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
 
+import static com.hmdp.utils.RedisConstants.BLOOM_BLOG_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_KEY;
+import static com.hmdp.utils.RedisConstants.CACHE_BLOG_TTL;
+
 /**
  * <p>
  * 服务实现类
@@ -43,6 +52,14 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
     private IUserService userService;
     private final StringRedisTemplate redisTemplate;
     private final IFollowService followService;
+    private final CacheClient cacheClient;
+    private final IdBloomFilter idBloomFilter;
+
+    @PostConstruct
+    private void registerBloomFilter() {
+        idBloomFilter.register(CACHE_BLOG_KEY, BLOOM_BLOG_KEY,
+                consumer -> getBaseMapper().scanIds(context -> consumer.accept(context.getResultObject())), this::count);
+    }
 
     @Override
     public Result queryHotBlog(Integer current) {
@@ -69,14 +86,22 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
 
     @Override
     public Result queryBlogById(Long id) {
-        Blog blog = getById(id);
-        if (blog == null) {
+        // 通过代理调用才会经过缓存，缓存中的对象是共享的，复制后再填充作者和点赞信息
+        Blog cached = ((IBlogService) AopContext.currentProxy()).queryBlog(id);
+        if (cached == null) {
             return Result.fail("笔记不存在！");
         }
+        Blog blog = BeanUtil.copyProperties(cached, Blog.class);
         queryBlogUser(blog);
         isBlogLiked(blog);
 
-        return Result.ok(getById(id));
+        return Result.ok(blog);
+    }
+
+    @Override
+    @HmdpCached(keyPrefix = CACHE_BLOG_KEY, key = "#id")
+    public Blog queryBlog(Long id) {
+        return getById(id);
     }
 
     private void isBlogLiked(Blog blog) {
@@ -103,6 +128,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             if (isSuccess) {
                 //如果数据库点赞数据成功更新，则保存数据到redis中
                 redisTemplate.opsForZSet().add(key, userId.toString(), System.currentTimeMillis());
+                cacheClient.delete(CACHE_BLOG_KEY + id);
             }
         } else {
             //如果用户已经点过赞，则数据库点赞数据减一
@@ -110,6 +136,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
             if (isSuccess) {
                 //如果数据库数据成功更新，则更改redis的用户集合
                 redisTemplate.opsForZSet().remove(key, userId.toString());
+                cacheClient.delete(CACHE_BLOG_KEY + id);
             }
         }
         return Result.ok();
@@ -145,6 +172,7 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
         if (!isSuccess) {
             return Result.fail("新增笔记失败!");
         }
+        idBloomFilter.add(CACHE_BLOG_KEY, blog.getId());
         List<Follow> followList = followService.query().eq("follow_user_id", user.getId()).list();
         for(Follow follow : followList) {
             String key = "feed:" + follow.getUserId();
@@ -180,14 +208,16 @@ public class BlogServiceImpl extends ServiceImpl<BlogMapper, Blog> implements IB
                 os = 1;
             }
         }
-        //5.根据id查询出blogs
-        String idStr = StrUtil.join(",", ids);
-        List<Blog> blogs = query().in("id", ids)
-                .last("ORDER BY FIELD(id," + idStr + ")")
-                .list();
-        for (Blog blog : blogs) {
+        //5.根据id批量读取blog缓存，只有缺失的blog才查询数据库
+        List<Blog> cachedBlogs = cacheClient.queryManyWithCachePassThrough(CACHE_BLOG_KEY, ids, Blog.class,
+                this::listByIds, Blog::getId, CACHE_BLOG_TTL, TimeUnit.MINUTES);
+        List<Blog> blogs = new ArrayList<>(cachedBlogs.size());
+        for (Blog cachedBlog : cachedBlogs) {
+            //缓存对象可能被本地缓存共享，复制后再填充用户和点赞信息
+            Blog blog = BeanUtil.copyProperties(cachedBlog, Blog.class);
             queryBlogUser(blog);
             isBlogLiked(blog);
+            blogs.add(blog);
         }
 
         ScrollResult scrollResult = new ScrollResult();
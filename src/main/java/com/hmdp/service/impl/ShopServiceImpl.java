@@ -1,18 +1,30 @@
 package com.hmdp.service.impl;
 
-import cn.hutool.core.lang.UUID;
-import cn.hutool.core.util.BooleanUtil;
+import cn.hutool.core.bean.BeanUtil;
 import cn.hutool.core.util.StrUtil;
-import com.alibaba.fastjson2.JSON;
 import com.baomidou.mybatisplus.extension.plugins.pagination.Page;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
+import com.hmdp.dto.CursorResult;
 import com.hmdp.dto.Result;
+import com.hmdp.dto.ShopFilter;
 import com.hmdp.entity.Shop;
 import com.hmdp.mapper.ShopMapper;
 import com.hmdp.service.IShopService;
-import com.hmdp.utils.RedisData;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheStrategy;
+import com.hmdp.utils.HmdpCached;
+import com.hmdp.utils.GeoGrid;
+import com.hmdp.utils.IdBloomFilter;
+import com.hmdp.utils.NearbyCursor;
+import com.hmdp.utils.NearbyResultCache;
+import com.hmdp.utils.ShopFilterIndex;
+import com.hmdp.utils.ShopGeoIndex;
+import com.hmdp.utils.ShopGeoLoader;
+import com.hmdp.utils.ShopNameIndex;
+import com.hmdp.utils.ShopRanking;
 import com.hmdp.utils.SystemConstants;
 import lombok.RequiredArgsConstructor;
+import org.springframework.aop.framework.AopContext;
 import org.springframework.data.geo.Distance;
 import org.springframework.data.geo.GeoResult;
 import org.springframework.data.geo.GeoResults;
@@ -21,12 +33,13 @@ import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.data.redis.domain.geo.GeoReference;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
+import java.time.LocalTime;
 import java.util.*;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import static com.hmdp.utils.RedisConstants.*;
@@ -42,112 +55,98 @@ import static com.hmdp.utils.RedisConstants.*;
 @Service
 @RequiredArgsConstructor
 public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IShopService {
+    /**
+     * 附近店铺的查询半径
+     */
+    private static final double NEARBY_RADIUS_METERS = 5000;
+
     private final StringRedisTemplate redisTemplate;
+    private final CacheClient cacheClient;
+    private final IdBloomFilter idBloomFilter;
+    private final ShopGeoIndex shopGeoIndex;
+    private final ShopGeoLoader shopGeoLoader;
+    private final NearbyResultCache nearbyResultCache;
+    private final ShopNameIndex shopNameIndex;
+    private final ShopFilterIndex shopFilterIndex;
+    private final ShopRanking shopRanking;
+
+    /**
+     * 注册布隆过滤器、地理位置索引、名称索引、筛选索引和排行榜的数据源
+     */
+    @PostConstruct
+    private void registerIndexes() {
+        idBloomFilter.register(CACHE_SHOP_KEY, BLOOM_SHOP_KEY,
+                consumer -> getBaseMapper().scanIds(context -> consumer.accept(context.getResultObject())), this::count);
+        shopGeoIndex.register(consumer -> getBaseMapper().scanLocations(0, context -> consumer.accept(context.getResultObject())));
+        shopGeoLoader.register((lastId, consumer) -> getBaseMapper().scanLocations(lastId,
+                context -> consumer.accept(context.getResultObject())), this::count);
+        shopNameIndex.register(consumer -> getBaseMapper().scanNames(context -> consumer.accept(context.getResultObject())));
+        shopFilterIndex.register(consumer -> getBaseMapper().scanFilters(context -> consumer.accept(context.getResultObject())));
+        shopRanking.register((lastId, consumer) -> getBaseMapper().scanRanks(lastId,
+                context -> consumer.accept(context.getResultObject())), this::count);
+    }
 
     @Override
-    public Result queryById(Long id) {
-        // 1. 查询 Redis 缓存
-        String shopJson = redisTemplate.opsForValue().get(CACHE_SHOP_KEY + id);
-
-        // 2. 判断缓存是否存在
-        if (StrUtil.isNotBlank(shopJson)) {
-            return Result.ok(JSON.parseObject(shopJson, Shop.class));
-        }
+    public Result saveShop(Shop shop) {
+        // 写入数据库
+        save(shop);
+        // 加入布隆过滤器
+        idBloomFilter.add(CACHE_SHOP_KEY, shop.getId());
+        // 加入地理位置索引
+        shopGeoIndex.put(shop);
+        shopGeoLoader.sync(null, shop);
+        // 加入名称索引和筛选索引
+        shopNameIndex.put(shop);
+        shopFilterIndex.put(shop);
+        // 加入排行榜
+        shopRanking.sync(null, shop);
+        return Result.ok(shop.getId());
+    }
 
-        // 3. 缓存命中了，但是空值，说明数据库中不存在该店铺
-        if (shopJson != null) {
+    @Override
+    public Result queryById(Long id) {
+        // 缓存策略由 queryShopWithMutex 上的注解决定，需要通过代理调用
+        Shop shop = ((IShopService) AopContext.currentProxy()).queryShopWithMutex(id);
+        if (shop == null) {
             return Result.fail("该店铺ID不存在！");
         }
-
-        // 4. 获取互斥锁，防止缓存击穿
-        boolean lock = BooleanUtil.isTrue(redisTemplate.opsForValue().setIfAbsent("lock:shop:" + id, "1", 10, TimeUnit.SECONDS));
-
-        try{
-            if (!lock) {
-                // 4.1 竞争失败，等待一段时间后重试，避免递归调用
-                Thread.sleep(50);
-                return queryById(id);
-            }
-            //5.竞争成功，查询数据库
-            Shop shop = getById(id);
-            //6.如果未查询到数据，则将空值写入缓存
-            if (shop == null) {
-                redisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
-            }
-            //7.如果查询到数据，则将数据写入缓存
-            redisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSON.toJSONString(shop), CACHE_SHOP_TTL, TimeUnit.MINUTES);
-
-            //8.返回数据
-            return Result.ok(shop);
-        } catch (InterruptedException e) {
-            throw new RuntimeException(e);
-        } finally {
-            redisTemplate.delete("lock:shop:" + id);
-        }
+        return Result.ok(shop);
     }
 
-    private static final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
-
+    @Override
+    @HmdpCached(keyPrefix = CACHE_SHOP_KEY, key = "#id", strategy = CacheStrategy.MUTEX, ttl = 30)
+    public Shop queryShopWithMutex(Long id) {
+        return getById(id);
+    }
 
     @Override
     public Result queryWithLogicalExpire(Long id) {
-        // 1. 查询 Redis 缓存
-        String shopJson = redisTemplate.opsForValue().get(CACHE_SHOP_KEY + id);
-
-        if (StrUtil.isBlank(shopJson)) {
-            // 1.1 如果缓存数据不存在，则直接查询数据库（防止 key 被意外删除）
-            Shop shop = getById(id);
-            if (shop == null) {
-                return Result.fail("该店铺不存在！");
-            }
-            return Result.ok(shop);
+        // 过期后返回旧数据，由共用的重建调度器异步重建
+        Shop shop = ((IShopService) AopContext.currentProxy()).queryShopWithLogicalExpire(id);
+        if (shop == null) {
+            return Result.fail("该店铺不存在！");
         }
-
-        // 2. 解析 Redis 缓存数据
-        RedisData redisData = JSON.parseObject(shopJson, RedisData.class);
-        Shop shop = JSON.parseObject(JSON.toJSONString(redisData.getData()), Shop.class);
-        LocalDateTime expireTime = redisData.getExpireTime();
-
-        // 3. 判断是否过期
-        if (expireTime.isAfter(LocalDateTime.now())) {
-            // 3.1 未过期，直接返回
-            return Result.ok(shop);
-        }
-
-        // 4. 过期，尝试获取互斥锁
-        String lockKey = "lock:shop:" + id;
-        String lockValue = UUID.randomUUID().toString(); // 生成唯一标识
-        boolean lock = BooleanUtil.isTrue(redisTemplate.opsForValue().setIfAbsent(lockKey, lockValue, 10, TimeUnit.SECONDS));
-
-        if (lock) {
-            try {
-                // 5.1 启动独立线程进行缓存重建
-                CACHE_REBUILD_EXECUTOR.submit(() -> {
-                    try {
-                        shopToRedisData(id, 20L);
-                    } catch (Exception e) {
-                        log.error("缓存重建失败", e);
-                    } finally {
-                        // 释放锁（防止误删）
-                        String currentValue = redisTemplate.opsForValue().get(lockKey);
-                        if (lockValue.equals(currentValue)) {
-                            redisTemplate.delete(lockKey);
-                        }
-                    }
-                });
-            } catch (Exception e) {
-                log.error("线程池提交任务失败", e);
-            }
-        }
-        // 6. 返回旧数据，防止阻塞
         return Result.ok(shop);
     }
 
+    @Override
+    @HmdpCached(keyPrefix = CACHE_SHOP_KEY, key = "#id", strategy = CacheStrategy.LOGICAL_EXPIRE,
+            ttl = 20, unit = TimeUnit.SECONDS)
+    public Shop queryShopWithLogicalExpire(Long id) {
+        return getById(id);
+    }
+
     @Override
     public Result queryShopByType(Integer typeId, Integer current, Double x, Double y) {
         //1.判断是否需要根据坐标查询
         if(x == null || y == null) {
-            //不需要坐标，数据库查询
+            //不需要坐标，排行榜加载完成后按销量排名取一页，不再查询数据库
+            if (shopRanking.isReady()) {
+                ShopRanking.Page page = shopRanking.range(ShopRanking.Order.SOLD, typeId,
+                        (long) (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE, SystemConstants.DEFAULT_PAGE_SIZE);
+                return Result.ok(queryShopsInOrder(page.getIds()));
+            }
+            //排行榜还没加载完成，数据库查询
             Page<Shop> page = query()
                     .eq("type_id", typeId)
                     .page(new Page<>(current, SystemConstants.DEFAULT_PAGE_SIZE));
@@ -158,54 +157,239 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
         int from = (current - 1) * SystemConstants.DEFAULT_PAGE_SIZE;
         int end = current * SystemConstants.DEFAULT_PAGE_SIZE;
 
-        //获取附近店铺数据
-        String key = "shop:geo:" + typeId;
+        //获取附近店铺数据，优先使用本地地理位置索引，还没加载完成时使用Redis GEO
+        List<Long> ids = new ArrayList<>();
+        Map<Long, Double> distanceMap = new HashMap<>();
+        List<GeoGrid.Hit> hits = shopGeoIndex.nearest(typeId.longValue(), x, y, end, NEARBY_RADIUS_METERS);
+        if (hits != null) {
+            hits.stream().skip(from).forEach(hit -> {
+                ids.add(hit.getId());
+                distanceMap.put(hit.getId(), hit.getDistance());
+            });
+        } else {
+            String key = SHOP_GEO_KEY + typeId;
+            GeoResults<RedisGeoCommands.GeoLocation<String>> results = redisTemplate.opsForGeo()
+                    .search(key,
+                            GeoReference.fromCoordinate(x, y),
+                            new Distance(NEARBY_RADIUS_METERS),
+                            RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().limit(end));
+            if (results != null) {
+                results.getContent().stream().skip(from).forEach(result -> {
+                    //获取店铺id和距离
+                    Long shopId = Long.valueOf(result.getContent().getName());
+                    ids.add(shopId);
+                    distanceMap.put(shopId, result.getDistance().getValue());
+                });
+            }
+        }
+        if (ids.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
+        return Result.ok(hydrate(ids, distanceMap));
+    }
+
+    /**
+     * 按id批量读取店铺缓存并设置距离，只有缺失的店铺才查询数据库
+     */
+    private List<Shop> hydrate(List<Long> ids, Map<Long, Double> distanceMap) {
+        List<Shop> cachedShops = cacheClient.queryManyWithCachePassThrough(CACHE_SHOP_KEY, ids, Shop.class,
+                this::listByIds, Shop::getId, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+        List<Shop> shops = new ArrayList<>(cachedShops.size());
+        for (Shop cachedShop : cachedShops) {
+            //缓存对象可能被本地缓存共享，复制后再设置距离
+            Shop shop = BeanUtil.copyProperties(cachedShop, Shop.class);
+            shop.setDistance(distanceMap.get(shop.getId()));
+            shops.add(shop);
+        }
+        return shops;
+    }
+
+    @Override
+    public Result queryNearbyShops(Integer typeId, Double x, Double y, String cursor) {
+        //1.解析游标
+        NearbyCursor after;
+        try {
+            after = NearbyCursor.decode(cursor);
+        } catch (IllegalArgumentException e) {
+            return Result.fail("无效的游标！");
+        }
+
+        //2.取所在网格的候选店铺，短时间内同一网格的请求和后续翻页都不再重新查询
+        NearbyResultCache.Candidates candidates = nearbyResultCache.get(typeId, x, y, NEARBY_RADIUS_METERS,
+                (centerX, centerY, radius, limit) -> loadNearbyCandidates(typeId, centerX, centerY, radius, limit));
+
+        //3.按真实坐标计算距离，取游标之后的一页，多取一个判断是否还有下一页
+        int pageSize = SystemConstants.DEFAULT_PAGE_SIZE;
+        List<GeoGrid.Hit> hits = NearbyResultCache.page(candidates, x, y, NEARBY_RADIUS_METERS, after, pageSize);
+        String next = null;
+        if (hits.size() > pageSize) {
+            hits = hits.subList(0, pageSize);
+            GeoGrid.Hit last = hits.get(pageSize - 1);
+            next = new NearbyCursor(last.getDistance(), last.getId()).encode();
+        }
+        if (hits.isEmpty()) {
+            return Result.ok(new CursorResult(Collections.emptyList(), null));
+        }
+
+        //4.批量读取店铺
+        List<Long> ids = new ArrayList<>(hits.size());
+        Map<Long, Double> distanceMap = new HashMap<>(hits.size() * 2);
+        for (GeoGrid.Hit hit : hits) {
+            ids.add(hit.getId());
+            distanceMap.put(hit.getId(), hit.getDistance());
+        }
+        return Result.ok(new CursorResult(hydrate(ids, distanceMap), next));
+    }
+
+    /**
+     * 查询候选店铺，优先使用本地地理位置索引，还没加载完成时使用Redis GEO
+     */
+    private NearbyResultCache.Candidates loadNearbyCandidates(Integer typeId, double x, double y,
+                                                              double radius, int limit) {
+        List<GeoGrid.Hit> hits = shopGeoIndex.within(typeId.longValue(), x, y, radius, limit);
+        if (hits != null) {
+            return NearbyResultCache.Candidates.of(hits);
+        }
         GeoResults<RedisGeoCommands.GeoLocation<String>> results = redisTemplate.opsForGeo()
-                .search(key,
+                .search(SHOP_GEO_KEY + typeId,
                         GeoReference.fromCoordinate(x, y),
-                        new Distance(5000),
-                        RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs().includeDistance().limit(end));
+                        new Distance(radius),
+                        RedisGeoCommands.GeoSearchCommandArgs.newGeoSearchArgs()
+                                .includeCoordinates().sortAscending().limit(limit));
+        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> content =
+                results == null ? Collections.emptyList() : results.getContent();
+        long[] ids = new long[content.size()];
+        double[] lons = new double[content.size()];
+        double[] lats = new double[content.size()];
+        for (int i = 0; i < ids.length; i++) {
+            RedisGeoCommands.GeoLocation<String> location = content.get(i).getContent();
+            ids[i] = Long.parseLong(location.getName());
+            lons[i] = location.getPoint().getX();
+            lats[i] = location.getPoint().getY();
+        }
+        return new NearbyResultCache.Candidates(ids, lons, lats);
+    }
 
-        if(results == null ) {
-            return Result.ok(Collections.emptyList());
+    @Override
+    public Result queryShopByName(String name, Integer current) {
+        //1.没有关键字或索引还没加载完成时查询数据库
+        if (StrUtil.isBlank(name) || !shopNameIndex.isReady()) {
+            Page<Shop> page = query()
+                    .like(StrUtil.isNotBlank(name), "name", name)
+                    .page(new Page<>(current, SystemConstants.MAX_PAGE_SIZE));
+            return Result.ok(page.getRecords());
         }
 
-        //将店铺数据加入集合来排序
-        List<GeoResult<RedisGeoCommands.GeoLocation<String>>> content = results.getContent();
-        if(content.size() <= from) {
+        //2.从名称索引中取一页店铺id，按销量从高到低排列
+        int pageSize = SystemConstants.MAX_PAGE_SIZE;
+        List<ShopNameIndex.Match> matches = shopNameIndex.search(name, (current - 1) * pageSize, pageSize);
+        if (matches.isEmpty()) {
             return Result.ok(Collections.emptyList());
         }
 
+        //3.批量读取店铺缓存，保持索引中的顺序
+        List<Long> ids = new ArrayList<>(matches.size());
+        for (ShopNameIndex.Match match : matches) {
+            ids.add(match.getId());
+        }
+        return Result.ok(cacheClient.queryManyWithCachePassThrough(CACHE_SHOP_KEY, ids, Shop.class,
+                this::listByIds, Shop::getId, CACHE_SHOP_TTL, TimeUnit.MINUTES));
+    }
 
-        List<Long> ids = new ArrayList<>();
-        Map<String, Distance> distanceMap = new HashMap<>(content.size());
-        content.stream().skip(from).forEach(result -> {
-            //获取店铺id
-            String shopIdStr = result.getContent().getName();
-            ids.add(Long.valueOf(shopIdStr));
-            //获取店铺距离
-            distanceMap.put(shopIdStr, result.getDistance());
-        });
+    @Override
+    public Result suggestShopNames(String prefix) {
+        if (StrUtil.isBlank(prefix) || !shopNameIndex.isReady()) {
+            return Result.ok(Collections.emptyList());
+        }
+        List<Map<String, Object>> suggestions = new ArrayList<>();
+        for (ShopNameIndex.Match match : shopNameIndex.suggest(prefix, SystemConstants.DEFAULT_PAGE_SIZE)) {
+            Map<String, Object> suggestion = new LinkedHashMap<>();
+            suggestion.put("id", match.getId());
+            suggestion.put("name", match.getName());
+            suggestion.put("area", match.getArea());
+            suggestions.add(suggestion);
+        }
+        return Result.ok(suggestions);
+    }
+    @Override
+    public Result queryShopByFilter(ShopFilter filter, Integer current) {
+        int pageSize = SystemConstants.DEFAULT_PAGE_SIZE;
+        LocalTime now = LocalTime.now();
+        boolean byScore = "score".equals(filter.getSortBy());
+
+        //1.从筛选索引中取一页店铺id
+        List<Long> ids = shopFilterIndex.query(filter, now, (current - 1) * pageSize, pageSize);
+        if (ids == null) {
+            //2.索引还没加载完成，查询数据库；营业时间无法用SQL判断，查出一页后再过滤
+            Page<Shop> page = query()
+                    .eq(filter.getTypeId() != null, "type_id", filter.getTypeId())
+                    .eq(StrUtil.isNotBlank(filter.getArea()), "area", filter.getArea())
+                    .ge(filter.getMinPrice() != null, "avg_price", filter.getMinPrice())
+                    .le(filter.getMaxPrice() != null, "avg_price", filter.getMaxPrice())
+                    .ge(filter.getMinScore() != null, "score",
+                            filter.getMinScore() == null ? null : (int) Math.ceil(filter.getMinScore() * 10 - 1e-6))
+                    .orderByDesc(byScore ? "score" : "sold")
+                    .orderByDesc(byScore ? "sold" : "score")
+                    .orderByAsc("id")
+                    .page(new Page<>(current, pageSize));
+            List<Shop> shops = page.getRecords();
+            if (Boolean.TRUE.equals(filter.getOpenNow())) {
+                shops.removeIf(shop -> !ShopFilterIndex.isOpenAt(shop.getOpenHours(), now));
+            }
+            return Result.ok(shops);
+        }
+        if (ids.isEmpty()) {
+            return Result.ok(Collections.emptyList());
+        }
 
-        String idStr = StrUtil.join(",", ids);
-        List<Shop> shops = query().in("id", ids).last("ORDER BY FIELD(id," + idStr + ")").list();
-        for (Shop shop : shops) {
-            shop.setDistance(distanceMap.get(shop.getId().toString()).getValue());
+        //3.批量读取店铺缓存，保持索引中的顺序
+        return Result.ok(cacheClient.queryManyWithCachePassThrough(CACHE_SHOP_KEY, ids, Shop.class,
+                this::listByIds, Shop::getId, CACHE_SHOP_TTL, TimeUnit.MINUTES));
+    }
+    @Override
+    public Result queryShopRanking(Integer typeId, String sortBy, String cursor) {
+        //1.解析排序字段和游标
+        ShopRanking.Order order = ShopRanking.Order.of(sortBy);
+        if (order == null) {
+            return Result.fail("不支持的排序方式！");
+        }
+        Long after = null;
+        if (StrUtil.isNotBlank(cursor)) {
+            try {
+                after = Long.parseLong(cursor);
+            } catch (NumberFormatException e) {
+                return Result.fail("无效的游标！");
+            }
         }
+        if (!shopRanking.isReady()) {
+            return Result.fail("排行榜正在加载，请稍后再试！");
+        }
+
+        //2.取游标之后的一页店铺id
+        ShopRanking.Page page = shopRanking.page(order, typeId, after, SystemConstants.DEFAULT_PAGE_SIZE);
+        String next = page.getCursor() == null ? null : page.getCursor().toString();
 
-        return Result.ok(shops);
+        //3.批量读取店铺缓存，保持排行榜中的顺序
+        return Result.ok(new CursorResult(queryShopsInOrder(page.getIds()), next));
     }
 
+    /**
+     * 按id批量读取店铺缓存，返回顺序与id顺序相同，只有缺失的店铺才查询数据库
+     */
+    private List<Shop> queryShopsInOrder(List<Long> ids) {
+        if (ids.isEmpty()) {
+            return Collections.emptyList();
+        }
+        return cacheClient.queryManyWithCachePassThrough(CACHE_SHOP_KEY, ids, Shop.class,
+                this::listByIds, Shop::getId, CACHE_SHOP_TTL, TimeUnit.MINUTES);
+    }
 
     public void shopToRedisData(Long id, Long expireSeconds) throws InterruptedException {
         //1.查询数据库
         Shop shop = getById(id);
         Thread.sleep(200);
-        RedisData redisData = new RedisData();
-        redisData.setData(shop);
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(expireSeconds));
         //2.插入数据到redis实现逻辑过期(永不过期)
-        redisTemplate.opsForValue().set(CACHE_SHOP_KEY + id, JSON.toJSONString(redisData));
+        cacheClient.setWithLogicalExpiration(CACHE_SHOP_KEY + id, shop, expireSeconds, TimeUnit.SECONDS);
     }
 
 
@@ -217,11 +401,70 @@ public class ShopServiceImpl extends ServiceImpl<ShopMapper, Shop> implements IS
             return Result.ok("店铺ID不能为空！");
         }
 
-        //1.修改数据库
+        //1.修改数据库，保留修改前的类型用于同步地理位置
+        Shop old = getById(id);
+        if (old == null) {
+            return Result.fail("店铺不存在！");
+        }
         updateById(shop);
-        //2.删除缓存
-        redisTemplate.delete(CACHE_SHOP_KEY + id);
+
+        //2.用更新后的 update_time 作为版本号删除缓存，更新前读到的旧数据不能再写回，事务提交后再延迟删除一次
+        Shop updated = getById(id);
+        cacheClient.delete(CACHE_SHOP_KEY + id, updated);
+
+        //3.事务提交后再更新索引并通知其他节点，回滚时索引不变
+        afterCommit(() -> {
+            //3.1坐标或类型可能变化，更新地理位置索引
+            shopGeoIndex.put(updated);
+            shopGeoLoader.sync(old, updated);
+            //3.2名称、商圈、价格、评分、销量、营业时间可能变化，更新名称索引和筛选索引
+            shopNameIndex.put(updated);
+            shopFilterIndex.put(updated);
+            //3.3类型、销量、评分、评论数可能变化，更新排行榜
+            shopRanking.sync(old, updated);
+        });
+
+        return Result.ok();
+    }
+
+    @Override
+    @Transactional
+    public Result deleteShopById(Long id) {
+        Shop old = getById(id);
+        if (old == null) {
+            return Result.fail("店铺不存在！");
+        }
+        //1.删除数据库
+        removeById(id);
+
+        //2.删除缓存，事务提交后再延迟删除一次
+        cacheClient.delete(CACHE_SHOP_KEY + id, old);
+
+        //3.事务提交后再从地理位置索引、名称索引、筛选索引和排行榜中移除，并通知其他节点
+        afterCommit(() -> {
+            shopGeoIndex.remove(id);
+            shopGeoLoader.sync(old, null);
+            shopNameIndex.remove(id);
+            shopFilterIndex.remove(id);
+            shopRanking.sync(old, null);
+        });
 
         return Result.ok();
     }
+
+    /**
+     * 在当前事务提交后执行，没有事务时立即执行
+     */
+    private static void afterCommit(Runnable action) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    action.run();
+                }
+            });
+        } else {
+            action.run();
+        }
+    }
 }
@@ -0,0 +1,89 @@
+package com.hmdp.service.impl;
+
+import com.hmdp.config.RabbitMQConfig;
+import com.hmdp.entity.VoucherOrder;
+import com.hmdp.service.IVoucherOrderService;
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Service;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 批量落库的订单消费者，开启 hmdp.order.batch.enabled 后替代 {@link VoucherOrderConsumer}
+ */
+@Service
+@Slf4j
+@RequiredArgsConstructor
+@ConditionalOnProperty(name = "hmdp.order.batch.enabled", havingValue = "true")
+public class VoucherOrderBatchConsumer {
+    private final IVoucherOrderService voucherOrderService;
+
+    private final long startTime = System.nanoTime();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder messages = new LongAdder();
+    private final LongAdder rows = new LongAdder();
+    private final LongAdder flushNanos = new LongAdder();
+    private final AtomicLong maxFlushNanos = new AtomicLong();
+    private final AtomicLong lastBatchSize = new AtomicLong();
+
+    @RabbitListener(queues = RabbitMQConfig.ORDER_QUEUE, containerFactory = RabbitMQConfig.ORDER_BATCH_CONTAINER_FACTORY)
+    public void handleVoucherOrders(List<VoucherOrder> voucherOrders) {
+        long begin = System.nanoTime();
+        int saved;
+        try {
+            saved = voucherOrderService.createVoucherOrderBatch(voucherOrders);
+        } catch (Exception e) {
+            // 整批事务失败，逐条重试，单条下单自带去重，重复处理不会多扣库存
+            log.error("批量处理秒杀订单异常，降级为逐条处理", e);
+            saved = 0;
+            for (VoucherOrder voucherOrder : voucherOrders) {
+                try {
+                    voucherOrderService.createVoucherOrder(voucherOrder);
+                    saved++;
+                } catch (Exception e1) {
+                    log.error("处理秒杀订单异常：{}", voucherOrder, e1);
+                }
+            }
+        }
+        long cost = System.nanoTime() - begin;
+
+        batches.increment();
+        messages.add(voucherOrders.size());
+        rows.add(saved);
+        flushNanos.add(cost);
+        maxFlushNanos.accumulateAndGet(cost, Math::max);
+        lastBatchSize.set(voucherOrders.size());
+        log.debug("批量落库订单：消息{}条，写入{}行，耗时{}ms", voucherOrders.size(), saved,
+                TimeUnit.NANOSECONDS.toMillis(cost));
+    }
+
+    /**
+     * 批量落库统计：批大小、落库耗时、每秒写入行数
+     */
+    public Map<String, Object> stats() {
+        long batchCount = batches.sum();
+        long rowCount = rows.sum();
+        double elapsedSeconds = (System.nanoTime() - startTime) / 1e9;
+        double flushSeconds = flushNanos.sum() / 1e9;
+
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("batches", batchCount);
+        stats.put("messages", messages.sum());
+        stats.put("rows", rowCount);
+        stats.put("lastBatchSize", lastBatchSize.get());
+        stats.put("avgBatchSize", batchCount == 0 ? 0 : (double) messages.sum() / batchCount);
+        stats.put("avgFlushMillis", batchCount == 0 ? 0 : flushSeconds * 1000 / batchCount);
+        stats.put("maxFlushMillis", TimeUnit.NANOSECONDS.toMillis(maxFlushNanos.get()));
+        stats.put("rowsPerSecond", elapsedSeconds == 0 ? 0 : rowCount / elapsedSeconds);
+        stats.put("flushRowsPerSecond", flushSeconds == 0 ? 0 : rowCount / flushSeconds);
+        return stats;
+    }
+}
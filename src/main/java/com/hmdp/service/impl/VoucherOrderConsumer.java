@@ -6,12 +6,14 @@ import com.hmdp.service.IVoucherOrderService;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.rabbit.annotation.RabbitListener;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
 import org.springframework.messaging.handler.annotation.Payload;
 import org.springframework.stereotype.Service;
 
 @Service
 @Slf4j
 @RequiredArgsConstructor
+@ConditionalOnProperty(name = "hmdp.order.batch.enabled", havingValue = "false", matchIfMissing = true)
 public class VoucherOrderConsumer {
     private final IVoucherOrderService voucherOrderService;
 
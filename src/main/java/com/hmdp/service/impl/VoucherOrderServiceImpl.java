@@ -1,18 +1,24 @@
 package com.hmdp.service.impl;
 
 import cn.hutool.core.bean.BeanUtil;
+import com.baomidou.mybatisplus.core.conditions.query.QueryWrapper;
 import com.baomidou.mybatisplus.extension.service.impl.ServiceImpl;
 import com.hmdp.config.RabbitMQConfig;
 import com.hmdp.dto.Result;
+import com.hmdp.entity.SeckillVoucher;
 import com.hmdp.entity.VoucherOrder;
 import com.hmdp.mapper.VoucherOrderMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherOrderService;
 import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillKeys;
+import com.hmdp.utils.SoldOutRegistry;
+import com.hmdp.utils.StockLeaseManager;
 import com.hmdp.utils.UserHolder;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.amqp.rabbit.core.RabbitTemplate;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.ApplicationContext;
 import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.connection.stream.*;
@@ -24,9 +30,9 @@ import org.springframework.transaction.annotation.Transactional;
 import javax.annotation.PostConstruct;
 import javax.annotation.Resource;
 import java.time.Duration;
-import java.util.Collections;
-import java.util.List;
-import java.util.Map;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
@@ -41,9 +47,19 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
     private RedisIdWorker redisIdWorker;
     @Resource
     private ApplicationContext applicationContext;
+    @Resource
+    private SoldOutRegistry soldOutRegistry;
+    @Resource
+    private StockLeaseManager stockLeaseManager;
 
     private final StringRedisTemplate redisTemplate;
     private final RabbitTemplate rabbitTemplate;
+    @Value("${hmdp.seckill.dedupe.mode:set}")
+    private String dedupeMode;
+    @Value("${hmdp.seckill.dedupe.segment-bits:65536}")
+    private int dedupeSegmentBits;
+    private final Map<Long, Integer> stockShards = new ConcurrentHashMap<>();
+    private final Map<Long, Long> seckillEndMillis = new ConcurrentHashMap<>();
 
     private static final DefaultRedisScript<Long> SECKILL_SCRIPT;
 
@@ -128,15 +144,27 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
 
     @Override
     public Result seckillVoucher(Long voucherId) {
+        // 本地已知售罄，直接拒绝，不再访问Redis
+        if (soldOutRegistry.isSoldOut(voucherId)) {
+            return Result.fail("库存不足");
+        }
         //获取用户
         Long userId = UserHolder.getUser().getId();
-        // 创建订单ID并准备订单信息
-        long orderId = redisIdWorker.nextId("order");
+
+        // 开启库存租约时在本地扣减，本地租约售罄不代表其他节点售罄，不广播
+        if (stockLeaseManager.isEnabled()) {
+            int ret = stockLeaseManager.tryAcquire(voucherId, userId);
+            if (ret != StockLeaseManager.SUCCESS) {
+                return Result.fail(ret == StockLeaseManager.SOLD_OUT ? "库存不足" : "不能重复下单");
+            }
+            return sendVoucherOrder(voucherId, userId);
+        }
 
         // 执行Lua脚本判断是否有秒杀资格
         Long result = redisTemplate.execute(SECKILL_SCRIPT,
-                Collections.emptyList(),
-                voucherId.toString(), userId.toString(), String.valueOf(voucherId));
+                SeckillKeys.scriptKeys(voucherId, userId, stockShardsOf(voucherId), dedupeMode, dedupeSegmentBits),
+                voucherId.toString(), userId.toString(),
+                SeckillKeys.dedupeOffset(userId, dedupeMode, dedupeSegmentBits));
 
         int ret = 0;
         if (result != null) {
@@ -144,9 +172,51 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         }
         if (ret != 0) {
             // 如果结果不为0，表示秒杀失败
-            return Result.fail(result == 1 ? "库存不足" : "不能重复下单");
+            if (ret == 1) {
+                // 库存不足，标记售罄直到秒杀结束，并通知其他节点
+                if (!soldOutRegistry.isSoldOut(voucherId)) {
+                    soldOutRegistry.markSoldOut(voucherId, endMillisOf(voucherId));
+                }
+                return Result.fail("库存不足");
+            }
+            return Result.fail("不能重复下单");
         }
+        return sendVoucherOrder(voucherId, userId);
+    }
 
+    private int stockShardsOf(Long voucherId) {
+        // 分片数在创建秒杀券时确定，之后不会变化，可以一直缓存在本地
+        Integer shards = stockShards.get(voucherId);
+        if (shards != null) {
+            return shards;
+        }
+        String value = redisTemplate.opsForValue().get(SeckillKeys.stockShards(voucherId));
+        if (value == null) {
+            return 1;
+        }
+        shards = Integer.valueOf(value);
+        stockShards.put(voucherId, shards);
+        return shards;
+    }
+
+    /**
+     * 秒杀结束时间，创建秒杀券时写入Redis，之后不会变化，缓存在本地；售罄时大量请求同时走到这里，不能查询数据库
+     * @return 没有记录结束时间时返回0
+     */
+    private long endMillisOf(Long voucherId) {
+        Long endMillis = seckillEndMillis.get(voucherId);
+        if (endMillis != null) {
+            return endMillis;
+        }
+        String value = redisTemplate.opsForValue().get(SeckillKeys.endTime(voucherId));
+        endMillis = value == null ? 0L : Long.parseLong(value);
+        seckillEndMillis.put(voucherId, endMillis);
+        return endMillis;
+    }
+
+    private Result sendVoucherOrder(Long voucherId, Long userId) {
+        // 获得秒杀资格后再创建订单ID
+        long orderId = redisIdWorker.nextId("order");
         VoucherOrder voucherOrder = new VoucherOrder();
         voucherOrder.setId(orderId);
         voucherOrder.setUserId(userId);
@@ -163,12 +233,16 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         Long userId = voucherOrder.getUserId();
 
         // 检查用户是否已下单
-        int count = query()
+        List<Object> orderIds = getBaseMapper().selectObjs(new QueryWrapper<VoucherOrder>()
+                .select("id")
                 .eq("user_id", userId)
-                .eq("voucher_id", voucherOrder.getVoucherId())
-                .count();
-        if (count > 0) {
-            return;  // 用户已下单，跳过
+                .eq("voucher_id", voucherOrder.getVoucherId()));
+        if (!orderIds.isEmpty()) {
+            // 用户已下单，跳过；不是同一条消息的重复投递时，归还这条订单占用的库存
+            if (orderIds.stream().noneMatch(id -> voucherOrder.getId().equals(((Number) id).longValue()))) {
+                stockLeaseManager.returnRejected(voucherOrder.getVoucherId(), 1);
+            }
+            return;
         }
 
         // 更新库存，并确保库存大于0
@@ -185,6 +259,81 @@ public class VoucherOrderServiceImpl extends ServiceImpl<VoucherOrderMapper, Vou
         // 保存订单
         save(voucherOrder);
     }
+
+    @Override
+    @Transactional
+    public int createVoucherOrderBatch(List<VoucherOrder> voucherOrders) {
+        // 1.按优惠券分组
+        Map<Long, List<VoucherOrder>> groups = voucherOrders.stream()
+                .collect(Collectors.groupingBy(VoucherOrder::getVoucherId, LinkedHashMap::new, Collectors.toList()));
+
+        int rows = 0;
+        for (Map.Entry<Long, List<VoucherOrder>> entry : groups.entrySet()) {
+            Long voucherId = entry.getKey();
+            // 2.一次查询已经下过单的用户
+            Set<Long> userIds = entry.getValue().stream().map(VoucherOrder::getUserId).collect(Collectors.toSet());
+            Map<Long, Long> savedOrderOfUser = new HashMap<>();
+            for (VoucherOrder saved : list(new QueryWrapper<VoucherOrder>()
+                    .select("id", "user_id")
+                    .eq("voucher_id", voucherId)
+                    .in("user_id", userIds))) {
+                savedOrderOfUser.put(saved.getUserId(), saved.getId());
+            }
+
+            // 3.剔除已经下过单的用户，批内同一用户只保留第一条；已经保存的就是这条订单时是重复投递，不占用新的库存
+            Map<Long, VoucherOrder> orderOfUser = new LinkedHashMap<>();
+            Set<Long> orderIds = new HashSet<>();
+            int rejected = 0;
+            for (VoucherOrder voucherOrder : entry.getValue()) {
+                if (!orderIds.add(voucherOrder.getId())) {
+                    continue;
+                }
+                Long savedOrderId = savedOrderOfUser.get(voucherOrder.getUserId());
+                if (savedOrderId != null) {
+                    if (!savedOrderId.equals(voucherOrder.getId())) {
+                        rejected++;
+                    }
+                } else if (orderOfUser.putIfAbsent(voucherOrder.getUserId(), voucherOrder) != null) {
+                    rejected++;
+                }
+            }
+            // 跨节点的重复订单在租约中占用了库存，事务提交后归还
+            stockLeaseManager.returnRejected(voucherId, rejected);
+            if (orderOfUser.isEmpty()) {
+                continue;
+            }
+
+            // 4.一次扣减整组库存
+            List<VoucherOrder> toSave = new ArrayList<>(orderOfUser.values());
+            if (!deductStock(voucherId, toSave.size())) {
+                // 4.1库存不足以满足整组，锁定库存行后按剩余库存截断
+                SeckillVoucher seckillVoucher = seckillVoucherService.query()
+                        .eq("voucher_id", voucherId)
+                        .last("FOR UPDATE")
+                        .one();
+                int stock = seckillVoucher == null ? 0 : seckillVoucher.getStock();
+                if (stock <= 0) {
+                    continue;
+                }
+                toSave = toSave.subList(0, Math.min(stock, toSave.size()));
+                if (!deductStock(voucherId, toSave.size())) {
+                    continue;
+                }
+            }
+
+            // 5.一条多行插入保存整组订单
+            rows += getBaseMapper().insertBatch(toSave);
+        }
+        return rows;
+    }
+
+    private boolean deductStock(Long voucherId, int count) {
+        return seckillVoucherService.update()
+                .setSql("stock = stock - " + count)
+                .ge("stock", count)
+                .eq("voucher_id", voucherId)
+                .update();
+    }
 }
 
 /*    @Override
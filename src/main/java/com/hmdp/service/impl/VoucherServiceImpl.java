@@ -7,15 +7,25 @@ import com.hmdp.entity.Voucher;
 import com.hmdp.mapper.VoucherMapper;
 import com.hmdp.service.ISeckillVoucherService;
 import com.hmdp.service.IVoucherService;
+import com.hmdp.utils.HmdpCacheEvict;
+import com.hmdp.utils.HmdpCached;
+import com.hmdp.utils.SeckillKeys;
 import lombok.RequiredArgsConstructor;
+import org.springframework.aop.framework.AopContext;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.data.redis.core.StringRedisTemplate;
 import org.springframework.stereotype.Service;
 import org.springframework.transaction.annotation.Transactional;
 
 import javax.annotation.Resource;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+
+import static com.hmdp.utils.RedisConstants.CACHE_SHOP_VOUCHER_KEY;
 
-import static com.hmdp.utils.RedisConstants.SECKILL_STOCK_KEY;
 
 /**
  * <p>
@@ -32,17 +42,35 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
     @Resource
     private ISeckillVoucherService seckillVoucherService;
     private final StringRedisTemplate redisTemplate;
+    @Value("${hmdp.seckill.stock-shards:1}")
+    private int stockShards;
 
     @Override
     public Result queryVoucherOfShop(Long shopId) {
-        // 查询优惠券信息
-        List<Voucher> vouchers = getBaseMapper().queryVoucherOfShop(shopId);
+        // 查询优惠券信息，通过代理调用才会经过缓存
+        List<Voucher> vouchers = ((IVoucherService) AopContext.currentProxy()).listVouchersOfShop(shopId);
         // 返回结果
         return Result.ok(vouchers);
     }
 
+    /**
+     * 列表中带有秒杀券库存，缓存时间较短
+     */
+    @Override
+    @HmdpCached(keyPrefix = CACHE_SHOP_VOUCHER_KEY, key = "#shopId", ttl = 1)
+    public List<Voucher> listVouchersOfShop(Long shopId) {
+        return getBaseMapper().queryVoucherOfShop(shopId);
+    }
+
+    @Override
+    @HmdpCacheEvict(keyPrefix = CACHE_SHOP_VOUCHER_KEY, key = "#voucher.shopId")
+    public void addVoucher(Voucher voucher) {
+        save(voucher);
+    }
+
     @Override
     @Transactional
+    @HmdpCacheEvict(keyPrefix = CACHE_SHOP_VOUCHER_KEY, key = "#voucher.shopId")
     public void addSeckillVoucher(Voucher voucher) {
         // 保存优惠券
         save(voucher);
@@ -54,6 +82,30 @@ public class VoucherServiceImpl extends ServiceImpl<VoucherMapper, Voucher> impl
         seckillVoucher.setEndTime(voucher.getEndTime());
         seckillVoucherService.save(seckillVoucher);
         // 保存秒杀库存到Redis中
-        redisTemplate.opsForValue().set(SECKILL_STOCK_KEY + voucher.getId(), voucher.getStock().toString());
+        saveSeckillStock(voucher.getId(), voucher.getStock(), voucher.getEndTime());
+    }
+
+    /**
+     * 库存、分片数和结束时间一起写入，售罄时按结束时间标记，不再查询数据库
+     */
+    private void saveSeckillStock(Long voucherId, int stock, LocalDateTime endTime) {
+        // 库存不足以分片时退化为单key
+        int shards = Math.max(1, Math.min(stockShards, stock));
+        Map<String, String> stocks = new HashMap<>(shards + 1);
+        if (shards == 1) {
+            stocks.put(SeckillKeys.stock(voucherId), String.valueOf(stock));
+        } else {
+            // 库存平均拆分到各个分片，余数依次分给前面的分片
+            for (int i = 0; i < shards; i++) {
+                int shardStock = stock / shards + (i < stock % shards ? 1 : 0);
+                stocks.put(SeckillKeys.stockShard(voucherId, i), String.valueOf(shardStock));
+            }
+        }
+        stocks.put(SeckillKeys.stockShards(voucherId), String.valueOf(shards));
+        if (endTime != null) {
+            stocks.put(SeckillKeys.endTime(voucherId),
+                    String.valueOf(endTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli()));
+        }
+        redisTemplate.opsForValue().multiSet(stocks);
     }
 }
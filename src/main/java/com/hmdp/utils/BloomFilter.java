@@ -0,0 +1,141 @@
+package com.hmdp.utils;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 元素为long型id的布隆过滤器。位数组用AtomicLongArray保存，可以并发读写；
+ * 第i位对应Redis位图的偏移量i，可以和Redis中的SETBIT/GET直接互相转换
+ */
+public class BloomFilter {
+    private final AtomicLongArray words;
+    private final long bitSize;
+    private final int hashCount;
+
+    /**
+     * @param expectedInsertions 预计元素个数
+     * @param fpp 期望的误判率
+     */
+    public BloomFilter(long expectedInsertions, double fpp) {
+        long n = Math.max(1, expectedInsertions);
+        long bits = (long) Math.ceil(-n * Math.log(fpp) / (Math.log(2) * Math.log(2)));
+        // 位数取64的整数倍
+        this.bitSize = Math.max(64, (bits + 63) / 64 * 64);
+        this.hashCount = Math.max(1, (int) Math.round((double) bitSize / n * Math.log(2)));
+        this.words = new AtomicLongArray((int) (bitSize / 64));
+    }
+
+    public void put(long id) {
+        for (long offset : offsets(id)) {
+            int index = (int) (offset >>> 6);
+            long mask = 1L << (offset & 63);
+            long word;
+            while (((word = words.get(index)) & mask) == 0 && !words.compareAndSet(index, word, word | mask)) {
+                // CAS失败说明同一个字被其他线程修改，重试
+            }
+        }
+    }
+
+    public boolean mightContain(long id) {
+        for (long offset : offsets(id)) {
+            if ((words.get((int) (offset >>> 6)) & (1L << (offset & 63))) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * 计算id对应的hashCount个位偏移量，使用两个64位哈希组合出多个哈希
+     */
+    public long[] offsets(long id) {
+        long hash1 = mix(id);
+        long hash2 = mix(hash1 ^ 0x9E3779B97F4A7C15L);
+        long[] offsets = new long[hashCount];
+        long combined = hash1;
+        for (int i = 0; i < hashCount; i++) {
+            offsets[i] = (combined & Long.MAX_VALUE) % bitSize;
+            combined += hash2;
+        }
+        return offsets;
+    }
+
+    private static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public long bitSize() {
+        return bitSize;
+    }
+
+    public int hashCount() {
+        return hashCount;
+    }
+
+    public long memoryBytes() {
+        return bitSize / 8;
+    }
+
+    public long bitCount() {
+        long count = 0;
+        for (int i = 0; i < words.length(); i++) {
+            count += Long.bitCount(words.get(i));
+        }
+        return count;
+    }
+
+    /**
+     * 按当前置位比例估算的误判率
+     */
+    public double currentFpp() {
+        return Math.pow((double) bitCount() / bitSize, hashCount);
+    }
+
+    /**
+     * 按置位个数估算已插入的元素个数
+     */
+    public long approximateElements() {
+        double fill = (double) bitCount() / bitSize;
+        if (fill >= 1) {
+            return Long.MAX_VALUE;
+        }
+        return Math.round(-(double) bitSize / hashCount * Math.log(1 - fill));
+    }
+
+    /**
+     * 转为Redis位图：偏移量i在第i/8个字节，从高位开始
+     */
+    public byte[] toRedisBytes() {
+        byte[] bytes = new byte[(int) (bitSize / 8)];
+        for (int i = 0; i < words.length(); i++) {
+            long word = words.get(i);
+            for (int j = 0; j < 8; j++) {
+                bytes[i * 8 + j] = (byte) (Integer.reverse((int) (word >>> (j * 8)) & 0xFF) >>> 24);
+            }
+        }
+        return bytes;
+    }
+
+    /**
+     * 从Redis位图中读取已置位的位，长度不一致说明参数变化，返回false
+     */
+    public boolean mergeRedisBytes(byte[] bytes) {
+        if (bytes == null || bytes.length != bitSize / 8) {
+            return false;
+        }
+        for (int i = 0; i < words.length(); i++) {
+            long word = 0;
+            for (int j = 0; j < 8; j++) {
+                word |= (long) (Integer.reverse(bytes[i * 8 + j] & 0xFF) >>> 24) << (j * 8);
+            }
+            if (word != 0) {
+                words.getAndAccumulate(i, word, (a, b) -> a | b);
+            }
+        }
+        return true;
+    }
+}
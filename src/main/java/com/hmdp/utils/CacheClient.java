@@ -1,16 +1,31 @@
 package com.hmdp.utils;
 
-import cn.hutool.core.util.StrUtil;
+import cn.hutool.core.lang.UUID;
 import com.alibaba.fastjson2.JSON;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.ReturnType;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.serializer.GenericToStringSerializer;
+import org.springframework.data.redis.serializer.RedisSerializer;
 import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.lang.reflect.Field;
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.TimeUnit;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.*;
 import java.util.function.Function;
 
 import static com.hmdp.utils.RedisConstants.CACHE_NULL_TTL;
@@ -20,119 +35,682 @@ import static com.hmdp.utils.RedisConstants.LOCK_SHOP_TTL;
 @Component
 @RequiredArgsConstructor
 public class CacheClient {
+    private static final DefaultRedisScript<Long> RELEASE_LOCK_SCRIPT;
+    static {
+        RELEASE_LOCK_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_LOCK_SCRIPT.setLocation(new ClassPathResource("releaseLock.lua"));
+        RELEASE_LOCK_SCRIPT.setResultType(Long.class);
+    }
+    private static final DefaultRedisScript<Long> CACHE_WRITE_SCRIPT;
+    static {
+        CACHE_WRITE_SCRIPT = new DefaultRedisScript<>();
+        CACHE_WRITE_SCRIPT.setLocation(new ClassPathResource("cacheWrite.lua"));
+        CACHE_WRITE_SCRIPT.setResultType(Long.class);
+    }
+    private static final DefaultRedisScript<Long> CACHE_INVALIDATE_SCRIPT;
+    static {
+        CACHE_INVALIDATE_SCRIPT = new DefaultRedisScript<>();
+        CACHE_INVALIDATE_SCRIPT.setLocation(new ClassPathResource("cacheInvalidate.lua"));
+        CACHE_INVALIDATE_SCRIPT.setResultType(Long.class);
+    }
+    private static final RedisSerializer<Long> LONG_SERIALIZER = new GenericToStringSerializer<>(Long.class);
+    /**
+     * 每个实体类的 updateTime 字段，没有该字段的类型不做版本检查
+     */
+    private static final Map<Class<?>, Optional<Field>> VERSION_FIELDS = new ConcurrentHashMap<>();
+
     private final StringRedisTemplate redisTemplate;
-    private final ExecutorService CACHE_REBUILD_EXECUTOR = Executors.newFixedThreadPool(10);
+    private final LocalCache localCache;
+    private final CacheStats cacheStats;
+    private final SingleFlight singleFlight;
+    private final CacheEnvelope cacheEnvelope;
+    private final IdBloomFilter idBloomFilter;
+    private final CacheRebuildScheduler rebuildScheduler;
+    private final HotKeyDetector hotKeyDetector;
+    private final CacheLoadNotifier loadNotifier;
+
+    /**
+     * 过期时间随机增加的最大比例，避免同时写入的key在同一时刻过期
+     */
+    @Value("${hmdp.cache.ttl-jitter:0.1}")
+    private double ttlJitter = 0.1;
+    /**
+     * 提前刷新的系数，越大越早刷新
+     */
+    @Value("${hmdp.cache.early-refresh.beta:1.0}")
+    private double earlyRefreshBeta = 1.0;
+    /**
+     * 版本栅栏的有效期，需要大于一次回源（查询数据库并写回缓存）的最长耗时
+     */
+    @Value("${hmdp.cache.version.fence-ttl-seconds:60}")
+    private long fenceTtlSeconds = 60;
+    /**
+     * 数据更新的事务提交后，延迟多久再删除一次缓存，0表示不延迟删除
+     */
+    @Value("${hmdp.cache.version.delayed-delete-millis:500}")
+    private long delayedDeleteMillis = 500;
+    /**
+     * 没抢到互斥锁时等待加载完成通知的最长时间，超时后直接查询数据库
+     */
+    @Value("${hmdp.cache.mutex.wait-millis:2000}")
+    private long mutexWaitMillis = 2000;
+
+    private ScheduledExecutorService delayedDeleter;
+
+    @PostConstruct
+    private void init() {
+        delayedDeleter = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cache-delayed-delete");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+
+    @PreDestroy
+    private void destroy() {
+        delayedDeleter.shutdown();
+    }
 
-    // 设置缓存值
-    public void setValue(String key, Object data, Long expireDuration, TimeUnit unit) {
-        redisTemplate.opsForValue().set(key, JSON.toJSONString(data), expireDuration, unit);
+    /**
+     * 设置缓存值，过期时间带随机抖动
+     * @return 数据比最近一次更新旧、被拒绝写入时返回false
+     */
+    public boolean setValue(String key, Object data, Long expireDuration, TimeUnit unit) {
+        return writeVersioned(key, JSON.toJSONBytes(data), jitteredMillis(expireDuration, unit), data);
     }
 
     // 设置带有逻辑过期的缓存值
     public void setWithLogicalExpiration(String key, Object data, Long expireDuration, TimeUnit unit) {
-        RedisData redisData = new RedisData();
-        redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(expireDuration)));
-        redisData.setData(data);
+        long expireAt = System.currentTimeMillis() + jitteredMillis(expireDuration, unit);
+        writeVersioned(key, cacheEnvelope.encode(data, expireAt), 0, data);
+    }
+
+    /**
+     * 数据的版本号：updateTime 的毫秒值，没有 updateTime 的类型返回 -1
+     */
+    public static long versionOf(Object data) {
+        if (data == null) {
+            return -1;
+        }
+        Optional<Field> field = VERSION_FIELDS.computeIfAbsent(data.getClass(), type -> {
+            for (Class<?> c = type; c != null && c != Object.class; c = c.getSuperclass()) {
+                try {
+                    Field f = c.getDeclaredField("updateTime");
+                    if (f.getType() == LocalDateTime.class) {
+                        f.setAccessible(true);
+                        return Optional.of(f);
+                    }
+                } catch (NoSuchFieldException ignored) {
+                    // 继续查找父类
+                }
+            }
+            return Optional.empty();
+        });
+        if (!field.isPresent()) {
+            return -1;
+        }
+        try {
+            LocalDateTime updateTime = (LocalDateTime) field.get().get(data);
+            return updateTime == null ? -1 : updateTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+        } catch (IllegalAccessException e) {
+            return -1;
+        }
+    }
 
-        redisTemplate.opsForValue().set(key, JSON.toJSONString(redisData));
+    /**
+     * 版本栅栏的key，用 hash tag 保证和缓存key在同一个slot，可以在一个脚本里操作
+     */
+    private static String versionKey(String key) {
+        return "{" + key + "}:ver";
+    }
+
+    /**
+     * 带版本号写入缓存：数据比版本栅栏旧时拒绝写入，防止更新前读到的旧数据在删除缓存后又被写回
+     * @param ttlMillis Redis中的过期时间，0表示不过期（逻辑过期）
+     * @return 是否写入
+     */
+    private boolean writeVersioned(String key, byte[] value, long ttlMillis, Object data) {
+        long version = versionOf(data);
+        if (version < 0) {
+            byte[] rawKey = key.getBytes(StandardCharsets.UTF_8);
+            redisTemplate.execute((RedisCallback<Boolean>) connection -> ttlMillis > 0
+                    ? connection.stringCommands().pSetEx(rawKey, ttlMillis, value)
+                    : connection.stringCommands().set(rawKey, value));
+            return true;
+        }
+        Long written = redisTemplate.execute(CACHE_WRITE_SCRIPT, RedisSerializer.byteArray(), LONG_SERIALIZER,
+                Arrays.asList(key, versionKey(key)), value, toBytes(version), toBytes(ttlMillis));
+        if (!Long.valueOf(1L).equals(written)) {
+            log.debug("拒绝写回旧版本的缓存：{}，version={}", key, version);
+            return false;
+        }
+        return true;
+    }
+
+    private static byte[] toBytes(long value) {
+        return String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * 在过期时间上随机增加 [0, ttlJitter) 比例的时长
+     */
+    private long jitteredMillis(long expireDuration, TimeUnit unit) {
+        long millis = unit.toMillis(expireDuration);
+        if (ttlJitter <= 0) {
+            return millis;
+        }
+        return millis + (long) (millis * ttlJitter * ThreadLocalRandom.current().nextDouble());
+    }
+
+    private byte[] getBytes(String key) {
+        return redisTemplate.execute((RedisCallback<byte[]>) connection ->
+                connection.stringCommands().get(key.getBytes(StandardCharsets.UTF_8)));
+    }
+
+    // 缓存空值，防止缓存穿透
+    private void setNull(String key) {
+        redisTemplate.opsForValue().set(key, "", jitteredMillis(CACHE_NULL_TTL, TimeUnit.MINUTES), TimeUnit.MILLISECONDS);
+    }
+
+    // 删除缓存，同时通知所有节点删除本地缓存
+    public void delete(String key) {
+        redisTemplate.delete(key);
+        localCache.evict(key);
+        hotKeyDetector.evict(key);
+    }
+
+    /**
+     * 数据更新后删除缓存：把更新后的版本号写入版本栅栏，更新前读到的旧数据不能再写回缓存；
+     * 事务提交后再延迟删除一次，清掉与更新在同一秒内（update_time 精度为秒）或从库延迟期间写回的数据
+     * @param updated 更新后从数据库读出的数据，用它的 updateTime 作为版本号
+     */
+    public void delete(String key, Object updated) {
+        long version = versionOf(updated);
+        if (version < 0) {
+            delete(key);
+        } else {
+            redisTemplate.execute(CACHE_INVALIDATE_SCRIPT, Arrays.asList(key, versionKey(key)),
+                    String.valueOf(version), String.valueOf(TimeUnit.SECONDS.toMillis(fenceTtlSeconds)));
+            localCache.evict(key);
+            hotKeyDetector.evict(key);
+        }
+        if (delayedDeleteMillis <= 0) {
+            return;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    scheduleDelete(key);
+                }
+            });
+        } else {
+            scheduleDelete(key);
+        }
+    }
+
+    private void scheduleDelete(String key) {
+        delayedDeleter.schedule(() -> {
+            try {
+                delete(key);
+            } catch (Exception e) {
+                log.error("延迟删除缓存失败：{}", key, e);
+            }
+        }, delayedDeleteMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * 读本地缓存并记录访问：热点key先读各节点上的热点副本，再读普通本地缓存
+     */
+    private Object getLocal(String key) {
+        Object hot = hotKeyDetector.access(key);
+        return hot != null ? hot : localCache.get(key);
+    }
+
+    private void putLocal(String key, Object value) {
+        localCache.put(key, value);
+        hotKeyDetector.cacheIfHot(key, value);
     }
 
     // 查询缓存，支持缓存穿透
     public <R, ID> R queryWithCachePassThrough(String keyPrefix, ID id, Class<R> type, Function<ID, R> dataFallBack,
                                                Long expireDuration, TimeUnit unit) {
-        String key = keyPrefix + id;
-        String json = redisTemplate.opsForValue().get(key);
+        return queryWithCachePassThrough(keyPrefix, id, type, dataFallBack, expireDuration, unit, true);
+    }
 
-        if (StrUtil.isNotBlank(json)) {
-            return JSON.parseObject(json, type);
+    /**
+     * @param type 数据类型，可以是 List&lt;Shop&gt; 这样的泛型类型
+     * @param cacheNull 数据库中不存在时是否缓存空值
+     */
+    public <R, ID> R queryWithCachePassThrough(String keyPrefix, ID id, Type type, Function<ID, R> dataFallBack,
+                                               Long expireDuration, TimeUnit unit, boolean cacheNull) {
+        // 布隆过滤器判断一定不存在，不再查询Redis和数据库
+        if (!idBloomFilter.mightContain(keyPrefix, id)) {
+            return null;
+        }
+        String key = keyPrefix + id;
+        // 先查本地缓存
+        Object local = getLocal(key);
+        if (local != null) {
+            cacheStats.recordLocalHit(keyPrefix);
+            return fromLocal(local);
         }
 
-        if (json != null) {
-            return null;
+        byte[] bytes = getBytes(key);
+
+        if (bytes != null) {
+            cacheStats.recordRedisHit(keyPrefix);
+            // 空串表示数据库中不存在
+            R data = bytes.length == 0 ? null : cacheEnvelope.decode(bytes, type);
+            putLocal(key, data);
+            return data;
         }
 
+        cacheStats.recordMiss(keyPrefix);
+        // 同一个key在本JVM内只回源一次，其他线程等待结果
+        return singleFlight.execute(key, () -> load(key, id, dataFallBack, expireDuration, unit, cacheNull));
+    }
+
+    private <R, ID> R load(String key, ID id, Function<ID, R> dataFallBack, Long expireDuration, TimeUnit unit,
+                           boolean cacheNull) {
         R data = dataFallBack.apply(id);
 
         if (data == null) {
-            this.setValue(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+            if (cacheNull) {
+                setNull(key);
+                putLocal(key, null);
+            }
             return null;
         }
 
-        this.setValue(key, data, expireDuration, unit);
+        // 被版本栅栏拒绝的旧数据也不放入本地缓存
+        if (this.setValue(key, data, expireDuration, unit)) {
+            putLocal(key, data);
+        }
         return data;
     }
 
+    /**
+     * 本地缓存中的值转成数据：同一个key可能被逻辑过期方式读过，本地保存的是 LogicalValue，取出其中的数据
+     */
+    @SuppressWarnings("unchecked")
+    private static <R> R fromLocal(Object local) {
+        if (local instanceof LogicalValue) {
+            return (R) ((LogicalValue) local).data;
+        }
+        return local == LocalCache.NULL_VALUE ? null : (R) local;
+    }
 
-    public <R, ID> R queryWithLogicalExpiration(String keyPrefix, ID id, Class<R> type, Function<ID, R> dataFallBack,
-                                                Long time, TimeUnit unit) {
-        String key = keyPrefix + id;
-        String lockKey = key + ":lock";
-        String json = redisTemplate.opsForValue().get(key);
+    /**
+     * 查询缓存，未命中时用Redis互斥锁保证所有节点只有一个线程查询数据库，
+     * 没抢到锁的线程订阅加载完成通知，缓存写入后立即被唤醒；等待超时后直接查询数据库
+     */
+    public <R, ID> R queryWithMutex(String keyPrefix, ID id, Class<R> type, Function<ID, R> dataFallBack,
+                                    Long expireDuration, TimeUnit unit) {
+        return queryWithMutex(keyPrefix, id, type, dataFallBack, expireDuration, unit, true);
+    }
 
-        // 如果缓存为空，返回 null
-        if (StrUtil.isBlank(json)) {
+    public <R, ID> R queryWithMutex(String keyPrefix, ID id, Type type, Function<ID, R> dataFallBack,
+                                    Long expireDuration, TimeUnit unit, boolean cacheNull) {
+        if (!idBloomFilter.mightContain(keyPrefix, id)) {
             return null;
         }
+        String key = keyPrefix + id;
+        Object local = getLocal(key);
+        if (local != null) {
+            cacheStats.recordLocalHit(keyPrefix);
+            return fromLocal(local);
+        }
 
-        // 解析缓存数据
-        RedisData redisData = JSON.parseObject(json, RedisData.class);
-        R data = JSON.parseObject(JSON.toJSONString(redisData.getData()), type);
-        LocalDateTime expireTime = redisData.getExpireTime();
-
-        // 如果缓存数据没有过期，直接返回
-        if (expireTime.isAfter(LocalDateTime.now())) {
+        byte[] bytes = getBytes(key);
+        if (bytes != null) {
+            cacheStats.recordRedisHit(keyPrefix);
+            R data = bytes.length == 0 ? null : cacheEnvelope.decode(bytes, type);
+            putLocal(key, data);
             return data;
         }
 
-        // 如果缓存数据已过期，尝试获取锁
-        boolean isLockAcquired = tryAcquireLock(lockKey);
-        if (isLockAcquired) {
+        cacheStats.recordMiss(keyPrefix);
+        // 本JVM内同一个key只有一个线程去竞争互斥锁，其他线程等待它的结果
+        return singleFlight.execute(key, () -> loadWithMutex(key, id, type, dataFallBack, expireDuration, unit, cacheNull));
+    }
+
+    private <R, ID> R loadWithMutex(String key, ID id, Type type, Function<ID, R> dataFallBack, Long expireDuration,
+                                    TimeUnit unit, boolean cacheNull) {
+        String lockKey = key + ":lock";
+        String lockValue = UUID.randomUUID().toString(true);
+        long deadline = System.currentTimeMillis() + mutexWaitMillis;
+        while (true) {
+            // 1.先订阅再竞争锁，持有锁的线程在这之后写完缓存一定能通知到
+            CompletableFuture<Void> loaded = loadNotifier.subscribe(key);
             try {
-                // 获取锁后，异步执行缓存重建
-                CACHE_REBUILD_EXECUTOR.submit(() -> rebuildCache(key, dataFallBack, id, time, unit));
+                if (Boolean.TRUE.equals(redisTemplate.opsForValue()
+                        .setIfAbsent(lockKey, lockValue, LOCK_SHOP_TTL, TimeUnit.SECONDS))) {
+                    break;
+                }
+                // 2.没抢到锁，可能在订阅之前已经写完，先查一次缓存
+                byte[] cached = getBytes(key);
+                if (cached != null) {
+                    return fromRedis(key, cached, type);
+                }
+                // 3.等待加载完成通知，超时后不再等待，直接查询数据库
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    log.warn("等待缓存加载超时，直接查询数据库：{}", key);
+                    return dataFallBack.apply(id);
+                }
+                try {
+                    loaded.get(remaining, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    continue;
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new RuntimeException(e);
+                } catch (ExecutionException e) {
+                    throw new IllegalStateException(e.getCause());
+                }
+                // 4.被唤醒后读缓存，持有锁的线程加载失败或写入被拒绝时缓存仍然为空，重新竞争锁
+                cached = getBytes(key);
+                if (cached != null) {
+                    return fromRedis(key, cached, type);
+                }
             } finally {
-                releaseLock(lockKey); // 释放锁
+                loadNotifier.unsubscribe(key, loaded);
             }
         }
+        // 5.竞争成功，查询数据库并写入缓存，结束后通知等待者
+        try {
+            return load(key, id, dataFallBack, expireDuration, unit, cacheNull);
+        } finally {
+            redisTemplate.execute(RELEASE_LOCK_SCRIPT, Collections.singletonList(lockKey), lockValue);
+            loadNotifier.notifyLoaded(key);
+        }
+    }
 
-        // 返回旧数据，防止缓存击穿
+    private <R> R fromRedis(String key, byte[] bytes, Type type) {
+        R data = bytes.length == 0 ? null : cacheEnvelope.decode(bytes, type);
+        putLocal(key, data);
         return data;
     }
 
-    private <R, ID> void rebuildCache(String key, Function<ID, R> dataFallBack, ID id, Long time, TimeUnit unit) {
-        try {
-            // 获取数据，执行数据回退操作
-            R data = dataFallBack.apply(id);
+    /**
+     * 批量查询缓存：一次MGET，只为缺失的id回源一次，回源结果用管道写回，不存在的id缓存空值
+     * @param dbFallback 按id集合批量查询数据库，例如 listByIds
+     * @param idGetter 从查询结果中取出id
+     * @return 按ids的顺序排列的结果，不存在的id被跳过
+     */
+    public <R, ID> List<R> queryManyWithCachePassThrough(String keyPrefix, List<ID> ids, Class<R> type,
+                                                         Function<Collection<ID>, ? extends Collection<R>> dbFallback,
+                                                         Function<R, ID> idGetter, Long expireDuration, TimeUnit unit) {
+        Map<ID, R> found = new HashMap<>(ids.size() * 2);
 
+        // 1.先查本地缓存
+        List<ID> redisIds = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            if (!idBloomFilter.mightContain(keyPrefix, id)) {
+                continue;
+            }
+            Object local = getLocal(keyPrefix + id);
+            if (local == null) {
+                redisIds.add(id);
+                continue;
+            }
+            cacheStats.recordLocalHit(keyPrefix);
+            R data = fromLocal(local);
             if (data != null) {
-                // 构建并保存缓存数据
-                RedisData redisData = new RedisData();
-                redisData.setExpireTime(LocalDateTime.now().plusSeconds(unit.toSeconds(time))); // 设置逻辑过期时间
-                redisData.setData(data);
-
-                // 更新缓存
-                redisTemplate.opsForValue().set(key, JSON.toJSONString(redisData));
-            } else {
-                // 如果数据为空，可以选择设置空缓存，避免缓存穿透
-                this.setValue(key, "", CACHE_NULL_TTL, TimeUnit.MINUTES);
+                found.put(id, type.cast(data));
+            }
+        }
+
+        // 2.本地未命中的一次MGET
+        List<ID> missingIds = new ArrayList<>();
+        if (!redisIds.isEmpty()) {
+            byte[][] keys = new byte[redisIds.size()][];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = (keyPrefix + redisIds.get(i)).getBytes(StandardCharsets.UTF_8);
+            }
+            List<byte[]> values = redisTemplate.execute((RedisCallback<List<byte[]>>) connection ->
+                    connection.stringCommands().mGet(keys));
+            for (int i = 0; i < redisIds.size(); i++) {
+                ID id = redisIds.get(i);
+                byte[] bytes = values == null ? null : values.get(i);
+                if (bytes == null) {
+                    cacheStats.recordMiss(keyPrefix);
+                    missingIds.add(id);
+                    continue;
+                }
+                cacheStats.recordRedisHit(keyPrefix);
+                if (bytes.length == 0) {
+                    putLocal(keyPrefix + id, null);
+                    continue;
+                }
+                R data = cacheEnvelope.decode(bytes, type);
+                found.put(id, data);
+                putLocal(keyPrefix + id, data);
             }
-        } catch (Exception e) {
-            log.error("缓存重建失败", e);
         }
+
+        // 3.缺失的id一次回源，并用管道写回缓存
+        if (!missingIds.isEmpty()) {
+            Map<ID, R> loaded = new HashMap<>(missingIds.size() * 2);
+            for (R data : dbFallback.apply(missingIds)) {
+                loaded.put(idGetter.apply(data), data);
+            }
+            List<Object> written = redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+                StringRedisConnection conn = (StringRedisConnection) connection;
+                for (ID id : missingIds) {
+                    R data = loaded.get(id);
+                    if (data == null) {
+                        conn.pSetEx(keyPrefix + id, jitteredMillis(CACHE_NULL_TTL, TimeUnit.MINUTES), "");
+                        continue;
+                    }
+                    long ttlMillis = jitteredMillis(expireDuration, unit);
+                    long version = versionOf(data);
+                    if (version < 0) {
+                        conn.pSetEx(keyPrefix + id, ttlMillis, JSON.toJSONString(data));
+                    } else {
+                        // 管道中无法处理NOSCRIPT，直接发送脚本内容
+                        String key = keyPrefix + id;
+                        conn.eval(CACHE_WRITE_SCRIPT.getScriptAsString(), ReturnType.INTEGER, 2, key, versionKey(key),
+                                JSON.toJSONString(data), String.valueOf(version), String.valueOf(ttlMillis));
+                    }
+                }
+                return null;
+            });
+            for (int i = 0; i < missingIds.size(); i++) {
+                ID id = missingIds.get(i);
+                R data = loaded.get(id);
+                // 被版本栅栏拒绝的旧数据不放入本地缓存
+                if (!Long.valueOf(0L).equals(written.get(i))) {
+                    putLocal(keyPrefix + id, data);
+                }
+                if (data != null) {
+                    found.put(id, data);
+                }
+            }
+        }
+
+        // 4.按输入顺序返回
+        List<R> result = new ArrayList<>(ids.size());
+        for (ID id : ids) {
+            R data = found.get(id);
+            if (data != null) {
+                result.add(data);
+            }
+        }
+        return result;
     }
 
-    private boolean tryAcquireLock(String lockKey) {
-        // 使用 setIfAbsent 获取锁，并设置锁的过期时间
-        Boolean lockAcquired = redisTemplate.opsForValue().setIfAbsent(lockKey, "LOCKED", LOCK_SHOP_TTL, TimeUnit.MINUTES);
-        return lockAcquired != null && lockAcquired;
+    /**
+     * 本地缓存中带过期时间的数据：逻辑过期方式和提前刷新方式使用，提前刷新时还记录上次加载耗时
+     */
+    private static class LogicalValue {
+        private final long expireAt;
+        private final int loadMillis;
+        private final Object data;
+
+        private LogicalValue(long expireAt, Object data) {
+            this(expireAt, 0, data);
+        }
+
+        private LogicalValue(long expireAt, int loadMillis, Object data) {
+            this.expireAt = expireAt;
+            this.loadMillis = loadMillis;
+            this.data = data;
+        }
     }
 
-    private void releaseLock(String lockKey) {
-        // 删除锁
-        redisTemplate.delete(lockKey);
+    public <R, ID> R queryWithLogicalExpiration(String keyPrefix, ID id, Class<R> type, Function<ID, R> dataFallBack,
+                                                Long time, TimeUnit unit) {
+        return queryWithLogicalExpiration(keyPrefix, id, type, dataFallBack, time, unit, true);
     }
 
+    @SuppressWarnings("unchecked")
+    public <R, ID> R queryWithLogicalExpiration(String keyPrefix, ID id, Type type, Function<ID, R> dataFallBack,
+                                                Long time, TimeUnit unit, boolean cacheNull) {
+        if (!idBloomFilter.mightContain(keyPrefix, id)) {
+            return null;
+        }
+        String key = keyPrefix + id;
+        // 本地缓存中未逻辑过期的数据直接返回
+        Object local = getLocal(key);
+        if (local instanceof LogicalValue && ((LogicalValue) local).expireAt > System.currentTimeMillis()) {
+            cacheStats.recordLocalHit(keyPrefix);
+            return (R) ((LogicalValue) local).data;
+        }
 
+        byte[] bytes = getBytes(key);
 
-}
+        // 缓存中没有数据（没有预热或被删除），本JVM内只回源一次，写入后返回
+        if (bytes == null) {
+            cacheStats.recordMiss(keyPrefix);
+            return singleFlight.execute(key, () -> rebuildCache(key, dataFallBack, id, time, unit, cacheNull));
+        }
+        cacheStats.recordRedisHit(keyPrefix);
+        if (bytes.length == 0) {
+            return null;
+        }
+
+        // 解析缓存数据，过期时间从信封头读取，数据只解析一次
+        long expireAt = cacheEnvelope.expireAt(bytes);
+        R data = cacheEnvelope.decodeLogical(bytes, type);
+
+        // 如果缓存数据没有过期，直接返回，普通JSON没有过期时间，视为已过期
+        if (expireAt > System.currentTimeMillis()) {
+            putLocal(key, new LogicalValue(expireAt, data));
+            return data;
+        }
 
+        // 如果缓存数据已过期，异步重建，同一个key只有一个重建任务，锁持有到重建结束
+        rebuildScheduler.submit(keyPrefix, key, key + ":lock", () -> rebuildCache(key, dataFallBack, id, time, unit, cacheNull));
+
+        // 返回旧数据，防止缓存击穿
+        return data;
+    }
+
+    private <R, ID> R rebuildCache(String key, Function<ID, R> dataFallBack, ID id, Long time, TimeUnit unit,
+                                   boolean cacheNull) {
+        // 获取数据，执行数据回退操作
+        R data = dataFallBack.apply(id);
+
+        if (data != null) {
+            // 设置逻辑过期时间，构建并保存缓存数据
+            long expireAt = System.currentTimeMillis() + jitteredMillis(time, unit);
+            if (writeVersioned(key, cacheEnvelope.encode(data, expireAt), 0, data)) {
+                putLocal(key, new LogicalValue(expireAt, data));
+            }
+        } else if (cacheNull) {
+            // 如果数据为空，设置空缓存，避免缓存穿透
+            setNull(key);
+        }
+        return data;
+    }
+
+    /**
+     * 查询缓存，过期前按概率提前刷新（XFetch）：越接近过期、上次加载越慢，请求触发刷新的概率越大。
+     * 数据写成带过期时间和加载耗时的信封，Redis中的过期时间与信封中的一致，刷新期间其他请求继续读旧数据
+     */
+    public <R, ID> R queryWithEarlyRefresh(String keyPrefix, ID id, Class<R> type, Function<ID, R> dataFallBack,
+                                           Long expireDuration, TimeUnit unit) {
+        return queryWithEarlyRefresh(keyPrefix, id, type, dataFallBack, expireDuration, unit, true);
+    }
+
+    public <R, ID> R queryWithEarlyRefresh(String keyPrefix, ID id, Type type, Function<ID, R> dataFallBack,
+                                           Long expireDuration, TimeUnit unit, boolean cacheNull) {
+        if (!idBloomFilter.mightContain(keyPrefix, id)) {
+            return null;
+        }
+        String key = keyPrefix + id;
+        // 本地副本记录了过期时间和加载耗时，同样按概率提前刷新；Redis中已经过期的副本不再使用
+        Object local = getLocal(key);
+        if (local instanceof LogicalValue) {
+            LogicalValue value = (LogicalValue) local;
+            if (value.expireAt > System.currentTimeMillis()) {
+                cacheStats.recordLocalHit(keyPrefix);
+                refreshEarly(keyPrefix, key, value.expireAt, value.loadMillis,
+                        () -> loadWithLoadTime(key, id, dataFallBack, expireDuration, unit, cacheNull));
+                return fromLocal(local);
+            }
+        } else if (local != null) {
+            cacheStats.recordLocalHit(keyPrefix);
+            return fromLocal(local);
+        }
+
+        byte[] bytes = getBytes(key);
+        if (bytes == null) {
+            // 已经过期，同一个key在本JVM内只回源一次
+            cacheStats.recordMiss(keyPrefix);
+            return singleFlight.execute(key, () -> loadWithLoadTime(key, id, dataFallBack, expireDuration, unit, cacheNull));
+        }
+        cacheStats.recordRedisHit(keyPrefix);
+        if (bytes.length == 0) {
+            putLocal(key, null);
+            return null;
+        }
+        R data = cacheEnvelope.decode(bytes, type);
+
+        // 没有记录过期时间的旧数据不参与提前刷新，等它自然过期
+        if (!CacheEnvelope.isEnvelope(bytes)) {
+            putLocal(key, data);
+            return data;
+        }
+        long expireAt = cacheEnvelope.expireAt(bytes);
+        int loadMillis = cacheEnvelope.loadMillis(bytes);
+        putLocal(key, new LogicalValue(expireAt, loadMillis, data));
+        refreshEarly(keyPrefix, key, expireAt, loadMillis,
+                () -> loadWithLoadTime(key, id, dataFallBack, expireDuration, unit, cacheNull));
+        return data;
+    }
+
+    /**
+     * now - delta * beta * ln(rand) >= expiry 时提交刷新，ln(rand)为负数，越接近过期越容易满足
+     */
+    private void refreshEarly(String keyPrefix, String key, long expireAt, int loadMillis, Runnable refresh) {
+        long delta = Math.max(1, loadMillis);
+        double gap = -delta * earlyRefreshBeta * Math.log(ThreadLocalRandom.current().nextDouble());
+        if (System.currentTimeMillis() + gap >= expireAt) {
+            rebuildScheduler.submit(keyPrefix, key, key + ":lock", refresh);
+        }
+    }
+
+    private <R, ID> R loadWithLoadTime(String key, ID id, Function<ID, R> dataFallBack, Long expireDuration,
+                                       TimeUnit unit, boolean cacheNull) {
+        long begin = System.currentTimeMillis();
+        R data = dataFallBack.apply(id);
+        int loadMillis = (int) Math.min(Integer.MAX_VALUE, System.currentTimeMillis() - begin);
+        if (data == null) {
+            if (cacheNull) {
+                setNull(key);
+                putLocal(key, null);
+            }
+            return null;
+        }
+        long ttlMillis = jitteredMillis(expireDuration, unit);
+        long expireAt = System.currentTimeMillis() + ttlMillis;
+        byte[] bytes = cacheEnvelope.encode(data, expireAt, loadMillis);
+        if (writeVersioned(key, bytes, ttlMillis, data)) {
+            putLocal(key, new LogicalValue(expireAt, loadMillis, data));
+        }
+        return data;
+    }
+}
@@ -0,0 +1,18 @@
+package com.hmdp.utils;
+
+import java.lang.reflect.Type;
+
+/**
+ * 缓存数据的序列化方式，写入时在信封头中记录编号，读取时按编号选择对应的实现
+ */
+public interface CacheCodec {
+
+    /**
+     * 编号，写入信封头，不同实现不能重复
+     */
+    byte id();
+
+    byte[] encode(Object data);
+
+    <T> T decode(byte[] bytes, int offset, int length, Type type);
+}
@@ -0,0 +1,154 @@
+package com.hmdp.utils;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.JSONObject;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.lang.reflect.Type;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+
+/**
+ * 逻辑过期缓存的信封格式：魔数(1字节) | 序列化方式编号(1字节) | 逻辑过期时间毫秒(8字节) | 上次加载耗时毫秒(4字节) | 数据。
+ * 判断是否过期只需要读取头部，不必反序列化数据；读取时兼容没有加载耗时的旧头部，逻辑过期路径还兼容旧的 RedisData JSON 格式
+ */
+@Component
+public class CacheEnvelope {
+    private static final byte MAGIC_V1 = (byte) 0xCE;
+    private static final int HEADER_LENGTH_V1 = 10;
+    private static final byte MAGIC = (byte) 0xCF;
+    private static final int HEADER_LENGTH = 14;
+
+    private final CacheCodec[] codecs = new CacheCodec[8];
+    private CacheCodec writeCodec;
+
+    @Value("${hmdp.cache.codec:json}")
+    private String codecName = "json";
+
+    @PostConstruct
+    public void init() {
+        register(new JsonCacheCodec());
+        register(new JsonbCacheCodec());
+        writeCodec = "jsonb".equals(codecName) ? codecs[JsonbCacheCodec.ID] : codecs[JsonCacheCodec.ID];
+    }
+
+    private void register(CacheCodec codec) {
+        codecs[codec.id()] = codec;
+    }
+
+    public byte[] encode(Object data, long expireAtMillis) {
+        return encode(data, expireAtMillis, 0);
+    }
+
+    /**
+     * @param loadMillis 本次从数据库加载数据的耗时，用于提前刷新的概率计算
+     */
+    public byte[] encode(Object data, long expireAtMillis, int loadMillis) {
+        byte[] payload = writeCodec.encode(data);
+        byte[] bytes = new byte[HEADER_LENGTH + payload.length];
+        bytes[0] = MAGIC;
+        bytes[1] = writeCodec.id();
+        for (int i = 0; i < 8; i++) {
+            bytes[2 + i] = (byte) (expireAtMillis >>> (56 - 8 * i));
+        }
+        for (int i = 0; i < 4; i++) {
+            bytes[10 + i] = (byte) (loadMillis >>> (24 - 8 * i));
+        }
+        System.arraycopy(payload, 0, bytes, HEADER_LENGTH, payload.length);
+        return bytes;
+    }
+
+    public static boolean isEnvelope(byte[] bytes) {
+        return bytes != null && bytes.length >= headerLength(bytes) && (bytes[0] == MAGIC || bytes[0] == MAGIC_V1);
+    }
+
+    private static int headerLength(byte[] bytes) {
+        return bytes.length > 0 && bytes[0] == MAGIC_V1 ? HEADER_LENGTH_V1 : HEADER_LENGTH;
+    }
+
+    /**
+     * 读取上次加载耗时，旧格式没有记录，返回0
+     */
+    public int loadMillis(byte[] bytes) {
+        if (!isEnvelope(bytes) || bytes[0] != MAGIC) {
+            return 0;
+        }
+        int loadMillis = 0;
+        for (int i = 0; i < 4; i++) {
+            loadMillis = (loadMillis << 8) | (bytes[10 + i] & 0xFF);
+        }
+        return loadMillis;
+    }
+
+    /**
+     * 读取逻辑过期时间，旧格式需要解析整个JSON，没有过期时间的普通JSON视为已过期
+     */
+    public long expireAt(byte[] bytes) {
+        if (isEnvelope(bytes)) {
+            long expireAt = 0;
+            for (int i = 0; i < 8; i++) {
+                expireAt = (expireAt << 8) | (bytes[2 + i] & 0xFF);
+            }
+            return expireAt;
+        }
+        if (!isJsonObject(bytes)) {
+            return 0;
+        }
+        LocalDateTime expireTime = JSON.parseObject(bytes).getObject("expireTime", LocalDateTime.class);
+        return expireTime == null ? 0 : expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli();
+    }
+
+    public <T> T decode(byte[] bytes, Class<T> type) {
+        return decode(bytes, (Type) type);
+    }
+
+    public <T> T decode(byte[] bytes, Type type) {
+        if (isEnvelope(bytes)) {
+            return decodePayload(bytes, type);
+        }
+        // 普通JSON直接解析成目标类型
+        return JSON.parseObject(bytes, type);
+    }
+
+    public <T> T decodeLogical(byte[] bytes, Class<T> type) {
+        return decodeLogical(bytes, (Type) type);
+    }
+
+    /**
+     * 逻辑过期缓存的读取：除信封格式外还兼容旧的 RedisData 包装，只有这条路径才会把 data 字段拆出来
+     */
+    public <T> T decodeLogical(byte[] bytes, Type type) {
+        if (isEnvelope(bytes)) {
+            return decodePayload(bytes, type);
+        }
+        if (!isJsonObject(bytes)) {
+            return JSON.parseObject(bytes, type);
+        }
+        JSONObject object = JSON.parseObject(bytes);
+        if (object.size() == 2 && object.containsKey("expireTime") && object.containsKey("data")) {
+            return object.getObject("data", type);
+        }
+        return object.to(type);
+    }
+
+    private <T> T decodePayload(byte[] bytes, Type type) {
+        int id = bytes[1];
+        CacheCodec codec = id > 0 && id < codecs.length ? codecs[id] : null;
+        if (codec == null) {
+            throw new IllegalStateException("未知的缓存序列化方式：" + id);
+        }
+        int headerLength = headerLength(bytes);
+        return codec.decode(bytes, headerLength, bytes.length - headerLength, type);
+    }
+
+    private static boolean isJsonObject(byte[] bytes) {
+        for (byte b : bytes) {
+            if (!Character.isWhitespace(b)) {
+                return b == '{';
+            }
+        }
+        return false;
+    }
+}
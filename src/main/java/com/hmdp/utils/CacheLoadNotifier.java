@@ -0,0 +1,81 @@
+package com.hmdp.utils;
+
+import lombok.RequiredArgsConstructor;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static com.hmdp.utils.RedisConstants.CACHE_LOADED_CHANNEL;
+
+/**
+ * 缓存加载完成通知：没抢到互斥锁的线程订阅key的加载结果，持有锁的线程写完缓存后
+ * 先唤醒本节点的等待者，再通过发布订阅唤醒其他节点的等待者
+ */
+@Component
+@RequiredArgsConstructor
+public class CacheLoadNotifier implements MessageListener {
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+
+    private final Map<String, Set<CompletableFuture<Void>>> waiters = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(CACHE_LOADED_CHANNEL));
+    }
+
+    /**
+     * 订阅key的加载完成通知，必须在查缓存之前订阅，避免错过查缓存与订阅之间发出的通知
+     */
+    public CompletableFuture<Void> subscribe(String key) {
+        CompletableFuture<Void> future = new CompletableFuture<>();
+        waiters.compute(key, (k, futures) -> {
+            if (futures == null) {
+                futures = ConcurrentHashMap.newKeySet();
+            }
+            futures.add(future);
+            return futures;
+        });
+        return future;
+    }
+
+    /**
+     * 取消订阅，没有等待者的key被移除
+     */
+    public void unsubscribe(String key, CompletableFuture<Void> future) {
+        waiters.computeIfPresent(key, (k, futures) -> {
+            futures.remove(future);
+            return futures.isEmpty() ? null : futures;
+        });
+    }
+
+    /**
+     * 加载结束（无论成功失败）后调用，等待者被唤醒后重新读缓存，读不到再竞争互斥锁
+     */
+    public void notifyLoaded(String key) {
+        wakeUp(key);
+        redisTemplate.convertAndSend(CACHE_LOADED_CHANNEL, key);
+    }
+
+    private void wakeUp(String key) {
+        Set<CompletableFuture<Void>> futures = waiters.remove(key);
+        if (futures != null) {
+            futures.forEach(future -> future.complete(null));
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        wakeUp(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,172 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 所有逻辑过期缓存共用的重建调度器：
+ * 同一个key同时只有一个重建任务，Redis互斥锁一直持有到重建结束；队列有界，满了直接放弃并计数；
+ * 每个key前缀同时排队和执行的任务数有上限，避免一类数据占满线程池
+ */
+@Slf4j
+@Component
+public class CacheRebuildScheduler {
+    private static final DefaultRedisScript<Long> RELEASE_LOCK_SCRIPT;
+    static {
+        RELEASE_LOCK_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_LOCK_SCRIPT.setLocation(new ClassPathResource("releaseLock.lua"));
+        RELEASE_LOCK_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate redisTemplate;
+    @Value("${hmdp.cache.rebuild.threads:10}")
+    private int threads;
+    @Value("${hmdp.cache.rebuild.queue-capacity:1000}")
+    private int queueCapacity;
+    @Value("${hmdp.cache.rebuild.per-prefix-limit:100}")
+    private int perPrefixLimit;
+    @Value("${hmdp.cache.rebuild.lock-ttl-seconds:10}")
+    private long lockTtlSeconds;
+
+    private ThreadPoolExecutor executor;
+    private final Set<String> inFlight = ConcurrentHashMap.newKeySet();
+    private final Map<String, PrefixStats> prefixStats = new ConcurrentHashMap<>();
+    private final LongAdder shed = new LongAdder();
+
+    private static class PrefixStats {
+        private final AtomicInteger pending = new AtomicInteger();
+        private final LongAdder submitted = new LongAdder();
+        private final LongAdder limited = new LongAdder();
+        private final LongAdder completed = new LongAdder();
+        private final LongAdder failed = new LongAdder();
+        private final LongAdder totalMillis = new LongAdder();
+        private final AtomicLong maxMillis = new AtomicLong();
+    }
+
+    @PostConstruct
+    private void init() {
+        AtomicInteger index = new AtomicInteger();
+        executor = new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity),
+                r -> {
+                    Thread thread = new Thread(r, "cache-rebuild-" + index.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                },
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    @PreDestroy
+    private void destroy() {
+        executor.shutdown();
+    }
+
+    /**
+     * 提交重建任务
+     * @param keyPrefix 缓存key前缀，用于并发限制和统计
+     * @param key 缓存key，同一个key同时只有一个任务
+     * @param lockKey 跨节点的互斥锁，任务结束后才释放
+     * @param rebuild 重建逻辑
+     * @return 是否提交成功，已有任务、超过并发限制、没抢到锁或队列已满时返回false
+     */
+    public boolean submit(String keyPrefix, String key, String lockKey, Runnable rebuild) {
+        // 1.本节点已经在重建
+        if (!inFlight.add(key)) {
+            return false;
+        }
+        PrefixStats stats = prefixStats.computeIfAbsent(keyPrefix, k -> new PrefixStats());
+        // 2.同一前缀排队和执行中的任务超过上限
+        if (stats.pending.incrementAndGet() > perPrefixLimit) {
+            stats.pending.decrementAndGet();
+            stats.limited.increment();
+            inFlight.remove(key);
+            return false;
+        }
+        // 3.其他节点正在重建
+        String lockValue = UUID.randomUUID().toString(true);
+        Boolean locked = redisTemplate.opsForValue().setIfAbsent(lockKey, lockValue, lockTtlSeconds, TimeUnit.SECONDS);
+        if (!Boolean.TRUE.equals(locked)) {
+            stats.pending.decrementAndGet();
+            inFlight.remove(key);
+            return false;
+        }
+        // 4.交给线程池，锁在任务结束后释放
+        try {
+            executor.execute(() -> {
+                long begin = System.currentTimeMillis();
+                try {
+                    rebuild.run();
+                    stats.completed.increment();
+                } catch (Exception e) {
+                    stats.failed.increment();
+                    log.error("缓存重建失败：{}", key, e);
+                } finally {
+                    long cost = System.currentTimeMillis() - begin;
+                    stats.totalMillis.add(cost);
+                    stats.maxMillis.accumulateAndGet(cost, Math::max);
+                    finish(stats, key, lockKey, lockValue);
+                }
+            });
+            stats.submitted.increment();
+            return true;
+        } catch (RejectedExecutionException e) {
+            // 队列已满，放弃本次重建，继续返回旧数据
+            shed.increment();
+            finish(stats, key, lockKey, lockValue);
+            return false;
+        }
+    }
+
+    private void finish(PrefixStats stats, String key, String lockKey, String lockValue) {
+        try {
+            redisTemplate.execute(RELEASE_LOCK_SCRIPT, Collections.singletonList(lockKey), lockValue);
+        } finally {
+            stats.pending.decrementAndGet();
+            inFlight.remove(key);
+        }
+    }
+
+    /**
+     * 队列深度、放弃次数，以及每个前缀的提交、限流、完成、失败次数和重建耗时
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("queueDepth", executor.getQueue().size());
+        stats.put("queueCapacity", queueCapacity);
+        stats.put("active", executor.getActiveCount());
+        stats.put("shed", shed.sum());
+        Map<String, Object> prefixes = new LinkedHashMap<>();
+        prefixStats.forEach((keyPrefix, s) -> {
+            Map<String, Object> item = new LinkedHashMap<>();
+            long finished = s.completed.sum() + s.failed.sum();
+            item.put("pending", s.pending.get());
+            item.put("submitted", s.submitted.sum());
+            item.put("limited", s.limited.sum());
+            item.put("completed", s.completed.sum());
+            item.put("failed", s.failed.sum());
+            item.put("avgMillis", finished == 0 ? 0 : s.totalMillis.sum() / finished);
+            item.put("maxMillis", s.maxMillis.get());
+            prefixes.put(keyPrefix, item);
+        });
+        stats.put("prefixes", prefixes);
+        return stats;
+    }
+}
@@ -0,0 +1,57 @@
+package com.hmdp.utils;
+
+import org.springframework.stereotype.Component;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 按key前缀统计缓存命中情况：本地缓存命中、Redis命中、回源查询
+ */
+@Component
+public class CacheStats {
+    private final Map<String, Counters> counters = new ConcurrentHashMap<>();
+
+    private static class Counters {
+        private final LongAdder localHits = new LongAdder();
+        private final LongAdder redisHits = new LongAdder();
+        private final LongAdder misses = new LongAdder();
+    }
+
+    private Counters of(String keyPrefix) {
+        return counters.computeIfAbsent(keyPrefix, k -> new Counters());
+    }
+
+    public void recordLocalHit(String keyPrefix) {
+        of(keyPrefix).localHits.increment();
+    }
+
+    public void recordRedisHit(String keyPrefix) {
+        of(keyPrefix).redisHits.increment();
+    }
+
+    public void recordMiss(String keyPrefix) {
+        of(keyPrefix).misses.increment();
+    }
+
+    public Map<String, Map<String, Object>> snapshot() {
+        Map<String, Map<String, Object>> snapshot = new LinkedHashMap<>();
+        counters.forEach((keyPrefix, c) -> {
+            long localHits = c.localHits.sum();
+            long redisHits = c.redisHits.sum();
+            long misses = c.misses.sum();
+            long total = localHits + redisHits + misses;
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("requests", total);
+            stats.put("localHits", localHits);
+            stats.put("redisHits", redisHits);
+            stats.put("misses", misses);
+            stats.put("localHitRatio", total == 0 ? 0 : (double) localHits / total);
+            stats.put("hitRatio", total == 0 ? 0 : (double) (localHits + redisHits) / total);
+            snapshot.put(keyPrefix, stats);
+        });
+        return snapshot;
+    }
+}
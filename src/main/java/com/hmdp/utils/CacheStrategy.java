@@ -0,0 +1,23 @@
+package com.hmdp.utils;
+
+/**
+ * {@link HmdpCached} 使用的缓存策略，分别对应 {@link CacheClient} 中的查询方法
+ */
+public enum CacheStrategy {
+    /**
+     * 未命中时回源并写入缓存，不存在的数据缓存空值
+     */
+    PASS_THROUGH,
+    /**
+     * 未命中时用互斥锁保证只有一个线程回源，适合加载代价高的数据
+     */
+    MUTEX,
+    /**
+     * 逻辑过期，过期后返回旧数据并异步重建，适合热点数据
+     */
+    LOGICAL_EXPIRE,
+    /**
+     * 过期前按概率提前刷新
+     */
+    EARLY_REFRESH
+}
@@ -0,0 +1,354 @@
+package com.hmdp.utils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntConsumer;
+
+/**
+ * 分块压缩的位图，思路与Roaring Bitmap相同：按高16位分块，块内元素少于 {@link #ARRAY_MAX} 个时用有序char数组保存，
+ * 否则用1024个long的位图保存。稀疏的集合（例如某个商圈）只占元素个数两倍的字节，稠密的集合按位保存，求交集时块与块直接运算。
+ * 不是线程安全的，由调用方加锁
+ */
+public class ChunkedBitmap {
+    private static final int ARRAY_MAX = 4096;
+    private static final int WORDS = 1024;
+
+    /**
+     * 一个块：values 和 bits 只有一个不为null
+     */
+    private static final class Container {
+        private char[] values;
+        private long[] bits;
+        private int size;
+
+        private static Container ofArray(char[] values, int size) {
+            Container c = new Container();
+            c.values = values;
+            c.size = size;
+            return c;
+        }
+
+        private static Container ofBits(long[] bits, int size) {
+            Container c = new Container();
+            c.bits = bits;
+            c.size = size;
+            return c;
+        }
+
+        private boolean add(char low) {
+            if (bits != null) {
+                long mask = 1L << low;
+                if ((bits[low >>> 6] & mask) != 0) {
+                    return false;
+                }
+                bits[low >>> 6] |= mask;
+                size++;
+                return true;
+            }
+            int index = Arrays.binarySearch(values, 0, size, low);
+            if (index >= 0) {
+                return false;
+            }
+            index = -index - 1;
+            if (size == ARRAY_MAX) {
+                toBits();
+                return add(low);
+            }
+            if (size == values.length) {
+                values = Arrays.copyOf(values, Math.min(ARRAY_MAX, Math.max(4, size * 2)));
+            }
+            System.arraycopy(values, index, values, index + 1, size - index);
+            values[index] = low;
+            size++;
+            return true;
+        }
+
+        private boolean remove(char low) {
+            if (bits != null) {
+                long mask = 1L << low;
+                if ((bits[low >>> 6] & mask) == 0) {
+                    return false;
+                }
+                bits[low >>> 6] &= ~mask;
+                size--;
+                if (size <= ARRAY_MAX / 2) {
+                    toArray();
+                }
+                return true;
+            }
+            int index = Arrays.binarySearch(values, 0, size, low);
+            if (index < 0) {
+                return false;
+            }
+            System.arraycopy(values, index + 1, values, index, size - index - 1);
+            size--;
+            return true;
+        }
+
+        private boolean contains(char low) {
+            return bits != null
+                    ? (bits[low >>> 6] & (1L << low)) != 0
+                    : Arrays.binarySearch(values, 0, size, low) >= 0;
+        }
+
+        private void toBits() {
+            long[] words = new long[WORDS];
+            for (int i = 0; i < size; i++) {
+                words[values[i] >>> 6] |= 1L << values[i];
+            }
+            bits = words;
+            values = null;
+        }
+
+        private void toArray() {
+            char[] array = new char[size];
+            int n = 0;
+            for (int w = 0; w < WORDS; w++) {
+                long word = bits[w];
+                while (word != 0) {
+                    array[n++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            values = array;
+            bits = null;
+        }
+
+        private Container and(Container other) {
+            if (bits != null && other.bits != null) {
+                long[] words = new long[WORDS];
+                int count = 0;
+                for (int w = 0; w < WORDS; w++) {
+                    words[w] = bits[w] & other.bits[w];
+                    count += Long.bitCount(words[w]);
+                }
+                Container c = ofBits(words, count);
+                if (count <= ARRAY_MAX) {
+                    c.toArray();
+                }
+                return c;
+            }
+            if (bits != null) {
+                return other.and(this);
+            }
+            // 数组与任意块：逐个判断数组中的元素
+            char[] result = new char[size];
+            int n = 0;
+            if (other.bits != null) {
+                for (int i = 0; i < size; i++) {
+                    if ((other.bits[values[i] >>> 6] & (1L << values[i])) != 0) {
+                        result[n++] = values[i];
+                    }
+                }
+            } else {
+                int i = 0, j = 0;
+                while (i < size && j < other.size) {
+                    if (values[i] < other.values[j]) {
+                        i++;
+                    } else if (values[i] > other.values[j]) {
+                        j++;
+                    } else {
+                        result[n++] = values[i];
+                        i++;
+                        j++;
+                    }
+                }
+            }
+            return ofArray(result, n);
+        }
+
+        private void orInto(long[] words) {
+            if (bits != null) {
+                for (int w = 0; w < WORDS; w++) {
+                    words[w] |= bits[w];
+                }
+            } else {
+                for (int i = 0; i < size; i++) {
+                    words[values[i] >>> 6] |= 1L << values[i];
+                }
+            }
+        }
+
+        private void forEach(int high, IntConsumer consumer) {
+            if (bits != null) {
+                for (int w = 0; w < WORDS; w++) {
+                    long word = bits[w];
+                    while (word != 0) {
+                        consumer.accept(high | (w << 6) + Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+            } else {
+                for (int i = 0; i < size; i++) {
+                    consumer.accept(high | values[i]);
+                }
+            }
+        }
+
+        private long bytes() {
+            return bits != null ? WORDS * 8L : values.length * 2L;
+        }
+    }
+
+    /**
+     * 块的高16位，升序排列，与 containers 一一对应
+     */
+    private char[] keys = new char[0];
+    private Container[] containers = new Container[0];
+    private int chunks;
+    private int cardinality;
+
+    /**
+     * @param value 非负整数
+     */
+    public void add(int value) {
+        char high = (char) (value >>> 16);
+        int index = Arrays.binarySearch(keys, 0, chunks, high);
+        if (index < 0) {
+            index = -index - 1;
+            if (chunks == keys.length) {
+                keys = Arrays.copyOf(keys, Math.max(4, chunks * 2));
+                containers = Arrays.copyOf(containers, keys.length);
+            }
+            System.arraycopy(keys, index, keys, index + 1, chunks - index);
+            System.arraycopy(containers, index, containers, index + 1, chunks - index);
+            keys[index] = high;
+            containers[index] = Container.ofArray(new char[4], 0);
+            chunks++;
+        }
+        if (containers[index].add((char) value)) {
+            cardinality++;
+        }
+    }
+
+    public void remove(int value) {
+        int index = Arrays.binarySearch(keys, 0, chunks, (char) (value >>> 16));
+        if (index < 0 || !containers[index].remove((char) value)) {
+            return;
+        }
+        cardinality--;
+        if (containers[index].size == 0) {
+            System.arraycopy(keys, index + 1, keys, index, chunks - index - 1);
+            System.arraycopy(containers, index + 1, containers, index, chunks - index - 1);
+            chunks--;
+            containers[chunks] = null;
+        }
+    }
+
+    public boolean contains(int value) {
+        int index = Arrays.binarySearch(keys, 0, chunks, (char) (value >>> 16));
+        return index >= 0 && containers[index].contains((char) value);
+    }
+
+    public int cardinality() {
+        return cardinality;
+    }
+
+    public boolean isEmpty() {
+        return cardinality == 0;
+    }
+
+    /**
+     * 交集，只有两边都有的块才参与运算
+     */
+    public ChunkedBitmap and(ChunkedBitmap other) {
+        ChunkedBitmap result = new ChunkedBitmap();
+        result.keys = new char[Math.min(chunks, other.chunks)];
+        result.containers = new Container[result.keys.length];
+        int i = 0, j = 0;
+        while (i < chunks && j < other.chunks) {
+            if (keys[i] < other.keys[j]) {
+                i++;
+            } else if (keys[i] > other.keys[j]) {
+                j++;
+            } else {
+                Container c = containers[i].and(other.containers[j]);
+                if (c.size > 0) {
+                    result.keys[result.chunks] = keys[i];
+                    result.containers[result.chunks++] = c;
+                    result.cardinality += c.size;
+                }
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+
+    /**
+     * 多个位图的交集，从元素最少的开始，结果为空时提前结束
+     */
+    public static ChunkedBitmap and(List<ChunkedBitmap> bitmaps) {
+        ChunkedBitmap[] sorted = bitmaps.toArray(new ChunkedBitmap[0]);
+        Arrays.sort(sorted, (a, b) -> Integer.compare(a.cardinality, b.cardinality));
+        ChunkedBitmap result = sorted[0];
+        for (int i = 1; i < sorted.length && !result.isEmpty(); i++) {
+            result = result.and(sorted[i]);
+        }
+        return result;
+    }
+
+    /**
+     * 多个位图的并集，每个块按位合并后再按大小选择保存方式
+     */
+    public static ChunkedBitmap or(List<ChunkedBitmap> bitmaps) {
+        ChunkedBitmap result = new ChunkedBitmap();
+        if (bitmaps.size() == 1) {
+            return bitmaps.get(0);
+        }
+        char[] allKeys = new char[0];
+        int n = 0;
+        for (ChunkedBitmap bitmap : bitmaps) {
+            allKeys = Arrays.copyOf(allKeys, n + bitmap.chunks);
+            System.arraycopy(bitmap.keys, 0, allKeys, n, bitmap.chunks);
+            n += bitmap.chunks;
+        }
+        Arrays.sort(allKeys, 0, n);
+        result.keys = new char[n];
+        result.containers = new Container[n];
+        for (int k = 0; k < n; k++) {
+            if (k > 0 && allKeys[k] == allKeys[k - 1]) {
+                continue;
+            }
+            long[] words = new long[WORDS];
+            for (ChunkedBitmap bitmap : bitmaps) {
+                int index = Arrays.binarySearch(bitmap.keys, 0, bitmap.chunks, allKeys[k]);
+                if (index >= 0) {
+                    bitmap.containers[index].orInto(words);
+                }
+            }
+            int count = 0;
+            for (long word : words) {
+                count += Long.bitCount(word);
+            }
+            Container c = Container.ofBits(words, count);
+            if (count <= ARRAY_MAX) {
+                c.toArray();
+            }
+            result.keys[result.chunks] = allKeys[k];
+            result.containers[result.chunks++] = c;
+            result.cardinality += count;
+        }
+        return result;
+    }
+
+    /**
+     * 按升序遍历全部元素
+     */
+    public void forEach(IntConsumer consumer) {
+        for (int i = 0; i < chunks; i++) {
+            containers[i].forEach(keys[i] << 16, consumer);
+        }
+    }
+
+    /**
+     * 块数据占用的字节数，不含对象头
+     */
+    public long bytes() {
+        long bytes = chunks * 2L;
+        for (int i = 0; i < chunks; i++) {
+            bytes += containers[i].bytes();
+        }
+        return bytes;
+    }
+}
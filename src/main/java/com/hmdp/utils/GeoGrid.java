@@ -0,0 +1,282 @@
+package com.hmdp.utils;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * 进程内的地理位置索引：按固定精度的geohash把坐标分到网格中，每个网格用基本类型数组保存id和经纬度。
+ * 网格写入时整体替换（写时复制），查询不加锁；距离算法与Redis GEO相同
+ */
+public class GeoGrid {
+    /**
+     * 每个维度的位数：经度格宽约0.011度（约1km），纬度格高约0.0055度（约600m）
+     */
+    private static final int BITS = 15;
+    private static final int CELLS = 1 << BITS;
+    private static final double LON_STEP = 360.0 / CELLS;
+    private static final double LAT_STEP = 180.0 / CELLS;
+    private static final double EARTH_RADIUS = 6372797.560856;
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * EARTH_RADIUS;
+
+    /**
+     * 一个网格中的全部位置，创建后不再修改
+     */
+    private static final class Cell {
+        private final long[] ids;
+        private final double[] lons;
+        private final double[] lats;
+
+        private Cell(long[] ids, double[] lons, double[] lats) {
+            this.ids = ids;
+            this.lons = lons;
+            this.lats = lats;
+        }
+
+        private Cell with(long id, double lon, double lat) {
+            int n = ids.length;
+            long[] newIds = Arrays.copyOf(ids, n + 1);
+            double[] newLons = Arrays.copyOf(lons, n + 1);
+            double[] newLats = Arrays.copyOf(lats, n + 1);
+            newIds[n] = id;
+            newLons[n] = lon;
+            newLats[n] = lat;
+            return new Cell(newIds, newLons, newLats);
+        }
+
+        private Cell without(long id) {
+            int index = -1;
+            for (int i = 0; i < ids.length; i++) {
+                if (ids[i] == id) {
+                    index = i;
+                    break;
+                }
+            }
+            if (index < 0) {
+                return this;
+            }
+            if (ids.length == 1) {
+                return null;
+            }
+            int n = ids.length - 1;
+            long[] newIds = new long[n];
+            double[] newLons = new double[n];
+            double[] newLats = new double[n];
+            System.arraycopy(ids, 0, newIds, 0, index);
+            System.arraycopy(ids, index + 1, newIds, index, n - index);
+            System.arraycopy(lons, 0, newLons, 0, index);
+            System.arraycopy(lons, index + 1, newLons, index, n - index);
+            System.arraycopy(lats, 0, newLats, 0, index);
+            System.arraycopy(lats, index + 1, newLats, index, n - index);
+            return new Cell(newIds, newLons, newLats);
+        }
+    }
+
+    /**
+     * 查询结果：id、距离（米）和经纬度
+     */
+    public static final class Hit {
+        private final long id;
+        private final double distance;
+        private final double lon;
+        private final double lat;
+
+        Hit(long id, double distance, double lon, double lat) {
+            this.id = id;
+            this.distance = distance;
+            this.lon = lon;
+            this.lat = lat;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public double getDistance() {
+            return distance;
+        }
+
+        public double getLon() {
+            return lon;
+        }
+
+        public double getLat() {
+            return lat;
+        }
+    }
+
+    private static final Comparator<Hit> BY_DISTANCE =
+            Comparator.comparingDouble(Hit::getDistance).thenComparingLong(Hit::getId);
+
+    private final Map<Long, Cell> cells = new ConcurrentHashMap<>();
+    /**
+     * id所在的网格，位置变化时从旧网格中删除
+     */
+    private final Map<Long, Long> cellOfId = new ConcurrentHashMap<>();
+
+    /**
+     * 添加或移动一个位置
+     */
+    public synchronized void put(long id, double lon, double lat) {
+        remove(id);
+        long cell = cellOf(lonIndex(lon), latIndex(lat));
+        cells.compute(cell, (k, old) -> old == null
+                ? new Cell(new long[]{id}, new double[]{lon}, new double[]{lat})
+                : old.with(id, lon, lat));
+        cellOfId.put(id, cell);
+    }
+
+    public synchronized void remove(long id) {
+        Long cell = cellOfId.remove(id);
+        if (cell != null) {
+            cells.computeIfPresent(cell, (k, old) -> old.without(id));
+        }
+    }
+
+    public int size() {
+        return cellOfId.size();
+    }
+
+    /**
+     * 批量构建：先按网格分组，每个网格只创建一次数组
+     */
+    public static GeoGrid build(long[] ids, double[] lons, double[] lats, int size) {
+        GeoGrid grid = new GeoGrid();
+        Map<Long, int[]> members = new HashMap<>();
+        for (int i = 0; i < size; i++) {
+            long cell = cellOf(lonIndex(lons[i]), latIndex(lats[i]));
+            int[] list = members.get(cell);
+            if (list == null) {
+                list = new int[]{0, 0, 0, 0, 0};
+                members.put(cell, list);
+            } else if (list[0] + 1 == list.length) {
+                list = Arrays.copyOf(list, list.length * 2);
+                members.put(cell, list);
+            }
+            // list[0]是个数，之后是下标
+            list[++list[0]] = i;
+            grid.cellOfId.put(ids[i], cell);
+        }
+        members.forEach((cell, list) -> {
+            int n = list[0];
+            long[] cellIds = new long[n];
+            double[] cellLons = new double[n];
+            double[] cellLats = new double[n];
+            for (int j = 0; j < n; j++) {
+                int i = list[j + 1];
+                cellIds[j] = ids[i];
+                cellLons[j] = lons[i];
+                cellLats[j] = lats[i];
+            }
+            grid.cells.put(cell, new Cell(cellIds, cellLons, cellLats));
+        });
+        return grid;
+    }
+
+    /**
+     * 半径查询，按距离从近到远返回
+     * @param limit 最多返回的个数
+     */
+    public List<Hit> within(double lon, double lat, double radiusMeters, int limit) {
+        List<Hit> hits = new ArrayList<>();
+        double latDelta = radiusMeters / METERS_PER_DEGREE;
+        double lonDelta = radiusMeters / (METERS_PER_DEGREE * Math.max(0.01, Math.cos(Math.toRadians(lat))));
+        int minX = lonIndex(lon - lonDelta), maxX = lonIndex(lon + lonDelta);
+        int minY = latIndex(lat - latDelta), maxY = latIndex(lat + latDelta);
+        for (int x = minX; x <= maxX; x++) {
+            for (int y = minY; y <= maxY; y++) {
+                collect(cells.get(cellOf(x, y)), lon, lat, radiusMeters, hits);
+            }
+        }
+        hits.sort(BY_DISTANCE);
+        return hits.size() > limit ? new ArrayList<>(hits.subList(0, limit)) : hits;
+    }
+
+    /**
+     * 最近的k个位置：从所在网格开始一圈一圈向外扩展，已找到k个并且下一圈不可能更近时停止
+     * @param maxMeters 最远距离
+     */
+    public List<Hit> nearest(double lon, double lat, int k, double maxMeters) {
+        if (k <= 0) {
+            return new ArrayList<>();
+        }
+        // 大顶堆保存当前最近的k个
+        PriorityQueue<Hit> heap = new PriorityQueue<>(k + 1, BY_DISTANCE.reversed());
+        int cx = lonIndex(lon), cy = latIndex(lat);
+        double cellMeters = Math.min(LAT_STEP * METERS_PER_DEGREE,
+                LON_STEP * METERS_PER_DEGREE * Math.max(0.01, Math.cos(Math.toRadians(lat))));
+        int maxRing = (int) Math.ceil(maxMeters / cellMeters) + 1;
+        List<Hit> found = new ArrayList<>();
+        for (int ring = 0; ring <= maxRing; ring++) {
+            // 第ring圈中的点至少相距 (ring-1) 个网格
+            if (heap.size() == k && heap.peek().distance < (ring - 1) * cellMeters) {
+                break;
+            }
+            for (int x = cx - ring; x <= cx + ring; x++) {
+                for (int y = cy - ring; y <= cy + ring; y++) {
+                    if (Math.abs(x - cx) != ring && Math.abs(y - cy) != ring) {
+                        continue;
+                    }
+                    found.clear();
+                    collect(cells.get(cellOf(x, y)), lon, lat, maxMeters, found);
+                    for (Hit hit : found) {
+                        heap.offer(hit);
+                        if (heap.size() > k) {
+                            heap.poll();
+                        }
+                    }
+                }
+            }
+        }
+        List<Hit> hits = new ArrayList<>(heap);
+        hits.sort(BY_DISTANCE);
+        return hits;
+    }
+
+    private static void collect(Cell cell, double lon, double lat, double radiusMeters, List<Hit> hits) {
+        if (cell == null) {
+            return;
+        }
+        for (int i = 0; i < cell.ids.length; i++) {
+            double distance = distance(lon, lat, cell.lons[i], cell.lats[i]);
+            if (distance <= radiusMeters) {
+                hits.add(new Hit(cell.ids[i], distance, cell.lons[i], cell.lats[i]));
+            }
+        }
+    }
+
+    /**
+     * 与Redis GEODIST相同的半正矢公式
+     */
+    public static double distance(double lon1, double lat1, double lon2, double lat2) {
+        double lat1r = Math.toRadians(lat1);
+        double lat2r = Math.toRadians(lat2);
+        double u = Math.sin((lat2r - lat1r) / 2);
+        double v = Math.sin(Math.toRadians(lon2 - lon1) / 2);
+        return 2.0 * EARTH_RADIUS * Math.asin(Math.sqrt(u * u + Math.cos(lat1r) * Math.cos(lat2r) * v * v));
+    }
+
+    private static int lonIndex(double lon) {
+        return Math.min(CELLS - 1, Math.max(0, (int) ((lon + 180) / LON_STEP)));
+    }
+
+    private static int latIndex(double lat) {
+        return Math.min(CELLS - 1, Math.max(0, (int) ((lat + 90) / LAT_STEP)));
+    }
+
+    /**
+     * 经纬度网格下标按位交错，即固定精度的geohash
+     */
+    private static long cellOf(int x, int y) {
+        return interleave(x) | (interleave(y) << 1);
+    }
+
+    private static long interleave(int v) {
+        long x = v & 0xFFFFFFFFL;
+        x = (x | (x << 16)) & 0x0000FFFF0000FFFFL;
+        x = (x | (x << 8)) & 0x00FF00FF00FF00FFL;
+        x = (x | (x << 4)) & 0x0F0F0F0F0F0F0F0FL;
+        x = (x | (x << 2)) & 0x3333333333333333L;
+        x = (x | (x << 1)) & 0x5555555555555555L;
+        return x;
+    }
+}
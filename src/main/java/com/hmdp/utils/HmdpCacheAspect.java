@@ -0,0 +1,106 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.util.StrUtil;
+import lombok.RequiredArgsConstructor;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.reflect.MethodSignature;
+import org.springframework.context.expression.MethodBasedEvaluationContext;
+import org.springframework.core.DefaultParameterNameDiscoverer;
+import org.springframework.core.ParameterNameDiscoverer;
+import org.springframework.expression.Expression;
+import org.springframework.expression.spel.standard.SpelExpressionParser;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.lang.reflect.Method;
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Function;
+
+/**
+ * 处理 {@link HmdpCached} 和 {@link HmdpCacheEvict}：按注解选择 {@link CacheClient} 的查询策略，
+ * 方法本身作为回源逻辑。同一个类内部的调用不经过代理，需要通过 AopContext.currentProxy() 调用
+ */
+@Aspect
+@Component
+@RequiredArgsConstructor
+public class HmdpCacheAspect {
+    private final CacheClient cacheClient;
+
+    private final SpelExpressionParser parser = new SpelExpressionParser();
+    private final ParameterNameDiscoverer parameterNameDiscoverer = new DefaultParameterNameDiscoverer();
+    private final Map<String, Expression> expressions = new ConcurrentHashMap<>();
+
+    @Around("@annotation(cached)")
+    public Object cached(ProceedingJoinPoint joinPoint, HmdpCached cached) {
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        Object id = keyOf(cached.key(), method, joinPoint);
+        // 泛型返回值（如 List<ShopType>）按完整类型反序列化
+        Type type = method.getGenericReturnType();
+        Function<Object, Object> fallback = ignored -> proceed(joinPoint);
+        switch (cached.strategy()) {
+            case MUTEX:
+                return cacheClient.queryWithMutex(cached.keyPrefix(), id, type, fallback,
+                        cached.ttl(), cached.unit(), cached.cacheNull());
+            case LOGICAL_EXPIRE:
+                return cacheClient.queryWithLogicalExpiration(cached.keyPrefix(), id, type, fallback,
+                        cached.ttl(), cached.unit(), cached.cacheNull());
+            case EARLY_REFRESH:
+                return cacheClient.queryWithEarlyRefresh(cached.keyPrefix(), id, type, fallback,
+                        cached.ttl(), cached.unit(), cached.cacheNull());
+            default:
+                return cacheClient.queryWithCachePassThrough(cached.keyPrefix(), id, type, fallback,
+                        cached.ttl(), cached.unit(), cached.cacheNull());
+        }
+    }
+
+    @Around("@annotation(evict)")
+    public Object evict(ProceedingJoinPoint joinPoint, HmdpCacheEvict evict) throws Throwable {
+        Object result = joinPoint.proceed();
+        Method method = ((MethodSignature) joinPoint.getSignature()).getMethod();
+        String key = evict.keyPrefix() + keyOf(evict.key(), method, joinPoint);
+        // 在事务中时等提交后再删除，否则其他线程可能在提交前把旧数据重新写回缓存
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    cacheClient.delete(key);
+                }
+            });
+        } else {
+            cacheClient.delete(key);
+        }
+        return result;
+    }
+
+    private Object proceed(ProceedingJoinPoint joinPoint) {
+        try {
+            return joinPoint.proceed();
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * 计算key：模板为空时用所有参数以冒号拼接；结果保持原类型，数字id可以交给布隆过滤器判断
+     */
+    private Object keyOf(String template, Method method, ProceedingJoinPoint joinPoint) {
+        Object[] args = joinPoint.getArgs();
+        if (StrUtil.isBlank(template)) {
+            if (args.length == 1) {
+                return args[0];
+            }
+            return StrUtil.join(":", args);
+        }
+        Expression expression = expressions.computeIfAbsent(template, parser::parseExpression);
+        MethodBasedEvaluationContext context =
+                new MethodBasedEvaluationContext(joinPoint.getTarget(), method, args, parameterNameDiscoverer);
+        return expression.getValue(context);
+    }
+}
@@ -0,0 +1,19 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.*;
+
+/**
+ * 方法正常返回后删除缓存，同时通知所有节点删除本地缓存；在事务中调用时等事务提交后再删除
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface HmdpCacheEvict {
+
+    String keyPrefix();
+
+    /**
+     * key的SpEL模板，规则与 {@link HmdpCached#key()} 相同
+     */
+    String key() default "";
+}
@@ -0,0 +1,35 @@
+package com.hmdp.utils;
+
+import java.lang.annotation.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 缓存方法的返回值，方法体就是缓存未命中时的回源逻辑。
+ * 缓存key为 keyPrefix + key，key是基于方法参数的SpEL表达式，例如 "#id"
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface HmdpCached {
+
+    /**
+     * 缓存key前缀，例如 RedisConstants.CACHE_SHOP_KEY
+     */
+    String keyPrefix();
+
+    /**
+     * key的SpEL模板，为空时用所有参数以冒号拼接，没有参数时key就是前缀
+     */
+    String key() default "";
+
+    CacheStrategy strategy() default CacheStrategy.PASS_THROUGH;
+
+    long ttl() default 30;
+
+    TimeUnit unit() default TimeUnit.MINUTES;
+
+    /**
+     * 返回null时是否缓存空值
+     */
+    boolean cacheNull() default true;
+}
@@ -0,0 +1,301 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import com.github.benmanes.caffeine.cache.Cache;
+import cn.hutool.core.lang.UUID;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static com.hmdp.utils.RedisConstants.CACHE_HOT_KEY_CHANNEL;
+
+/**
+ * 热点key探测：用滑动窗口内的count-min sketch统计每个key的访问次数，
+ * 超过阈值的key通知所有节点放入短过期时间的本地缓存。只有发现热点的节点按自己的访问量决定降级并通知所有节点移出，
+ * 它在热点期间定期重新通知；其他节点收到的热点key一直保留到收到降级通知，或超过 remote-hold-seconds 没有再收到通知
+ */
+@Slf4j
+@Component
+public class HotKeyDetector implements MessageListener {
+    private static final String PROMOTE = "promote:";
+    private static final String DEMOTE = "demote:";
+    private static final String EVICT = "evict:";
+    private static final int DEPTH = 4;
+
+    @Resource
+    private StringRedisTemplate redisTemplate;
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+    @Value("${hmdp.cache.hot-key.enabled:true}")
+    private boolean enabled;
+    @Value("${hmdp.cache.hot-key.window-seconds:10}")
+    private int windowSeconds;
+    @Value("${hmdp.cache.hot-key.buckets:5}")
+    private int buckets;
+    @Value("${hmdp.cache.hot-key.sketch-width:4096}")
+    private int width;
+    @Value("${hmdp.cache.hot-key.sample-rate:1.0}")
+    private double sampleRate;
+    @Value("${hmdp.cache.hot-key.threshold:1000}")
+    private long threshold;
+    @Value("${hmdp.cache.hot-key.demote-ratio:0.5}")
+    private double demoteRatio;
+    @Value("${hmdp.cache.hot-key.max-hot-keys:1000}")
+    private int maxHotKeys;
+    @Value("${hmdp.cache.hot-key.local-ttl-seconds:3}")
+    private long localTtlSeconds;
+    @Value("${hmdp.cache.hot-key.remote-hold-seconds:60}")
+    private long remoteHoldSeconds;
+
+    /**
+     * 每个时间桶一个sketch，volatile数组元素通过整体替换实现桶的清零
+     */
+    private volatile AtomicIntegerArray[] sketches;
+    private volatile int current;
+    private final Map<String, HotKey> hotKeys = new ConcurrentHashMap<>();
+    /**
+     * 本节点标识，通知消息中带上发现热点的节点
+     */
+    private final String nodeId = UUID.randomUUID().toString(true);
+    private Cache<String, Object> hotCache;
+    private ScheduledExecutorService ticker;
+
+    private static class HotKey {
+        private final String origin;
+        private final long since;
+        // 发现热点的节点最近一次通知的时间
+        private volatile long notifiedAt;
+
+        private HotKey(String origin, long since) {
+            this.origin = origin;
+            this.since = since;
+            this.notifiedAt = since;
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        sketches = new AtomicIntegerArray[buckets];
+        for (int i = 0; i < buckets; i++) {
+            sketches[i] = new AtomicIntegerArray(DEPTH * width);
+        }
+        hotCache = Caffeine.newBuilder()
+                .maximumSize(maxHotKeys)
+                .expireAfterWrite(localTtlSeconds, TimeUnit.SECONDS)
+                .build();
+        listenerContainer.addMessageListener(this, new ChannelTopic(CACHE_HOT_KEY_CHANNEL));
+        ticker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "hot-key-ticker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long tickMillis = TimeUnit.SECONDS.toMillis(windowSeconds) / buckets;
+        ticker.scheduleAtFixedRate(this::tick, tickMillis, tickMillis, TimeUnit.MILLISECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        if (ticker != null) {
+            ticker.shutdown();
+        }
+    }
+
+    /**
+     * 记录一次访问，如果是热点key并且本地有缓存，返回缓存的值（空值为 LocalCache.NULL_VALUE）
+     */
+    public Object access(String key) {
+        if (!enabled) {
+            return null;
+        }
+        if (sampleRate >= 1 || ThreadLocalRandom.current().nextDouble() < sampleRate) {
+            record(key);
+        }
+        return hotKeys.containsKey(key) ? hotCache.getIfPresent(key) : null;
+    }
+
+    /**
+     * 热点key把读到的值放入本地缓存
+     */
+    public void cacheIfHot(String key, Object value) {
+        if (enabled && hotKeys.containsKey(key)) {
+            hotCache.put(key, value == null ? LocalCache.NULL_VALUE : value);
+        }
+    }
+
+    /**
+     * 数据变更时删除所有节点上的热点副本
+     */
+    public void evict(String key) {
+        if (enabled && hotKeys.containsKey(key)) {
+            hotCache.invalidate(key);
+            redisTemplate.convertAndSend(CACHE_HOT_KEY_CHANNEL, EVICT + key);
+        }
+    }
+
+    private void record(String key) {
+        AtomicIntegerArray sketch = sketches[current];
+        int hash = spread(key.hashCode());
+        for (int row = 0; row < DEPTH; row++) {
+            sketch.incrementAndGet(row * width + index(hash, row));
+        }
+        if (!hotKeys.containsKey(key) && hotKeys.size() < maxHotKeys && estimate(key) >= threshold) {
+            promote(key);
+        }
+    }
+
+    /**
+     * 窗口内的访问次数估计：每一行先把所有桶相加，再取各行的最小值，按采样率放大
+     */
+    public long estimate(String key) {
+        int hash = spread(key.hashCode());
+        long min = Long.MAX_VALUE;
+        AtomicIntegerArray[] all = sketches;
+        for (int row = 0; row < DEPTH; row++) {
+            int offset = row * width + index(hash, row);
+            long sum = 0;
+            for (AtomicIntegerArray sketch : all) {
+                sum += sketch.get(offset);
+            }
+            min = Math.min(min, sum);
+        }
+        return sampleRate >= 1 ? min : (long) (min / sampleRate);
+    }
+
+    private int index(int hash, int row) {
+        // 每一行用不同的种子重新打散
+        int h = spread(hash ^ (0x9E3779B9 * (row + 1)));
+        return (h & Integer.MAX_VALUE) % width;
+    }
+
+    private static int spread(int h) {
+        h ^= h >>> 16;
+        h *= 0x85EBCA6B;
+        h ^= h >>> 13;
+        h *= 0xC2B2AE35;
+        h ^= h >>> 16;
+        return h;
+    }
+
+    private void promote(String key) {
+        hotKeys.put(key, new HotKey(nodeId, System.currentTimeMillis()));
+        redisTemplate.convertAndSend(CACHE_HOT_KEY_CHANNEL, PROMOTE + nodeId + ":" + key);
+        log.info("热点key：{}", key);
+    }
+
+    /**
+     * 滑动窗口前进一个桶，清空最旧的桶；本节点发现的热点key访问量回落后通知所有节点移出，
+     * 仍然很热的定期重新通知，其他节点发现的热点key太久没有收到通知时移出
+     */
+    private void tick() {
+        try {
+            int next = (current + 1) % buckets;
+            AtomicIntegerArray[] rotated = sketches.clone();
+            rotated[next] = new AtomicIntegerArray(DEPTH * width);
+            sketches = rotated;
+            current = next;
+
+            long now = System.currentTimeMillis();
+            long holdMillis = TimeUnit.SECONDS.toMillis(remoteHoldSeconds);
+            long demoteBelow = (long) (threshold * demoteRatio);
+            hotKeys.forEach((key, hotKey) -> {
+                if (!nodeId.equals(hotKey.origin)) {
+                    if (now - hotKey.notifiedAt > holdMillis) {
+                        remove(key, hotKey);
+                    }
+                } else if (estimate(key) < demoteBelow) {
+                    remove(key, hotKey);
+                    redisTemplate.convertAndSend(CACHE_HOT_KEY_CHANNEL, DEMOTE + nodeId + ":" + key);
+                    log.info("热点key降级：{}", key);
+                } else if (now - hotKey.notifiedAt >= holdMillis / 2) {
+                    hotKey.notifiedAt = now;
+                    redisTemplate.convertAndSend(CACHE_HOT_KEY_CHANNEL, PROMOTE + nodeId + ":" + key);
+                }
+            });
+        } catch (Exception e) {
+            log.error("热点key统计失败", e);
+        }
+    }
+
+    private void remove(String key, HotKey hotKey) {
+        if (hotKeys.remove(key, hotKey)) {
+            hotCache.invalidate(key);
+        }
+    }
+
+    /**
+     * 消息格式：promote:节点:key、demote:节点:key、evict:key，本节点发出的通知直接忽略
+     */
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (body.startsWith(EVICT)) {
+            hotCache.invalidate(body.substring(EVICT.length()));
+            return;
+        }
+        boolean promote = body.startsWith(PROMOTE);
+        if (!promote && !body.startsWith(DEMOTE)) {
+            return;
+        }
+        String rest = body.substring(promote ? PROMOTE.length() : DEMOTE.length());
+        int separator = rest.indexOf(':');
+        if (separator < 0) {
+            return;
+        }
+        String origin = rest.substring(0, separator);
+        String key = rest.substring(separator + 1);
+        if (nodeId.equals(origin)) {
+            return;
+        }
+        HotKey hotKey = hotKeys.get(key);
+        if (promote) {
+            if (hotKey == null) {
+                if (hotKeys.size() < maxHotKeys) {
+                    hotKeys.putIfAbsent(key, new HotKey(origin, System.currentTimeMillis()));
+                }
+            } else if (origin.equals(hotKey.origin)) {
+                hotKey.notifiedAt = System.currentTimeMillis();
+            }
+        } else if (hotKey != null && origin.equals(hotKey.origin)) {
+            // 只移出由发出通知的节点发现的热点，本节点仍然很热时下次访问会重新发现
+            remove(key, hotKey);
+        }
+    }
+
+    /**
+     * 当前的热点key及其在本节点窗口内的访问次数估计
+     */
+    public List<Map<String, Object>> hotKeys() {
+        List<Map<String, Object>> result = new ArrayList<>();
+        if (!enabled) {
+            return result;
+        }
+        hotKeys.forEach((key, hotKey) -> {
+            Map<String, Object> item = new LinkedHashMap<>();
+            item.put("key", key);
+            item.put("estimate", estimate(key));
+            item.put("since", hotKey.since);
+            item.put("local", nodeId.equals(hotKey.origin));
+            item.put("cached", hotCache.getIfPresent(key) != null);
+            result.add(item);
+        });
+        result.sort((a, b) -> Long.compare((Long) b.get("estimate"), (Long) a.get("estimate")));
+        return result;
+    }
+}
@@ -0,0 +1,390 @@
+package com.hmdp.utils;
+
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.connection.RedisStringCommands;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.data.redis.core.types.Expiration;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.function.LongSupplier;
+
+import static com.hmdp.utils.RedisConstants.BLOOM_ADD_CHANNEL;
+
+/**
+ * 按缓存key前缀维护已存在id的布隆过滤器，查询Redis和数据库之前先判断id是否可能存在，防止缓存穿透。
+ * 启动后优先从Redis加载位图，没有再流式扫描数据库构建并写回Redis；新增数据时同步设置Redis中的位，
+ * 并通过发布订阅通知其他节点。过滤器还没加载完成时一律放行。
+ * 位图旁边记录构建时间和id个数（新增时加一）：直接导入数据库或新增时写Redis失败，都会让数据库中的行数超过记录的个数，
+ * 定期检查发现行数超出或构建时间太久时重新扫描数据库，只有一个节点执行，其他节点发现构建时间更新后从Redis重新加载。
+ * 重新构建写入临时位图，构建期间新增的id同时写入正式位图和临时位图，完成后用 RENAME 替换正式位图，已删除数据的位随之清除
+ */
+@Slf4j
+@Component
+public class IdBloomFilter implements MessageListener {
+    private static final long LOCK_TTL_MINUTES = 10;
+    private static final DefaultRedisScript<Long> BLOOM_ADD_SCRIPT;
+    private static final DefaultRedisScript<Long> RELEASE_LOCK_SCRIPT;
+    static {
+        BLOOM_ADD_SCRIPT = new DefaultRedisScript<>();
+        BLOOM_ADD_SCRIPT.setLocation(new ClassPathResource("bloomAdd.lua"));
+        BLOOM_ADD_SCRIPT.setResultType(Long.class);
+        RELEASE_LOCK_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_LOCK_SCRIPT.setLocation(new ClassPathResource("releaseLock.lua"));
+        RELEASE_LOCK_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate redisTemplate;
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+    @Value("${hmdp.cache.bloom.enabled:true}")
+    private boolean enabled;
+    @Value("${hmdp.cache.bloom.expected-insertions:1000000}")
+    private long expectedInsertions;
+    @Value("${hmdp.cache.bloom.fpp:0.01}")
+    private double fpp;
+    @Value("${hmdp.cache.bloom.max-age-hours:24}")
+    private long maxAgeHours;
+    @Value("${hmdp.cache.bloom.check-interval-minutes:10}")
+    private long checkIntervalMinutes;
+
+    private final Map<String, Registration> registrations = new ConcurrentHashMap<>();
+    private ScheduledExecutorService checker;
+
+    private static class Registration {
+        private final String redisKey;
+        private final Consumer<LongConsumer> idScanner;
+        private final LongSupplier counter;
+        private final LongAdder rejected = new LongAdder();
+        private final AtomicBoolean rebuilding = new AtomicBoolean();
+        private volatile BloomFilter filter;
+        // 重新构建或加载期间新增的id同时写入新的过滤器，切换后不会丢失
+        private volatile BloomFilter building;
+        // 加载完成之前新增的id也写入过滤器，但查询不经过过滤
+        private volatile boolean ready;
+        // 本地过滤器对应的构建时间
+        private volatile long builtAt;
+
+        private Registration(String redisKey, Consumer<LongConsumer> idScanner, LongSupplier counter, BloomFilter filter) {
+            this.redisKey = redisKey;
+            this.idScanner = idScanner;
+            this.counter = counter;
+            this.filter = filter;
+        }
+
+        private String metaKey() {
+            return redisKey + ":meta";
+        }
+
+        private String buildingKey() {
+            return redisKey + ":building";
+        }
+
+        private void put(long id) {
+            filter.put(id);
+            BloomFilter next = building;
+            if (next != null) {
+                next.put(id);
+            }
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        if (enabled) {
+            listenerContainer.addMessageListener(this, new ChannelTopic(BLOOM_ADD_CHANNEL));
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        if (checker != null) {
+            checker.shutdownNow();
+        }
+    }
+
+    /**
+     * 注册一类数据的过滤器
+     * @param keyPrefix 缓存key前缀，例如 cache:shop:
+     * @param redisKey 持久化位图的key
+     * @param idScanner 流式扫描数据库中全部id
+     * @param counter 数据库中的行数，用于发现位图漏掉的id
+     */
+    public void register(String keyPrefix, String redisKey, Consumer<LongConsumer> idScanner, LongSupplier counter) {
+        if (enabled) {
+            registrations.put(keyPrefix, new Registration(redisKey, idScanner, counter, new BloomFilter(expectedInsertions, fpp)));
+        }
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadAll() {
+        if (registrations.isEmpty()) {
+            return;
+        }
+        // 扫描大表耗时较长，不阻塞启动
+        Thread loader = new Thread(() -> registrations.forEach(this::load), "bloom-loader");
+        loader.setDaemon(true);
+        loader.start();
+        checker = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "bloom-checker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checker.scheduleWithFixedDelay(() -> registrations.forEach(this::check),
+                checkIntervalMinutes, checkIntervalMinutes, TimeUnit.MINUTES);
+    }
+
+    /**
+     * 在后台重新扫描数据库构建过滤器，用于手工修复
+     * @return 没有注册该前缀时返回false
+     */
+    public boolean startRebuild(String keyPrefix) {
+        Registration registration = registrations.get(keyPrefix);
+        if (registration == null) {
+            return false;
+        }
+        Thread loader = new Thread(() -> {
+            try {
+                rebuild(keyPrefix, registration);
+            } catch (Exception e) {
+                log.error("布隆过滤器重新构建失败：{}", keyPrefix, e);
+            }
+        }, "bloom-loader");
+        loader.setDaemon(true);
+        loader.start();
+        return true;
+    }
+
+    private void load(String keyPrefix, Registration registration) {
+        try {
+            // 1.Redis中已有同样大小、没有过时的位图，直接加载
+            Map<Object, Object> meta = redisTemplate.opsForHash().entries(registration.metaKey());
+            if (!isStale(registration, meta) && reload(registration, meta)) {
+                log.info("从Redis加载布隆过滤器：{}，{}字节", keyPrefix, registration.filter.memoryBytes());
+                return;
+            }
+            // 2.否则扫描数据库构建
+            rebuild(keyPrefix, registration);
+        } catch (Exception e) {
+            log.error("布隆过滤器加载失败：{}，查询不经过过滤", keyPrefix, e);
+        }
+    }
+
+    /**
+     * 定期检查：其他节点重新构建过就从Redis重新加载，位图过时就重新构建
+     */
+    private void check(String keyPrefix, Registration registration) {
+        try {
+            Map<Object, Object> meta = redisTemplate.opsForHash().entries(registration.metaKey());
+            if (builtAt(meta) > registration.builtAt) {
+                if (reload(registration, meta)) {
+                    log.info("从Redis重新加载布隆过滤器：{}", keyPrefix);
+                }
+            } else if (isStale(registration, meta)) {
+                rebuild(keyPrefix, registration);
+            }
+        } catch (Exception e) {
+            log.error("布隆过滤器检查失败：{}", keyPrefix, e);
+        }
+    }
+
+    /**
+     * 没有构建记录、构建时间太久，或者数据库行数超过记录的id个数
+     */
+    private boolean isStale(Registration registration, Map<Object, Object> meta) {
+        long builtAt = builtAt(meta);
+        if (builtAt == 0 || System.currentTimeMillis() - builtAt > TimeUnit.HOURS.toMillis(maxAgeHours)) {
+            return true;
+        }
+        long count = Long.parseLong((String) meta.getOrDefault("count", "0"));
+        return registration.counter.getAsLong() > count;
+    }
+
+    private static long builtAt(Map<Object, Object> meta) {
+        return Long.parseLong((String) meta.getOrDefault("builtAt", "0"));
+    }
+
+    /**
+     * 从Redis读取位图替换本地过滤器，读取期间新增的id同时写入新的过滤器
+     */
+    private boolean reload(Registration registration, Map<Object, Object> meta) {
+        BloomFilter filter = new BloomFilter(expectedInsertions, fpp);
+        registration.building = filter;
+        try {
+            byte[] key = registration.redisKey.getBytes(StandardCharsets.UTF_8);
+            byte[] persisted = redisTemplate.execute((RedisCallback<byte[]>) connection -> connection.stringCommands().get(key));
+            if (!filter.mergeRedisBytes(persisted)) {
+                return false;
+            }
+            registration.filter = filter;
+            registration.builtAt = builtAt(meta);
+            registration.ready = true;
+            return true;
+        } finally {
+            registration.building = null;
+        }
+    }
+
+    /**
+     * 扫描数据库重新构建，所有节点同时只有一个在执行
+     */
+    private void rebuild(String keyPrefix, Registration registration) {
+        if (!registration.rebuilding.compareAndSet(false, true)) {
+            return;
+        }
+        String lockKey = registration.redisKey + ":lock";
+        String lockValue = UUID.randomUUID().toString(true);
+        boolean locked = false;
+        try {
+            locked = Boolean.TRUE.equals(redisTemplate.opsForValue()
+                    .setIfAbsent(lockKey, lockValue, LOCK_TTL_MINUTES, TimeUnit.MINUTES));
+            if (!locked) {
+                // 其他节点正在构建，完成后由定期检查重新加载
+                return;
+            }
+            // 1.先创建空的临时位图，之后所有节点新增的id同时写入正式位图和临时位图
+            long begin = System.currentTimeMillis();
+            BloomFilter filter = new BloomFilter(expectedInsertions, fpp);
+            byte[] key = registration.redisKey.getBytes(StandardCharsets.UTF_8);
+            byte[] temp = registration.buildingKey().getBytes(StandardCharsets.UTF_8);
+            byte[] scratch = (registration.redisKey + ":scanned").getBytes(StandardCharsets.UTF_8);
+            byte[] empty = filter.toRedisBytes();
+            redisTemplate.execute((RedisCallback<Object>) connection -> connection.stringCommands().set(temp, empty,
+                    Expiration.from(LOCK_TTL_MINUTES, TimeUnit.MINUTES), RedisStringCommands.SetOption.UPSERT));
+
+            // 2.流式扫描数据库，构建期间新增的id同时写入新旧两个过滤器
+            registration.building = filter;
+            long[] count = new long[1];
+            registration.idScanner.accept(id -> {
+                filter.put(id);
+                count[0]++;
+            });
+
+            // 3.扫描结果合并进临时位图，再替换正式位图，数据库中已删除的id不再保留
+            byte[] bytes = filter.toRedisBytes();
+            Boolean swapped = redisTemplate.execute((RedisCallback<Boolean>) connection -> {
+                if (!Boolean.TRUE.equals(connection.keyCommands().exists(temp))) {
+                    return false;
+                }
+                connection.stringCommands().set(scratch, bytes);
+                connection.stringCommands().bitOp(RedisStringCommands.BitOperation.OR, temp, temp, scratch);
+                connection.keyCommands().del(scratch);
+                connection.keyCommands().rename(temp, key);
+                connection.keyCommands().persist(key);
+                return true;
+            });
+            if (!Boolean.TRUE.equals(swapped)) {
+                log.warn("布隆过滤器构建超时，临时位图已过期，保留原位图：{}", keyPrefix);
+                return;
+            }
+            // 4.记录构建时间和id个数，其他节点据此重新加载
+            Map<String, String> meta = new HashMap<>();
+            meta.put("builtAt", String.valueOf(begin));
+            meta.put("count", String.valueOf(count[0]));
+            redisTemplate.opsForHash().putAll(registration.metaKey(), meta);
+            registration.filter = filter;
+            registration.builtAt = begin;
+            registration.ready = true;
+            log.info("构建布隆过滤器：{}，{}个id，耗时{}ms", keyPrefix, count[0], System.currentTimeMillis() - begin);
+        } finally {
+            registration.building = null;
+            registration.rebuilding.set(false);
+            if (locked) {
+                redisTemplate.execute(RELEASE_LOCK_SCRIPT, Collections.singletonList(lockKey), lockValue);
+            }
+        }
+    }
+
+    /**
+     * 判断id是否可能存在，返回false时一定不存在
+     */
+    public boolean mightContain(String keyPrefix, Object id) {
+        if (!enabled || !(id instanceof Number)) {
+            return true;
+        }
+        Registration registration = registrations.get(keyPrefix);
+        if (registration == null || !registration.ready || registration.filter.mightContain(((Number) id).longValue())) {
+            return true;
+        }
+        registration.rejected.increment();
+        return false;
+    }
+
+    /**
+     * 新增数据后调用：设置本地和Redis中的位，记录的id个数加一，并通知其他节点
+     */
+    public void add(String keyPrefix, Long id) {
+        Registration registration = registrations.get(keyPrefix);
+        if (registration == null || id == null) {
+            return;
+        }
+        registration.put(id);
+        // 其他节点正在重新构建时同时写入临时位图，替换后不会丢失
+        String[] offsets = Arrays.stream(registration.filter.offsets(id)).mapToObj(String::valueOf).toArray(String[]::new);
+        redisTemplate.execute(BLOOM_ADD_SCRIPT,
+                Arrays.asList(registration.redisKey, registration.buildingKey(), registration.metaKey()), (Object[]) offsets);
+        redisTemplate.convertAndSend(BLOOM_ADD_CHANNEL, keyPrefix + id);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        registrations.forEach((keyPrefix, registration) -> {
+            if (key.startsWith(keyPrefix)) {
+                registration.put(Long.parseLong(key.substring(keyPrefix.length())));
+            }
+        });
+    }
+
+    /**
+     * 每个过滤器的大小、误判率和拦截次数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        registrations.forEach((keyPrefix, registration) -> {
+            Map<String, Object> item = new LinkedHashMap<>();
+            BloomFilter filter = registration.filter;
+            item.put("ready", registration.ready);
+            item.put("builtAt", registration.builtAt);
+            item.put("rebuilding", registration.rebuilding.get());
+            item.put("rejected", registration.rejected.sum());
+            item.put("expectedInsertions", expectedInsertions);
+            item.put("configuredFpp", fpp);
+            item.put("bits", filter.bitSize());
+            item.put("hashes", filter.hashCount());
+            item.put("memoryBytes", filter.memoryBytes());
+            item.put("approximateElements", filter.approximateElements());
+            item.put("currentFpp", filter.currentFpp());
+            stats.put(keyPrefix, item);
+        });
+        return stats;
+    }
+}
@@ -0,0 +1,25 @@
+package com.hmdp.utils;
+
+import com.alibaba.fastjson2.JSON;
+
+import java.lang.reflect.Type;
+import java.nio.charset.StandardCharsets;
+
+public class JsonCacheCodec implements CacheCodec {
+    public static final byte ID = 1;
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public byte[] encode(Object data) {
+        return JSON.toJSONBytes(data);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, int offset, int length, Type type) {
+        return JSON.parseObject(bytes, offset, length, StandardCharsets.UTF_8, type);
+    }
+}
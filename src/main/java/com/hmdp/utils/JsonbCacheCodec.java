@@ -0,0 +1,27 @@
+package com.hmdp.utils;
+
+import com.alibaba.fastjson2.JSONB;
+
+import java.lang.reflect.Type;
+
+/**
+ * fastjson2 的二进制格式，体积更小，解析不需要扫描文本
+ */
+public class JsonbCacheCodec implements CacheCodec {
+    public static final byte ID = 2;
+
+    @Override
+    public byte id() {
+        return ID;
+    }
+
+    @Override
+    public byte[] encode(Object data) {
+        return JSONB.toBytes(data);
+    }
+
+    @Override
+    public <T> T decode(byte[] bytes, int offset, int length, Type type) {
+        return JSONB.parseObject(bytes, offset, length, type);
+    }
+}
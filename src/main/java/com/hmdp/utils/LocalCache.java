@@ -0,0 +1,89 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.CACHE_INVALIDATE_CHANNEL;
+
+/**
+ * 进程内一级缓存，位于Redis之前。容量有限，按W-TinyLFU淘汰，写入后ttl过期；
+ * 数据变更时通过Redis发布订阅通知所有节点删除本地副本
+ */
+@Slf4j
+@Component
+public class LocalCache implements MessageListener {
+    /**
+     * 缓存空值的占位对象，区分“不存在”和“没有缓存”
+     */
+    public static final Object NULL_VALUE = new Object();
+
+    @Resource
+    private StringRedisTemplate redisTemplate;
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+    @Value("${hmdp.cache.local.enabled:false}")
+    private boolean enabled;
+    @Value("${hmdp.cache.local.maximum-size:10000}")
+    private long maximumSize;
+    @Value("${hmdp.cache.local.ttl-seconds:60}")
+    private long ttlSeconds;
+
+    private Cache<String, Object> cache;
+
+    @PostConstruct
+    private void init() {
+        if (!enabled) {
+            return;
+        }
+        cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .build();
+        listenerContainer.addMessageListener(this, new ChannelTopic(CACHE_INVALIDATE_CHANNEL));
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public Object get(String key) {
+        return enabled ? cache.getIfPresent(key) : null;
+    }
+
+    public void put(String key, Object value) {
+        if (enabled) {
+            cache.put(key, value == null ? NULL_VALUE : value);
+        }
+    }
+
+    /**
+     * 删除所有节点上的本地副本
+     */
+    public void evict(String key) {
+        if (!enabled) {
+            return;
+        }
+        cache.invalidate(key);
+        redisTemplate.convertAndSend(CACHE_INVALIDATE_CHANNEL, key);
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String key = new String(message.getBody(), StandardCharsets.UTF_8);
+        log.debug("删除本地缓存：{}", key);
+        cache.invalidate(key);
+    }
+}
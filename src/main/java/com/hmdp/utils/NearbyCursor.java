@@ -0,0 +1,55 @@
+package com.hmdp.utils;
+
+import java.nio.ByteBuffer;
+import java.util.Base64;
+
+/**
+ * 附近店铺的分页游标：上一页最后一个店铺的距离和id，编码成不透明的字符串。
+ * 下一页从 (距离, id) 严格大于游标的位置开始，距离相同的店铺按id排序，不会重复或遗漏
+ */
+public final class NearbyCursor {
+    private final double distance;
+    private final long id;
+
+    public NearbyCursor(double distance, long id) {
+        this.distance = distance;
+        this.id = id;
+    }
+
+    public double getDistance() {
+        return distance;
+    }
+
+    public long getId() {
+        return id;
+    }
+
+    /**
+     * 是否排在游标之后
+     */
+    public boolean isBefore(double distance, long id) {
+        return distance > this.distance || (distance == this.distance && id > this.id);
+    }
+
+    public String encode() {
+        ByteBuffer buffer = ByteBuffer.allocate(16);
+        buffer.putDouble(distance).putLong(id);
+        return Base64.getUrlEncoder().withoutPadding().encodeToString(buffer.array());
+    }
+
+    /**
+     * @return 游标为空时返回null
+     * @throws IllegalArgumentException 游标格式错误
+     */
+    public static NearbyCursor decode(String cursor) {
+        if (cursor == null || cursor.isEmpty()) {
+            return null;
+        }
+        byte[] bytes = Base64.getUrlDecoder().decode(cursor);
+        if (bytes.length != 16) {
+            throw new IllegalArgumentException("无效的游标");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        return new NearbyCursor(buffer.getDouble(), buffer.getLong());
+    }
+}
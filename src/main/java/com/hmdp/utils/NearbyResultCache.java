@@ -0,0 +1,171 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 附近店铺的短期结果缓存：坐标按网格量化，同一类型同一网格内的请求共用一份候选店铺。
+ * 候选集以网格中心为圆心、半径加上半个网格对角线查询，覆盖网格内任意一点的查询范围；
+ * 翻页时按请求的真实坐标计算距离，从游标之后取一页，不再重复查询。
+ * 候选集达到 max-candidates 个被截断时，只保证包含到网格中心不超过最远候选距离的店铺，
+ * 翻页范围限制在这个距离减去请求坐标到网格中心的距离之内，超出后不再返回下一页
+ */
+@Component
+public class NearbyResultCache {
+    private static final double METERS_PER_DEGREE = Math.toRadians(1) * 6372797.560856;
+
+    @Value("${hmdp.geo.nearby.cell-degrees:0.005}")
+    private double cellDegrees = 0.005;
+    @Value("${hmdp.geo.nearby.ttl-seconds:10}")
+    private long ttlSeconds = 10;
+    @Value("${hmdp.geo.nearby.maximum-size:10000}")
+    private long maximumSize = 10000;
+    /**
+     * 每个网格最多缓存的候选店铺数，截断后翻页范围随之缩小
+     */
+    @Value("${hmdp.geo.nearby.max-candidates:2000}")
+    private int maxCandidates = 2000;
+
+    private Cache<String, Candidates> cache;
+
+    /**
+     * 一个网格的候选店铺，创建后不再修改
+     */
+    public static final class Candidates {
+        private final long[] ids;
+        private final double[] lons;
+        private final double[] lats;
+        private final double centerX;
+        private final double centerY;
+        /**
+         * 到查询中心的距离小于该值的店铺都在候选集中，没有截断时为无穷大
+         */
+        private final double coveredMeters;
+
+        public Candidates(long[] ids, double[] lons, double[] lats) {
+            this(ids, lons, lats, 0, 0, Double.POSITIVE_INFINITY);
+        }
+
+        private Candidates(long[] ids, double[] lons, double[] lats, double centerX, double centerY, double coveredMeters) {
+            this.ids = ids;
+            this.lons = lons;
+            this.lats = lats;
+            this.centerX = centerX;
+            this.centerY = centerY;
+            this.coveredMeters = coveredMeters;
+        }
+
+        public static Candidates of(List<GeoGrid.Hit> hits) {
+            long[] ids = new long[hits.size()];
+            double[] lons = new double[hits.size()];
+            double[] lats = new double[hits.size()];
+            for (int i = 0; i < ids.length; i++) {
+                GeoGrid.Hit hit = hits.get(i);
+                ids[i] = hit.getId();
+                lons[i] = hit.getLon();
+                lats[i] = hit.getLat();
+            }
+            return new Candidates(ids, lons, lats);
+        }
+
+        public int size() {
+            return ids.length;
+        }
+
+        /**
+         * 按 limit 个查询被截断的候选集：记录查询中心和最远候选到中心的距离
+         */
+        Candidates truncated(double centerX, double centerY, int limit) {
+            if (ids.length < limit) {
+                return this;
+            }
+            double farthest = 0;
+            for (int i = 0; i < ids.length; i++) {
+                farthest = Math.max(farthest, GeoGrid.distance(centerX, centerY, lons[i], lats[i]));
+            }
+            return new Candidates(ids, lons, lats, centerX, centerY, farthest);
+        }
+
+        /**
+         * 以 (x, y) 为圆心，距离小于返回值的店铺一定都在候选集中
+         */
+        double reach(double x, double y) {
+            if (coveredMeters == Double.POSITIVE_INFINITY) {
+                return coveredMeters;
+            }
+            return coveredMeters - GeoGrid.distance(centerX, centerY, x, y);
+        }
+    }
+
+    /**
+     * 按圆心和半径查询最近的 limit 个候选店铺，由调用方决定使用本地索引还是Redis GEO
+     */
+    @FunctionalInterface
+    public interface CandidateLoader {
+        Candidates load(double x, double y, double radiusMeters, int limit);
+    }
+
+    @PostConstruct
+    public void init() {
+        cache = Caffeine.newBuilder()
+                .maximumSize(maximumSize)
+                .expireAfterWrite(ttlSeconds, TimeUnit.SECONDS)
+                .build();
+    }
+
+    /**
+     * 取坐标所在网格的候选店铺，没有缓存时用网格中心查询
+     */
+    public Candidates get(long typeId, double x, double y, double radiusMeters, CandidateLoader loader) {
+        long cellX = (long) Math.floor(x / cellDegrees);
+        long cellY = (long) Math.floor(y / cellDegrees);
+        String key = typeId + ":" + cellX + ":" + cellY + ":" + radiusMeters;
+        return cache.get(key, k -> {
+            double centerX = (cellX + 0.5) * cellDegrees;
+            double centerY = (cellY + 0.5) * cellDegrees;
+            // 网格内任意一点到中心的距离不超过半个对角线，纬度方向1度最长，按纬度估算
+            double halfDiagonal = cellDegrees * METERS_PER_DEGREE * Math.sqrt(2) / 2;
+            return loader.load(centerX, centerY, radiusMeters + halfDiagonal, maxCandidates)
+                    .truncated(centerX, centerY, maxCandidates);
+        });
+    }
+
+    /**
+     * 从候选店铺中取游标之后最近的一页；候选集被截断时只取一定完整的范围，之外的店铺可能缺失，不再翻页
+     * @param cursor 上一页的游标，第一页为null
+     * @param limit 每页个数，返回 limit+1 个用于判断是否还有下一页
+     */
+    public static List<GeoGrid.Hit> page(Candidates candidates, double x, double y, double radiusMeters,
+                                         NearbyCursor cursor, int limit) {
+        Comparator<GeoGrid.Hit> byDistance =
+                Comparator.comparingDouble(GeoGrid.Hit::getDistance).thenComparingLong(GeoGrid.Hit::getId);
+        // 大顶堆保留最近的 limit+1 个
+        PriorityQueue<GeoGrid.Hit> heap = new PriorityQueue<>(limit + 2, byDistance.reversed());
+        double reach = candidates.reach(x, y);
+        for (int i = 0; i < candidates.ids.length; i++) {
+            double distance = GeoGrid.distance(x, y, candidates.lons[i], candidates.lats[i]);
+            if (distance > radiusMeters || distance >= reach || (cursor != null && !cursor.isBefore(distance, candidates.ids[i]))) {
+                continue;
+            }
+            GeoGrid.Hit hit = new GeoGrid.Hit(candidates.ids[i], distance, candidates.lons[i], candidates.lats[i]);
+            if (heap.size() <= limit) {
+                heap.offer(hit);
+            } else if (byDistance.compare(hit, heap.peek()) < 0) {
+                heap.poll();
+                heap.offer(hit);
+            }
+        }
+        List<GeoGrid.Hit> hits = new ArrayList<>(heap);
+        hits.sort(byDistance);
+        return hits;
+    }
+}
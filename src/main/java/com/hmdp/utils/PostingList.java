@@ -0,0 +1,145 @@
+package com.hmdp.utils;
+
+import java.util.Arrays;
+
+/**
+ * 压缩的倒排列表：文档号递增追加，保存与前一个文档号的差值，按变长字节编码（每字节7位，最高位表示后面还有字节）。
+ * 每隔 {@link #SKIP_INTERVAL} 个文档号记录一个跳跃点（文档号和之后的字节位置），advance 时先二分查找跳跃点。
+ * 写入由调用方串行化；读取不加锁，先读长度再读数组，只会看到已经完整写入的部分
+ */
+public class PostingList {
+    private static final int SKIP_INTERVAL = 64;
+
+    private volatile byte[] data = new byte[4];
+    private volatile int length;
+    private int[] skipDocs = new int[0];
+    private int[] skipPositions = new int[0];
+    private int skips;
+    private int count;
+    private int last = -1;
+
+    /**
+     * 追加文档号，必须大于之前的所有文档号
+     */
+    public void add(int doc) {
+        int delta = doc - last;
+        byte[] bytes = data;
+        if (length + 5 > bytes.length) {
+            bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + 5));
+        }
+        int pos = length;
+        while ((delta & ~0x7F) != 0) {
+            bytes[pos++] = (byte) ((delta & 0x7F) | 0x80);
+            delta >>>= 7;
+        }
+        bytes[pos++] = (byte) delta;
+        data = bytes;
+        last = doc;
+        count++;
+        if (count % SKIP_INTERVAL == 0) {
+            if (skips == skipDocs.length) {
+                skipDocs = Arrays.copyOf(skipDocs, Math.max(4, skips * 2));
+                skipPositions = Arrays.copyOf(skipPositions, skipDocs.length);
+            }
+            skipDocs[skips] = doc;
+            skipPositions[skips] = pos;
+            skips++;
+        }
+        length = pos;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    public int bytes() {
+        return length;
+    }
+
+    public Cursor cursor() {
+        // 先读长度，之后读到的跳跃点和最后一个文档号都不早于这个长度
+        int end = length;
+        return new Cursor(data, end, skipDocs, skipPositions, skips, last);
+    }
+
+    /**
+     * 顺序读取文档号，advance 用于求交集时跳过较小的文档号
+     */
+    public static final class Cursor {
+        private final byte[] data;
+        private final int end;
+        private final int[] skipDocs;
+        private final int[] skipPositions;
+        private final int skips;
+        private final int last;
+        private int pos;
+        private int doc = -1;
+
+        private Cursor(byte[] data, int end, int[] skipDocs, int[] skipPositions, int skips, int last) {
+            this.data = data;
+            this.end = end;
+            this.skipDocs = skipDocs;
+            this.skipPositions = skipPositions;
+            this.skips = skips;
+            this.last = last;
+        }
+
+        /**
+         * @return 列表中最大的文档号，不小于游标能读到的任何文档号，空列表返回 -1
+         */
+        public int last() {
+            return last;
+        }
+
+        /**
+         * @return 下一个文档号，没有时返回 -1
+         */
+        public int next() {
+            if (pos >= end) {
+                return -1;
+            }
+            int delta = 0;
+            int shift = 0;
+            byte b;
+            do {
+                b = data[pos++];
+                delta |= (b & 0x7F) << shift;
+                shift += 7;
+            } while (b < 0);
+            doc += delta;
+            return doc;
+        }
+
+        /**
+         * @return 第一个不小于 target 的文档号，没有时返回 -1
+         */
+        public int advance(int target) {
+            if (doc >= target) {
+                return doc;
+            }
+            // 跳到小于 target 的最后一个跳跃点，跳跃点的位置不能超过本游标可见的长度
+            int low = 0, high = skips - 1, found = -1;
+            while (low <= high) {
+                int mid = (low + high) >>> 1;
+                if (skipDocs[mid] < target && skipPositions[mid] <= end) {
+                    found = mid;
+                    low = mid + 1;
+                } else {
+                    high = mid - 1;
+                }
+            }
+            if (found >= 0 && skipDocs[found] > doc) {
+                doc = skipDocs[found];
+                pos = skipPositions[found];
+            }
+            int current = doc;
+            while (current < target) {
+                current = next();
+                if (current < 0) {
+                    return -1;
+                }
+            }
+            return current;
+        }
+    }
+}
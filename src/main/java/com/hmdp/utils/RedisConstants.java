@@ -11,8 +11,30 @@ public class RedisConstants {
     public static final Long CACHE_SHOP_TTL = 30L;
     public static final String CACHE_SHOP_KEY = "cache:shop:";
     public static final String CACHE_SHOP_TYPE_KEY = "cash:shopType:";
+    public static final Long CACHE_BLOG_TTL = 30L;
+    public static final String CACHE_BLOG_KEY = "cache:blog:";
+    public static final String CACHE_USER_KEY = "cache:user:";
+    public static final String CACHE_USER_INFO_KEY = "cache:userInfo:";
+    public static final String CACHE_SHOP_VOUCHER_KEY = "cache:voucher:shop:";
     public static final String LOCK_SHOP_KEY = "lock:shop:";
     public static final Long LOCK_SHOP_TTL = 10L;
+    public static final String CACHE_INVALIDATE_CHANNEL = "cache:invalidate:channel";
+    public static final String CACHE_HOT_KEY_CHANNEL = "cache:hotkey:channel";
+    public static final String CACHE_LOADED_CHANNEL = "cache:loaded:channel";
 
-    public static final String SECKILL_STOCK_KEY = "seckill:stock:";
+    public static final String BLOOM_SHOP_KEY = "bloom:shop";
+    public static final String BLOOM_BLOG_KEY = "bloom:blog";
+    public static final String BLOOM_ADD_CHANNEL = "bloom:add:channel";
+    public static final String SHOP_GEO_KEY = "shop:geo:";
+    public static final String SHOP_GEO_LOAD_KEY = "shop:geo:load";
+    public static final String LOCK_SHOP_GEO_LOAD_KEY = "lock:shop:geo:load";
+    public static final String SHOP_GEO_CHANNEL = "shop:geo:channel";
+    public static final String SHOP_NAME_CHANNEL = "shop:name:channel";
+    public static final String SHOP_FILTER_CHANNEL = "shop:filter:channel";
+    public static final String SHOP_RANK_KEY = "shop:rank:";
+    public static final String SHOP_RANK_LOAD_KEY = "shop:rank:load";
+    public static final String LOCK_SHOP_RANK_LOAD_KEY = "lock:shop:rank:load";
+
+    public static final String SECKILL_SOLD_OUT_KEY = "seckill:soldout";
+    public static final String SECKILL_SOLD_OUT_CHANNEL = "seckill:soldout:channel";
 }
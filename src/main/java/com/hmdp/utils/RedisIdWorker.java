@@ -1,26 +1,134 @@
 package com.hmdp.utils;
 
+import cn.hutool.core.lang.UUID;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
 import org.springframework.stereotype.Component;
 
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
 import javax.annotation.Resource;
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.time.format.DateTimeFormatter;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
 
+@Slf4j
 @Component
 public class RedisIdWorker {
     private static final long BEGIN_TIMESTAMP = 1735689600L;
     private static final int COUNT_BITS = 32;
+    private static final DateTimeFormatter DATE_FORMATTER = DateTimeFormatter.ofPattern("yyyy-MM-dd");
+
+    public static final String MODE_INCR = "incr";
+    public static final String MODE_SEGMENT = "segment";
+    public static final String MODE_SNOWFLAKE = "snowflake";
+
+    // 雪花模式下低32位的划分：机器号10位 | 时钟回拨借用标记1位 | 序列号21位
+    private static final int WORKER_ID_BITS = 10;
+    private static final int BORROW_BITS = 1;
+    private static final int SEQUENCE_BITS = 21;
+    private static final long MAX_WORKER_ID = (1L << WORKER_ID_BITS) - 1;
+    private static final long MAX_SEQUENCE = (1L << SEQUENCE_BITS) - 1;
+    private static final String WORKER_KEY_PREFIX = "icr:worker:";
+    private static final DefaultRedisScript<Long> RENEW_LEASE_SCRIPT;
+    private static final DefaultRedisScript<Long> RELEASE_LEASE_SCRIPT;
+
+    static {
+        RENEW_LEASE_SCRIPT = new DefaultRedisScript<>();
+        RENEW_LEASE_SCRIPT.setLocation(new ClassPathResource("renewLease.lua"));
+        RENEW_LEASE_SCRIPT.setResultType(Long.class);
+        RELEASE_LEASE_SCRIPT = new DefaultRedisScript<>();
+        RELEASE_LEASE_SCRIPT.setLocation(new ClassPathResource("releaseLock.lua"));
+        RELEASE_LEASE_SCRIPT.setResultType(Long.class);
+    }
+
     @Resource
     private StringRedisTemplate stringRedisTemplate;
+    @Value("${hmdp.id.mode:incr}")
+    private String mode = MODE_INCR;
+    @Value("${hmdp.id.segment-size:1000}")
+    private int segmentSize = 1000;
+    @Value("${hmdp.id.worker-lease-seconds:30}")
+    private long workerLeaseSeconds = 30;
+    @Value("${hmdp.id.worker-lease-margin-seconds:5}")
+    private long workerLeaseMarginSeconds = 5;
+    @Value("${hmdp.id.max-rollback-wait-millis:1000}")
+    private long maxRollbackWaitMillis = 1000;
+
+    private volatile DateHolder dateHolder = new DateHolder(0, null);
+    private final Map<String, SegmentBuffer> segmentBuffers = new ConcurrentHashMap<>();
+    // 号段预取线程，用到时才创建，守护线程不阻止JVM退出
+    private final ExecutorService segmentPrefetchExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "id-segment-prefetch");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // 雪花模式状态
+    private final String workerOwner = UUID.randomUUID().toString(true);
+    private volatile long workerId = -1;
+    // 本地记录的租约到期时间，续期成功时更新；Redis不可用导致续期失败时，到期前停止发号
+    private volatile long leaseDeadline;
+    private long lastTimestamp = -1;
+    private long sequence;
+    private long borrowTimestamp = -1;
+    private long borrowSequence;
+    private ScheduledExecutorService workerLeaseExecutor;
+
+    @PostConstruct
+    private void init() {
+        if (!MODE_SNOWFLAKE.equals(mode)) {
+            return;
+        }
+        long start = System.currentTimeMillis();
+        long id = leaseWorkerId();
+        synchronized (this) {
+            workerId = id;
+            leaseDeadline = start + TimeUnit.SECONDS.toMillis(workerLeaseSeconds);
+        }
+        workerLeaseExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "id-worker-lease");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1, workerLeaseSeconds / 3);
+        workerLeaseExecutor.scheduleWithFixedDelay(this::renewWorkerId, period, period, TimeUnit.SECONDS);
+    }
+
+    @PreDestroy
+    private void destroy() {
+        segmentPrefetchExecutor.shutdownNow();
+        if (workerLeaseExecutor != null) {
+            workerLeaseExecutor.shutdownNow();
+        }
+        long id = workerId;
+        if (id >= 0) {
+            workerId = -1;
+            stringRedisTemplate.execute(RELEASE_LEASE_SCRIPT,
+                    Collections.singletonList(WORKER_KEY_PREFIX + id), workerOwner);
+        }
+    }
 
     public long nextId(String keyPrefix) {
+        if (MODE_SEGMENT.equals(mode)) {
+            return nextSegmentId(keyPrefix);
+        }
+        if (MODE_SNOWFLAKE.equals(mode)) {
+            return nextSnowflakeId();
+        }
         // 1. 生成时间戳（当前时间戳 - BEGIN_TIMESTAMP）
         long timestamp = (System.currentTimeMillis() / 1000) - BEGIN_TIMESTAMP;
 
         // 2. 获取当前日期，使用更标准的格式（yyyy-MM-dd）
-        String date = LocalDateTime.now().format(DateTimeFormatter.ofPattern("yyyy-MM-dd"));
+        String date = today();
 
         // 3. Redis 键
         String redisKey = "icr:" + keyPrefix + ":" + date;
@@ -37,5 +145,230 @@ public class RedisIdWorker {
         // 6. 将时间戳和序列号组合生成唯一 ID
         return (timestamp << COUNT_BITS) | count;
     }
-}
 
+    /**
+     * 当天日期字符串，跨天前一直复用同一个字符串，不必每次都格式化
+     */
+    private String today() {
+        long now = System.currentTimeMillis();
+        DateHolder holder = dateHolder;
+        if (now < holder.validUntil) {
+            return holder.date;
+        }
+        ZoneId zone = ZoneId.systemDefault();
+        LocalDate date = LocalDate.now(zone);
+        long validUntil = date.plusDays(1).atStartOfDay(zone).toInstant().toEpochMilli();
+        holder = new DateHolder(validUntil, date.format(DATE_FORMATTER));
+        dateHolder = holder;
+        return holder.date;
+    }
+
+    private static class DateHolder {
+        private final long validUntil;
+        private final String date;
+
+        private DateHolder(long validUntil, String date) {
+            this.validUntil = validUntil;
+            this.date = date;
+        }
+    }
+
+    /**
+     * 号段：一次 INCRBY 预留 [start, end] 这一段序列号，本地游标依次发放
+     */
+    private static class Segment {
+        private final String date;
+        private final long start;
+        private final long end;
+        private final AtomicLong cursor;
+
+        private Segment(String date, long start, long end) {
+            this.date = date;
+            this.start = start;
+            this.end = end;
+            this.cursor = new AtomicLong(start);
+        }
+    }
+
+    private static class SegmentBuffer {
+        private volatile Segment current;
+        private volatile CompletableFuture<Segment> next;
+        private final AtomicBoolean prefetching = new AtomicBoolean();
+    }
+
+    private long nextSegmentId(String keyPrefix) {
+        long timestamp = (System.currentTimeMillis() / 1000) - BEGIN_TIMESTAMP;
+        String date = today();
+        SegmentBuffer buffer = segmentBuffers.computeIfAbsent(keyPrefix, k -> new SegmentBuffer());
+        while (true) {
+            // 1.无锁地从当前号段取号
+            Segment segment = buffer.current;
+            if (segment != null && segment.date.equals(date)) {
+                long count = segment.cursor.getAndIncrement();
+                if (count <= segment.end) {
+                    // 2.当前号段用掉80%时异步预取下一段
+                    if ((count - segment.start + 1) * 5 >= (segment.end - segment.start + 1) * 4
+                            && buffer.prefetching.compareAndSet(false, true)) {
+                        prefetch(buffer, keyPrefix, date);
+                    }
+                    return (timestamp << COUNT_BITS) | count;
+                }
+            }
+            // 3.号段用完或者跨天，切换号段
+            switchSegment(buffer, keyPrefix, date, segment);
+        }
+    }
+
+    private void prefetch(SegmentBuffer buffer, String keyPrefix, String date) {
+        try {
+            buffer.next = CompletableFuture.supplyAsync(() -> allocateSegment(keyPrefix, date), segmentPrefetchExecutor);
+        } catch (RejectedExecutionException e) {
+            // 正在关闭，不再预取，号段用完时同步分配
+            buffer.prefetching.set(false);
+        }
+    }
+
+    private void switchSegment(SegmentBuffer buffer, String keyPrefix, String date, Segment exhausted) {
+        synchronized (buffer) {
+            // 其他线程已经切换过了
+            if (buffer.current != exhausted) {
+                return;
+            }
+            Segment segment = null;
+            CompletableFuture<Segment> next = buffer.next;
+            if (next != null) {
+                try {
+                    segment = next.join();
+                } catch (Exception e) {
+                    log.error("预取号段失败", e);
+                }
+            }
+            // 预取的号段属于前一天，不能再用
+            if (segment == null || !segment.date.equals(date)) {
+                segment = allocateSegment(keyPrefix, date);
+            }
+            buffer.next = null;
+            buffer.current = segment;
+            buffer.prefetching.set(false);
+        }
+    }
+
+    private Segment allocateSegment(String keyPrefix, String date) {
+        Long end = stringRedisTemplate.opsForValue().increment("icr:" + keyPrefix + ":" + date, segmentSize);
+        if (end == null) {
+            throw new IllegalStateException("号段分配失败：" + keyPrefix);
+        }
+        return new Segment(date, end - segmentSize + 1, end);
+    }
+
+    /**
+     * 从Redis租借一个机器号，带过期时间，节点宕机后机器号自动释放
+     */
+    private long leaseWorkerId() {
+        long start = ThreadLocalRandom.current().nextLong(MAX_WORKER_ID + 1);
+        for (long i = 0; i <= MAX_WORKER_ID; i++) {
+            long id = (start + i) & MAX_WORKER_ID;
+            Boolean success = stringRedisTemplate.opsForValue()
+                    .setIfAbsent(WORKER_KEY_PREFIX + id, workerOwner, workerLeaseSeconds, TimeUnit.SECONDS);
+            if (Boolean.TRUE.equals(success)) {
+                log.info("租借到机器号：{}", id);
+                return id;
+            }
+        }
+        throw new IllegalStateException("没有空闲的机器号");
+    }
+
+    private void renewWorkerId() {
+        try {
+            long id = workerId;
+            // 以发出请求的时间计算到期时间，不会比Redis中的实际到期时间晚
+            long start = System.currentTimeMillis();
+            Long renewed = id < 0 ? null : stringRedisTemplate.execute(RENEW_LEASE_SCRIPT,
+                    Collections.singletonList(WORKER_KEY_PREFIX + id), workerOwner, String.valueOf(workerLeaseSeconds));
+            if (renewed != null && renewed != 0) {
+                leaseDeadline = start + TimeUnit.SECONDS.toMillis(workerLeaseSeconds);
+                return;
+            }
+            // 租约已经丢失，机器号可能被其他节点占用，必须停止发号并重新租借；租借在锁外进行，不阻塞发号线程
+            log.warn("机器号租约丢失：{}", id);
+            workerId = -1;
+            long leased = leaseWorkerId();
+            synchronized (this) {
+                workerId = leased;
+                leaseDeadline = start + TimeUnit.SECONDS.toMillis(workerLeaseSeconds);
+            }
+        } catch (Exception e) {
+            log.error("机器号续期失败", e);
+        }
+    }
+
+    private synchronized long nextSnowflakeId() {
+        if (workerId < 0) {
+            throw new IllegalStateException("没有可用的机器号");
+        }
+        // 租约快要到期还没有续期成功，机器号可能马上被其他节点租走，停止发号
+        if (System.currentTimeMillis() > leaseDeadline - TimeUnit.SECONDS.toMillis(workerLeaseMarginSeconds)) {
+            throw new IllegalStateException("机器号租约即将过期：" + workerId);
+        }
+        long timestamp = currentSecond();
+        // 1.时钟回拨：回拨不多时等待时钟追上
+        if (timestamp < lastTimestamp) {
+            long waitMillis = (lastTimestamp - timestamp) * 1000;
+            if (waitMillis <= maxRollbackWaitMillis) {
+                timestamp = waitUntil(lastTimestamp);
+            } else {
+                // 2.回拨太多则借用保留的序列空间，沿用上次的时间戳，保证id不重复且仍然有序
+                return nextBorrowedId();
+            }
+        }
+        if (timestamp == lastTimestamp) {
+            sequence = (sequence + 1) & MAX_SEQUENCE;
+            if (sequence == 0) {
+                // 当前秒的序列号用完，等到下一秒
+                timestamp = waitUntil(lastTimestamp + 1);
+            }
+        } else {
+            sequence = 0;
+        }
+        lastTimestamp = timestamp;
+        return compose(timestamp, 0, sequence);
+    }
+
+    private long nextBorrowedId() {
+        if (borrowTimestamp < lastTimestamp) {
+            borrowTimestamp = lastTimestamp;
+            borrowSequence = 0;
+        } else if (++borrowSequence > MAX_SEQUENCE) {
+            // 借用的序列号也用完了，继续借用下一秒
+            borrowTimestamp++;
+            borrowSequence = 0;
+        }
+        log.warn("时钟回拨，借用保留序列号：timestamp={}, sequence={}", borrowTimestamp, borrowSequence);
+        return compose(borrowTimestamp, 1, borrowSequence);
+    }
+
+    private long compose(long timestamp, long borrow, long sequence) {
+        return (timestamp << COUNT_BITS)
+                | (workerId << (BORROW_BITS + SEQUENCE_BITS))
+                | (borrow << SEQUENCE_BITS)
+                | sequence;
+    }
+
+    private long currentSecond() {
+        return (System.currentTimeMillis() / 1000) - BEGIN_TIMESTAMP;
+    }
+
+    private long waitUntil(long second) {
+        long timestamp = currentSecond();
+        while (timestamp < second) {
+            try {
+                Thread.sleep(1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("等待时钟被中断", e);
+            }
+            timestamp = currentSecond();
+        }
+        return timestamp;
+    }
+}
@@ -0,0 +1,197 @@
+package com.hmdp.utils;
+
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.core.StringRedisTemplate;
+
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+import java.util.function.ToLongFunction;
+
+/**
+ * 可中断续传的全量加载：按id顺序流式读取数据库，攒够一批交给写入逻辑，每批写完后在Redis哈希中记录检查点（lastId、loaded），
+ * 中断后从检查点继续，全部完成后记录 finishedAt 并不再执行。写入必须是覆盖写，重复写入同一批结果相同。
+ * 所有节点通过Redisson锁保证同时只有一个在加载，{@link ShopGeoLoader} 和 {@link ShopRanking} 共用
+ * @param <T> 读取的数据类型
+ */
+@Slf4j
+public class ResumableLoader<T> {
+    private final String name;
+    private final String checkpointKey;
+    private final String lockKey;
+    private final StringRedisTemplate redisTemplate;
+    private final RedissonClient redissonClient;
+    private final int batchSize;
+    private final long progressIntervalMillis;
+    private final ToLongFunction<T> idGetter;
+    private final Consumer<List<T>> writer;
+
+    private BiConsumer<Long, Consumer<T>> scanner;
+    private LongSupplier counter;
+
+    /**
+     * 加载进度
+     */
+    private volatile boolean running;
+    private volatile boolean finished;
+    private volatile long total;
+    private volatile long loaded;
+    private volatile long resumedFrom;
+    private volatile long lastId;
+    private volatile long beginMillis;
+    private volatile long finishMillis;
+    private volatile long lastCheckMillis;
+
+    /**
+     * @param name 加载的数据名称，用于日志
+     * @param checkpointKey 保存检查点的Redis哈希，冒号换成短横线后作为加载线程名
+     * @param lockKey 跨节点互斥的锁
+     * @param idGetter 数据的id，按它记录检查点
+     * @param writer 写入一批数据，批次中包含需要跳过的数据，由写入逻辑自行过滤
+     */
+    public ResumableLoader(String name, String checkpointKey, String lockKey,
+                           StringRedisTemplate redisTemplate, RedissonClient redissonClient,
+                           int batchSize, long progressIntervalSeconds,
+                           ToLongFunction<T> idGetter, Consumer<List<T>> writer) {
+        this.name = name;
+        this.checkpointKey = checkpointKey;
+        this.lockKey = lockKey;
+        this.redisTemplate = redisTemplate;
+        this.redissonClient = redissonClient;
+        this.batchSize = batchSize;
+        this.progressIntervalMillis = progressIntervalSeconds * 1000;
+        this.idGetter = idGetter;
+        this.writer = writer;
+    }
+
+    /**
+     * @param scanner 按id顺序流式读取id大于第一个参数的数据
+     * @param counter 数据总数，用于计算进度
+     */
+    public void register(BiConsumer<Long, Consumer<T>> scanner, LongSupplier counter) {
+        this.scanner = scanner;
+        this.counter = counter;
+    }
+
+    /**
+     * 在后台线程中全量加载，进度通过 {@link #progress()} 查看
+     */
+    public void startLoad(boolean restart) {
+        if (scanner == null || running) {
+            return;
+        }
+        Thread loader = new Thread(() -> load(restart), checkpointKey.replace(':', '-'));
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * 全量加载，所有节点同时只有一个在执行
+     * @param restart 忽略检查点，从头重新加载
+     * @return 是否执行了加载，已经加载完成或其他节点正在加载时返回false
+     */
+    public boolean load(boolean restart) {
+        RLock lock = redissonClient.getLock(lockKey);
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            // 1.读取检查点
+            if (restart) {
+                redisTemplate.delete(checkpointKey);
+                finished = false;
+                finishMillis = 0;
+            }
+            Map<Object, Object> checkpoint = redisTemplate.opsForHash().entries(checkpointKey);
+            loaded = Long.parseLong((String) checkpoint.getOrDefault("loaded", "0"));
+            if (checkpoint.containsKey("finishedAt")) {
+                finishMillis = Long.parseLong((String) checkpoint.get("finishedAt"));
+                finished = true;
+                return false;
+            }
+            long startId = Long.parseLong((String) checkpoint.getOrDefault("lastId", "0"));
+            running = true;
+            total = counter.getAsLong();
+            resumedFrom = loaded;
+            lastId = startId;
+            beginMillis = System.currentTimeMillis();
+            log.info("开始加载{}，从id {} 开始，共{}个", name, startId, total);
+
+            // 2.流式读取，攒够一批写入
+            List<T> batch = new ArrayList<>(batchSize);
+            long[] lastReport = {beginMillis};
+            scanner.accept(startId, item -> {
+                batch.add(item);
+                if (batch.size() >= batchSize) {
+                    flush(batch);
+                    if (System.currentTimeMillis() - lastReport[0] >= progressIntervalMillis) {
+                        lastReport[0] = System.currentTimeMillis();
+                        log.info("加载{}：{}", name, progress());
+                    }
+                }
+            });
+            flush(batch);
+
+            // 3.标记完成，之后只做增量同步
+            finishMillis = System.currentTimeMillis();
+            redisTemplate.opsForHash().put(checkpointKey, "finishedAt", String.valueOf(finishMillis));
+            finished = true;
+            log.info("{}加载完成：{}", name, progress());
+            return true;
+        } catch (Exception e) {
+            log.error("{}加载中断，下次从id {} 继续", name, lastId, e);
+            return false;
+        } finally {
+            running = false;
+            lock.unlock();
+        }
+    }
+
+    /**
+     * 写完一批后再更新检查点，检查点之前的数据一定已经写入
+     */
+    private void flush(List<T> batch) {
+        if (batch.isEmpty()) {
+            return;
+        }
+        writer.accept(batch);
+        loaded += batch.size();
+        lastId = idGetter.applyAsLong(batch.get(batch.size() - 1));
+        batch.clear();
+        Map<String, String> checkpoint = new HashMap<>();
+        checkpoint.put("lastId", String.valueOf(lastId));
+        checkpoint.put("loaded", String.valueOf(loaded));
+        redisTemplate.opsForHash().putAll(checkpointKey, checkpoint);
+    }
+
+    /**
+     * 全量加载是否已经完成；可能由其他节点加载，每秒最多检查一次检查点
+     */
+    public boolean isFinished() {
+        if (!finished && System.currentTimeMillis() - lastCheckMillis >= 1000) {
+            lastCheckMillis = System.currentTimeMillis();
+            finished = Boolean.TRUE.equals(redisTemplate.opsForHash().hasKey(checkpointKey, "finishedAt"));
+        }
+        return finished;
+    }
+
+    /**
+     * 加载进度：已加载个数、总数、百分比、速度和检查点
+     */
+    public Map<String, Object> progress() {
+        Map<String, Object> progress = new LinkedHashMap<>();
+        long end = finishMillis > 0 ? finishMillis : System.currentTimeMillis();
+        long elapsed = Math.max(1, end - beginMillis);
+        progress.put("running", running);
+        progress.put("loaded", loaded);
+        progress.put("total", total);
+        progress.put("percent", total == 0 ? 100.0 : Math.min(100.0, loaded * 100.0 / total));
+        progress.put("perSecond", beginMillis == 0 ? 0 : (loaded - resumedFrom) * 1000 / elapsed);
+        progress.put("lastId", lastId);
+        progress.put("finished", finished);
+        return progress;
+    }
+}
@@ -0,0 +1,100 @@
+package com.hmdp.utils;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 秒杀相关的Redis key。同一张券的所有key都带上 {voucherId} 哈希标签，
+ * 保证在Redis Cluster中落在同一个slot，秒杀脚本可以在一次调用中原子地操作它们。
+ * 库存分片也在这个slot中：一次调用要在分片之间回退并检查一人一单，只能放在一起，
+ * 所以分片只是拆开了单个库存计数，一张券的请求仍然都落在同一个节点上，不同的券才会分散到各个节点
+ */
+public class SeckillKeys {
+    public static final String DEDUPE_SET = "set";
+    public static final String DEDUPE_BITMAP = "bitmap";
+    public static final String DEDUPE_SHARDED_BITMAP = "sharded-bitmap";
+    /**
+     * 单个位图去重时用户id的上限（不含）：位图按最大偏移量分配内存，2^27位约16MB。
+     * 超出范围的用户id仍然用集合去重，同一个用户总是落在同一个key上
+     */
+    public static final long BITMAP_MAX_USER_ID = 1L << 27;
+
+    private SeckillKeys() {
+    }
+
+    private static String tag(Long voucherId) {
+        return "{" + voucherId + "}";
+    }
+
+    public static String stock(Long voucherId) {
+        return "seckill:" + tag(voucherId) + ":stock";
+    }
+
+    public static String stockShard(Long voucherId, int shard) {
+        return stock(voucherId) + ":" + shard;
+    }
+
+    public static String stockShards(Long voucherId) {
+        return stock(voucherId) + ":shards";
+    }
+
+    /**
+     * 秒杀结束时间（毫秒时间戳），创建秒杀券时与库存一起写入
+     */
+    public static String endTime(Long voucherId) {
+        return "seckill:" + tag(voucherId) + ":end";
+    }
+
+    public static String order(Long voucherId) {
+        return "seckill:" + tag(voucherId) + ":order";
+    }
+
+    public static String orderStream(Long voucherId) {
+        return "stream.orders:" + tag(voucherId);
+    }
+
+    /**
+     * 秒杀脚本的KEYS：库存、买家去重、订单stream，分片时再按尝试顺序附上各分片库存
+     */
+    public static List<String> scriptKeys(Long voucherId, Long userId, int shards,
+                                          String dedupeMode, int segmentBits) {
+        List<String> keys = new ArrayList<>(3 + shards);
+        keys.add(stock(voucherId));
+        // 分片时买家集合也按用户所在分片拆分，同一用户总是落在同一个集合
+        String buyersKey = order(voucherId);
+        int homeShard = shards > 1 ? (int) (userId % shards) : 0;
+        if (shards > 1) {
+            buyersKey = buyersKey + ":" + homeShard;
+        }
+        if (DEDUPE_BITMAP.equals(dedupeMode) && fitsBitmap(userId)) {
+            buyersKey = buyersKey + ":bitmap";
+        } else if (DEDUPE_SHARDED_BITMAP.equals(dedupeMode)) {
+            buyersKey = buyersKey + ":bitmap:" + userId / segmentBits;
+        }
+        keys.add(buyersKey);
+        keys.add(orderStream(voucherId));
+        if (shards > 1) {
+            for (int i = 0; i < shards; i++) {
+                keys.add(stockShard(voucherId, (homeShard + i) % shards));
+            }
+        }
+        return keys;
+    }
+
+    /**
+     * 位图去重时用户在位图中的偏移量，集合去重时为空串
+     */
+    public static String dedupeOffset(Long userId, String dedupeMode, int segmentBits) {
+        if (DEDUPE_BITMAP.equals(dedupeMode) && fitsBitmap(userId)) {
+            return userId.toString();
+        }
+        if (DEDUPE_SHARDED_BITMAP.equals(dedupeMode)) {
+            return String.valueOf(userId % segmentBits);
+        }
+        return "";
+    }
+
+    private static boolean fitsBitmap(Long userId) {
+        return userId >= 0 && userId < BITMAP_MAX_USER_ID;
+    }
+}
@@ -0,0 +1,544 @@
+package com.hmdp.utils;
+
+import com.alibaba.fastjson2.JSON;
+import com.hmdp.dto.ShopFilter;
+import com.hmdp.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.hmdp.utils.RedisConstants.SHOP_FILTER_CHANNEL;
+
+/**
+ * 店铺多条件筛选的进程内位图索引。每个店铺占一个位置号，按类型、商圈、人均价格区间、评分、营业时段（每半小时一段）
+ * 各维护一个 {@link ChunkedBitmap}，筛选时把各条件的位图求交集，再对边界条件（价格区间、营业时间的分钟）逐个确认。
+ * 排序字段（销量按对数分段、评分按分值）也各有一组位图，从最高的一段开始与筛选结果求交集，够一页后只对取到的几段排序。
+ * 启动后流式扫描数据库构建，店铺新增、修改、删除时更新本节点并通过发布订阅通知其他节点；加载完成之前查询返回null
+ */
+@Slf4j
+@Component
+public class ShopFilterIndex implements MessageListener {
+    private static final String PUT = "put:";
+    private static final String REMOVE = "remove:";
+    private static final int PRICE_BUCKETS = 100;
+    private static final int MAX_SCORE = 50;
+    /**
+     * 销量按 log2 分段，每段再按之后的两位分成4小段
+     */
+    private static final int SOLD_BUCKETS = 31 * 4;
+    private static final int SLOT_MINUTES = 30;
+    private static final int SLOTS = 24 * 60 / SLOT_MINUTES;
+    private static final Pattern OPEN_HOURS =
+            Pattern.compile("(\\d{1,2})[:：](\\d{2})\\s*[-~～至到]\\s*(\\d{1,2})[:：](\\d{2})");
+
+    @Resource
+    private StringRedisTemplate redisTemplate;
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+    @Value("${hmdp.search.filter.enabled:true}")
+    private boolean enabled = true;
+    /**
+     * 人均价格分段的宽度，最后一段包含所有更高的价格
+     */
+    @Value("${hmdp.search.filter.price-bucket-width:10}")
+    private long priceBucketWidth = 10;
+
+    /**
+     * 一个店铺参与筛选和排序的字段，修改时整体替换
+     */
+    private static final class Entry {
+        private final long id;
+        private final Long typeId;
+        private final String area;
+        private final Long price;
+        private final int score;
+        private final int sold;
+        /**
+         * 营业时间段，按 [开始分钟, 结束分钟) 成对保存，跨零点的拆成两段
+         */
+        private final int[] openRanges;
+
+        private Entry(Shop shop) {
+            this.id = shop.getId();
+            this.typeId = shop.getTypeId();
+            this.area = shop.getArea();
+            this.price = shop.getAvgPrice();
+            this.score = shop.getScore() == null ? 0 : shop.getScore();
+            this.sold = shop.getSold() == null ? 0 : shop.getSold();
+            this.openRanges = parseOpenHours(shop.getOpenHours());
+        }
+    }
+
+    /**
+     * 一份完整的索引数据，重新加载时整体替换
+     */
+    private static final class Tables {
+        private Entry[] entries = new Entry[1024];
+        private int size;
+        /**
+         * 删除后空出的位置号，新增店铺优先使用
+         */
+        private int[] free = new int[16];
+        private int freeCount;
+        private final Map<Long, Integer> slotOfShop = new HashMap<>();
+        private final ChunkedBitmap all = new ChunkedBitmap();
+        private final Map<Long, ChunkedBitmap> byType = new HashMap<>();
+        private final Map<String, ChunkedBitmap> byArea = new HashMap<>();
+        private final ChunkedBitmap[] byPrice = newBitmaps(PRICE_BUCKETS);
+        private final ChunkedBitmap[] byScore = newBitmaps(MAX_SCORE + 1);
+        private final ChunkedBitmap[] byTime = newBitmaps(SLOTS);
+        private final ChunkedBitmap[] bySold = newBitmaps(SOLD_BUCKETS);
+    }
+
+    private Consumer<Consumer<Shop>> scanner;
+    private volatile Tables tables = new Tables();
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    /**
+     * 加载期间发生的变更，加载完成后重放
+     */
+    private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+    private volatile boolean loading;
+    private volatile boolean ready;
+
+    @PostConstruct
+    private void init() {
+        if (enabled) {
+            listenerContainer.addMessageListener(this, new ChannelTopic(SHOP_FILTER_CHANNEL));
+        }
+    }
+
+    /**
+     * @param scanner 流式扫描数据库中全部店铺的筛选字段
+     */
+    public void register(Consumer<Consumer<Shop>> scanner) {
+        this.scanner = scanner;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (!enabled || scanner == null) {
+            return;
+        }
+        Thread loader = new Thread(() -> rebuild(scanner), "shop-filter-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * 构建新的索引数据后替换，期间的变更先排队，替换后重放
+     */
+    public void rebuild(Consumer<Consumer<Shop>> source) {
+        synchronized (this) {
+            if (loading) {
+                return;
+            }
+            loading = true;
+        }
+        try {
+            long begin = System.currentTimeMillis();
+            Tables built = new Tables();
+            source.accept(shop -> put(built, shop));
+            synchronized (this) {
+                lock.writeLock().lock();
+                try {
+                    tables = built;
+                } finally {
+                    lock.writeLock().unlock();
+                }
+                loading = false;
+                String change;
+                while ((change = pending.poll()) != null) {
+                    apply(change);
+                }
+            }
+            ready = true;
+            log.info("店铺筛选索引加载完成：{}个店铺，耗时{}ms", built.slotOfShop.size(), System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            synchronized (this) {
+                loading = false;
+            }
+            log.error("店铺筛选索引加载失败，筛选查询使用数据库", e);
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 写入或替换一个店铺：先从旧值所在的位图中移除，再加入新值所在的位图，位置号不变
+     */
+    private void put(Tables t, Shop shop) {
+        if (shop.getId() == null) {
+            return;
+        }
+        Integer existing = t.slotOfShop.get(shop.getId());
+        int slot;
+        if (existing != null) {
+            slot = existing;
+            unlink(t, slot);
+        } else if (t.freeCount > 0) {
+            slot = t.free[--t.freeCount];
+        } else {
+            slot = t.size++;
+            if (slot == t.entries.length) {
+                t.entries = Arrays.copyOf(t.entries, t.entries.length * 2);
+            }
+        }
+        Entry entry = new Entry(shop);
+        t.entries[slot] = entry;
+        t.slotOfShop.put(entry.id, slot);
+        t.all.add(slot);
+        if (entry.typeId != null) {
+            t.byType.computeIfAbsent(entry.typeId, k -> new ChunkedBitmap()).add(slot);
+        }
+        if (entry.area != null) {
+            t.byArea.computeIfAbsent(entry.area, k -> new ChunkedBitmap()).add(slot);
+        }
+        if (entry.price != null) {
+            t.byPrice[priceBucket(entry.price)].add(slot);
+        }
+        t.byScore[scoreBucket(entry.score)].add(slot);
+        t.bySold[soldBucket(entry.sold)].add(slot);
+        long slots = timeSlots(entry.openRanges);
+        for (int s = 0; s < SLOTS; s++) {
+            if ((slots & (1L << s)) != 0) {
+                t.byTime[s].add(slot);
+            }
+        }
+    }
+
+    private void remove(Tables t, long id) {
+        Integer slot = t.slotOfShop.remove(id);
+        if (slot == null) {
+            return;
+        }
+        unlink(t, slot);
+        t.entries[slot] = null;
+        if (t.freeCount == t.free.length) {
+            t.free = Arrays.copyOf(t.free, t.free.length * 2);
+        }
+        t.free[t.freeCount++] = slot;
+    }
+
+    /**
+     * 从旧值所在的位图中移除，位图为空时一并删除，避免类型、商圈改名后留下空位图
+     */
+    private void unlink(Tables t, int slot) {
+        Entry old = t.entries[slot];
+        t.all.remove(slot);
+        if (old.typeId != null) {
+            removeFrom(t.byType, old.typeId, slot);
+        }
+        if (old.area != null) {
+            removeFrom(t.byArea, old.area, slot);
+        }
+        if (old.price != null) {
+            t.byPrice[priceBucket(old.price)].remove(slot);
+        }
+        t.byScore[scoreBucket(old.score)].remove(slot);
+        t.bySold[soldBucket(old.sold)].remove(slot);
+        long slots = timeSlots(old.openRanges);
+        for (int s = 0; s < SLOTS; s++) {
+            if ((slots & (1L << s)) != 0) {
+                t.byTime[s].remove(slot);
+            }
+        }
+    }
+
+    private static <K> void removeFrom(Map<K, ChunkedBitmap> bitmaps, K key, int slot) {
+        ChunkedBitmap bitmap = bitmaps.get(key);
+        if (bitmap != null) {
+            bitmap.remove(slot);
+            if (bitmap.isEmpty()) {
+                bitmaps.remove(key);
+            }
+        }
+    }
+
+    /**
+     * 店铺新增或修改后调用，更新本节点并通知其他节点
+     */
+    public void put(Shop shop) {
+        if (!enabled || shop == null || shop.getId() == null) {
+            return;
+        }
+        Shop indexed = new Shop();
+        indexed.setId(shop.getId());
+        indexed.setTypeId(shop.getTypeId());
+        indexed.setArea(shop.getArea());
+        indexed.setAvgPrice(shop.getAvgPrice());
+        indexed.setScore(shop.getScore());
+        indexed.setSold(shop.getSold());
+        indexed.setOpenHours(shop.getOpenHours());
+        publish(PUT + JSON.toJSONString(indexed));
+    }
+
+    public void remove(Long id) {
+        if (enabled && id != null) {
+            publish(REMOVE + id);
+        }
+    }
+
+    private void publish(String change) {
+        submit(change);
+        redisTemplate.convertAndSend(SHOP_FILTER_CHANNEL, change);
+    }
+
+    private synchronized void submit(String change) {
+        if (loading) {
+            pending.add(change);
+        } else {
+            apply(change);
+        }
+    }
+
+    private void apply(String change) {
+        lock.writeLock().lock();
+        try {
+            if (change.startsWith(PUT)) {
+                put(tables, JSON.parseObject(change.substring(PUT.length()), Shop.class));
+            } else if (change.startsWith(REMOVE)) {
+                remove(tables, Long.parseLong(change.substring(REMOVE.length())));
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        submit(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 按条件筛选后排序，返回一页店铺id
+     * @param now 判断营业中使用的时间
+     * @return 索引还没加载完成时返回null
+     */
+    public List<Long> query(ShopFilter filter, LocalTime now, int offset, int limit) {
+        if (!ready) {
+            return null;
+        }
+        lock.readLock().lock();
+        try {
+            Tables t = tables;
+            //1.每个条件取一个位图，任何一个条件没有店铺时直接返回
+            List<ChunkedBitmap> bitmaps = new ArrayList<>();
+            if (filter.getTypeId() != null) {
+                bitmaps.add(t.byType.get(filter.getTypeId()));
+            }
+            if (filter.getArea() != null && !filter.getArea().isEmpty()) {
+                bitmaps.add(t.byArea.get(filter.getArea()));
+            }
+            boolean byPrice = filter.getMinPrice() != null || filter.getMaxPrice() != null;
+            long minPrice = filter.getMinPrice() == null ? 0 : filter.getMinPrice();
+            long maxPrice = filter.getMaxPrice() == null ? Long.MAX_VALUE : filter.getMaxPrice();
+            if (byPrice) {
+                bitmaps.add(union(t.byPrice, priceBucket(minPrice), priceBucket(maxPrice)));
+            }
+            if (filter.getMinScore() != null) {
+                // 评分乘10保存，4.5分即45
+                int minScore = (int) Math.ceil(filter.getMinScore() * 10 - 1e-6);
+                bitmaps.add(union(t.byScore, scoreBucket(minScore), MAX_SCORE));
+            }
+            boolean openNow = Boolean.TRUE.equals(filter.getOpenNow());
+            int minute = now.getHour() * 60 + now.getMinute();
+            if (openNow) {
+                bitmaps.add(t.byTime[minute / SLOT_MINUTES]);
+            }
+            if (bitmaps.contains(null)) {
+                return new ArrayList<>();
+            }
+            if (bitmaps.isEmpty()) {
+                bitmaps.add(t.all);
+            }
+
+            //2.求交集，按排序字段从最高的一段开始取，价格分段和营业时段的边界按原值确认，取够 offset+limit 个后停止
+            ChunkedBitmap matched = ChunkedBitmap.and(bitmaps);
+            boolean byScore = "score".equals(filter.getSortBy());
+            ChunkedBitmap[] rankBuckets = byScore ? t.byScore : t.bySold;
+            int k = offset + limit;
+            List<Entry> collected = new ArrayList<>();
+            for (int i = rankBuckets.length - 1; i >= 0 && collected.size() < k; i--) {
+                if (rankBuckets[i].isEmpty()) {
+                    continue;
+                }
+                // 同一段内的顺序还不确定，整段取完再判断是否够数
+                matched.and(rankBuckets[i]).forEach(slot -> {
+                    Entry entry = t.entries[slot];
+                    if (byPrice && (entry.price < minPrice || entry.price > maxPrice)) {
+                        return;
+                    }
+                    if (openNow && !isOpenAt(entry.openRanges, minute)) {
+                        return;
+                    }
+                    collected.add(entry);
+                });
+            }
+
+            //3.排序后跳过前 offset 个
+            Comparator<Entry> ranking = byScore
+                    ? Comparator.comparingInt((Entry e) -> -e.score).thenComparingInt(e -> -e.sold)
+                    : Comparator.comparingInt((Entry e) -> -e.sold).thenComparingInt(e -> -e.score);
+            collected.sort(ranking.thenComparingLong(e -> e.id));
+            List<Long> ids = new ArrayList<>(limit);
+            for (int i = offset; i < Math.min(k, collected.size()); i++) {
+                ids.add(collected.get(i).id);
+            }
+            return ids;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    private static ChunkedBitmap union(ChunkedBitmap[] buckets, int from, int to) {
+        List<ChunkedBitmap> bitmaps = new ArrayList<>();
+        for (int i = from; i <= to; i++) {
+            if (!buckets[i].isEmpty()) {
+                bitmaps.add(buckets[i]);
+            }
+        }
+        return bitmaps.isEmpty() ? null : ChunkedBitmap.or(bitmaps);
+    }
+
+    private int priceBucket(long price) {
+        return (int) Math.max(0, Math.min(PRICE_BUCKETS - 1, price / priceBucketWidth));
+    }
+
+    private static int scoreBucket(int score) {
+        return Math.max(0, Math.min(MAX_SCORE, score));
+    }
+
+    /**
+     * 销量越高段号越大
+     */
+    private static int soldBucket(int sold) {
+        int v = Math.max(0, sold) + 1;
+        int exponent = 31 - Integer.numberOfLeadingZeros(v);
+        int mantissa = exponent >= 2 ? (v >>> (exponent - 2)) & 3 : 0;
+        return Math.min(SOLD_BUCKETS - 1, exponent * 4 + mantissa);
+    }
+
+    private static ChunkedBitmap[] newBitmaps(int n) {
+        ChunkedBitmap[] bitmaps = new ChunkedBitmap[n];
+        for (int i = 0; i < n; i++) {
+            bitmaps[i] = new ChunkedBitmap();
+        }
+        return bitmaps;
+    }
+
+    /**
+     * 解析营业时间，例如 10:00-22:00、10:00-14:00,17:00-02:00；结束不晚于开始的视为跨零点，无法解析时返回空数组
+     */
+    static int[] parseOpenHours(String openHours) {
+        if (openHours == null) {
+            return new int[0];
+        }
+        int[] ranges = new int[0];
+        Matcher matcher = OPEN_HOURS.matcher(openHours);
+        while (matcher.find()) {
+            int start = Integer.parseInt(matcher.group(1)) * 60 + Integer.parseInt(matcher.group(2));
+            int end = Integer.parseInt(matcher.group(3)) * 60 + Integer.parseInt(matcher.group(4));
+            if (start >= 24 * 60 || end > 24 * 60) {
+                continue;
+            }
+            if (end > start) {
+                ranges = append(ranges, start, end);
+            } else if (end == start) {
+                ranges = append(ranges, 0, 24 * 60);
+            } else {
+                ranges = append(ranges, start, 24 * 60);
+                if (end > 0) {
+                    ranges = append(ranges, 0, end);
+                }
+            }
+        }
+        return ranges;
+    }
+
+    private static int[] append(int[] ranges, int start, int end) {
+        int[] result = Arrays.copyOf(ranges, ranges.length + 2);
+        result[ranges.length] = start;
+        result[ranges.length + 1] = end;
+        return result;
+    }
+
+    /**
+     * 与营业时间有重叠的半小时时段
+     */
+    private static long timeSlots(int[] ranges) {
+        long slots = 0;
+        for (int i = 0; i < ranges.length; i += 2) {
+            for (int s = ranges[i] / SLOT_MINUTES; s <= (ranges[i + 1] - 1) / SLOT_MINUTES; s++) {
+                slots |= 1L << s;
+            }
+        }
+        return slots;
+    }
+
+    private static boolean isOpenAt(int[] ranges, int minute) {
+        for (int i = 0; i < ranges.length; i += 2) {
+            if (minute >= ranges[i] && minute < ranges[i + 1]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 营业时间文本在指定时间是否营业，用于索引加载完成之前的数据库查询
+     */
+    public static boolean isOpenAt(String openHours, LocalTime time) {
+        return isOpenAt(parseOpenHours(openHours), time.getHour() * 60 + time.getMinute());
+    }
+
+    /**
+     * 店铺数、类型数、商圈数和位图占用的字节数
+     */
+    public Map<String, Object> stats() {
+        lock.readLock().lock();
+        try {
+            Tables t = tables;
+            long bytes = t.all.bytes();
+            for (ChunkedBitmap bitmap : t.byType.values()) {
+                bytes += bitmap.bytes();
+            }
+            for (ChunkedBitmap bitmap : t.byArea.values()) {
+                bytes += bitmap.bytes();
+            }
+            for (ChunkedBitmap[] buckets : Arrays.asList(t.byPrice, t.byScore, t.byTime, t.bySold)) {
+                for (ChunkedBitmap bitmap : buckets) {
+                    bytes += bitmap.bytes();
+                }
+            }
+            Map<String, Object> stats = new LinkedHashMap<>();
+            stats.put("ready", ready);
+            stats.put("shops", t.slotOfShop.size());
+            stats.put("types", t.byType.size());
+            stats.put("areas", t.byArea.size());
+            stats.put("bitmapBytes", bytes);
+            return stats;
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+}
@@ -0,0 +1,239 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.function.Consumer;
+
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_CHANNEL;
+
+/**
+ * 每个店铺类型一个进程内地理位置索引，附近店铺查询不再访问Redis。
+ * 启动后流式扫描数据库构建，店铺新增、修改时更新本节点并通过发布订阅通知其他节点；
+ * 加载完成之前查询返回null，由调用方使用Redis GEO
+ */
+@Slf4j
+@Component
+public class ShopGeoIndex implements MessageListener {
+    private static final String PUT = "put:";
+    private static final String REMOVE = "remove:";
+
+    @Resource
+    private StringRedisTemplate redisTemplate;
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+    @Value("${hmdp.geo.local.enabled:true}")
+    private boolean enabled;
+
+    private Consumer<Consumer<Shop>> scanner;
+    private final Map<Long, GeoGrid> grids = new ConcurrentHashMap<>();
+    private final Map<Long, Long> typeOfShop = new ConcurrentHashMap<>();
+    /**
+     * 加载期间发生的变更，加载完成后重放
+     */
+    private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+    private volatile boolean loading;
+    private volatile boolean ready;
+
+    @PostConstruct
+    private void init() {
+        if (enabled) {
+            listenerContainer.addMessageListener(this, new ChannelTopic(SHOP_GEO_CHANNEL));
+        }
+    }
+
+    /**
+     * @param scanner 流式扫描数据库中全部店铺的id、类型和坐标
+     */
+    public void register(Consumer<Consumer<Shop>> scanner) {
+        this.scanner = scanner;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (!enabled || scanner == null) {
+            return;
+        }
+        Thread loader = new Thread(this::build, "shop-geo-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * 每个类型的坐标先读入基本类型数组，再一次性分配到网格中
+     */
+    private static class Buffer {
+        private long[] ids = new long[256];
+        private double[] lons = new double[256];
+        private double[] lats = new double[256];
+        private int size;
+
+        private void add(long id, double lon, double lat) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                lons = Arrays.copyOf(lons, size * 2);
+                lats = Arrays.copyOf(lats, size * 2);
+            }
+            ids[size] = id;
+            lons[size] = lon;
+            lats[size] = lat;
+            size++;
+        }
+    }
+
+    private void build() {
+        try {
+            long begin = System.currentTimeMillis();
+            loading = true;
+            Map<Long, Buffer> buffers = new HashMap<>();
+            Map<Long, Long> types = new HashMap<>();
+            scanner.accept(shop -> {
+                if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+                    return;
+                }
+                buffers.computeIfAbsent(shop.getTypeId(), k -> new Buffer()).add(shop.getId(), shop.getX(), shop.getY());
+                types.put(shop.getId(), shop.getTypeId());
+            });
+            buffers.forEach((typeId, buffer) ->
+                    grids.put(typeId, GeoGrid.build(buffer.ids, buffer.lons, buffer.lats, buffer.size)));
+            typeOfShop.putAll(types);
+            // 重放加载期间的变更，之后的变更直接应用
+            synchronized (this) {
+                loading = false;
+                String change;
+                while ((change = pending.poll()) != null) {
+                    apply(change);
+                }
+            }
+            ready = true;
+            log.info("构建店铺地理位置索引：{}个类型，{}个店铺，耗时{}ms",
+                    buffers.size(), types.size(), System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            loading = false;
+            log.error("店铺地理位置索引加载失败，附近店铺查询使用Redis", e);
+        }
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 店铺新增或修改后调用，修改后坐标或类型为空时从索引中移除，与 {@link ShopGeoLoader#sync} 一致
+     */
+    public void put(Shop shop) {
+        if (!enabled || shop == null || shop.getId() == null) {
+            return;
+        }
+        if (shop.getTypeId() == null || shop.getX() == null || shop.getY() == null) {
+            publish(REMOVE + shop.getId());
+            return;
+        }
+        publish(PUT + shop.getId() + ":" + shop.getTypeId() + ":" + shop.getX() + ":" + shop.getY());
+    }
+
+    /**
+     * 店铺删除后调用
+     */
+    public void remove(Long id) {
+        if (enabled && id != null) {
+            publish(REMOVE + id);
+        }
+    }
+
+    private void publish(String change) {
+        // 先更新本节点，其他节点通过发布订阅更新，本节点收到自己的消息时重复应用不影响结果
+        submit(change);
+        redisTemplate.convertAndSend(SHOP_GEO_CHANNEL, change);
+    }
+
+    private synchronized void submit(String change) {
+        if (loading) {
+            pending.add(change);
+        } else {
+            apply(change);
+        }
+    }
+
+    private void apply(String change) {
+        if (change.startsWith(PUT)) {
+            String[] parts = change.substring(PUT.length()).split(":");
+            long id = Long.parseLong(parts[0]);
+            long typeId = Long.parseLong(parts[1]);
+            Long oldType = typeOfShop.put(id, typeId);
+            if (oldType != null && oldType != typeId) {
+                GeoGrid old = grids.get(oldType);
+                if (old != null) {
+                    old.remove(id);
+                }
+            }
+            grids.computeIfAbsent(typeId, k -> new GeoGrid())
+                    .put(id, Double.parseDouble(parts[2]), Double.parseDouble(parts[3]));
+        } else if (change.startsWith(REMOVE)) {
+            long id = Long.parseLong(change.substring(REMOVE.length()));
+            Long typeId = typeOfShop.remove(id);
+            GeoGrid grid = typeId == null ? null : grids.get(typeId);
+            if (grid != null) {
+                grid.remove(id);
+            }
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        submit(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 半径查询，按距离从近到远返回
+     * @return 索引还没加载完成时返回null
+     */
+    public List<GeoGrid.Hit> within(Long typeId, double x, double y, double radiusMeters, int limit) {
+        if (!ready) {
+            return null;
+        }
+        GeoGrid grid = grids.get(typeId);
+        return grid == null ? new ArrayList<>() : grid.within(x, y, radiusMeters, limit);
+    }
+
+    /**
+     * 距离不超过 maxMeters 的最近k个店铺，按距离从近到远返回
+     * @return 索引还没加载完成时返回null
+     */
+    public List<GeoGrid.Hit> nearest(Long typeId, double x, double y, int k, double maxMeters) {
+        if (!ready) {
+            return null;
+        }
+        GeoGrid grid = grids.get(typeId);
+        return grid == null ? new ArrayList<>() : grid.nearest(x, y, k, maxMeters);
+    }
+
+    /**
+     * 加载状态和每个类型的店铺数
+     */
+    public Map<String, Object> stats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("enabled", enabled);
+        stats.put("ready", ready);
+        stats.put("shops", typeOfShop.size());
+        Map<Long, Integer> types = new TreeMap<>();
+        grids.forEach((typeId, grid) -> types.put(typeId, grid.size()));
+        stats.put("types", types);
+        return stats;
+    }
+}
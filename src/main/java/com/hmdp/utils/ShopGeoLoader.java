@@ -0,0 +1,130 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.geo.Point;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 把店铺坐标写入Redis GEO（shop:geo:类型id）：由 {@link ResumableLoader} 按id顺序流式读取数据库，
+ * 每批按类型分组后用管道批量GEOADD，中断后从检查点继续；GEOADD覆盖写入，重复执行结果相同。
+ * 全量加载只需要执行一次，之后店铺新增、修改、删除时增量同步
+ */
+@Component
+public class ShopGeoLoader {
+    @Resource
+    private StringRedisTemplate redisTemplate;
+    @Resource
+    private RedissonClient redissonClient;
+    @Value("${hmdp.geo.redis.load-on-startup:true}")
+    private boolean loadOnStartup;
+    @Value("${hmdp.geo.redis.batch-size:1000}")
+    private int batchSize;
+    @Value("${hmdp.geo.redis.progress-interval-seconds:10}")
+    private long progressIntervalSeconds;
+
+    private ResumableLoader<Shop> loader;
+
+    @PostConstruct
+    private void init() {
+        loader = new ResumableLoader<>("店铺坐标", SHOP_GEO_LOAD_KEY, LOCK_SHOP_GEO_LOAD_KEY,
+                redisTemplate, redissonClient, batchSize, progressIntervalSeconds, Shop::getId, this::write);
+    }
+
+    /**
+     * @param scanner 按id顺序流式读取id大于第一个参数的店铺
+     * @param counter 店铺总数，用于计算进度
+     */
+    public void register(BiConsumer<Long, Consumer<Shop>> scanner, LongSupplier counter) {
+        loader.register(scanner, counter);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        if (loadOnStartup) {
+            startLoad(false);
+        }
+    }
+
+    /**
+     * 在后台线程中全量加载，进度通过 {@link #progress()} 查看
+     */
+    public void startLoad(boolean restart) {
+        loader.startLoad(restart);
+    }
+
+    /**
+     * 全量加载，所有节点同时只有一个在执行
+     * @param restart 忽略检查点，从头重新加载
+     * @return 是否执行了加载，已经加载完成或其他节点正在加载时返回false
+     */
+    public boolean load(boolean restart) {
+        return loader.load(restart);
+    }
+
+    /**
+     * 按类型分组，一个管道中写入所有类型的坐标，没有坐标的店铺跳过
+     */
+    private void write(List<Shop> batch) {
+        Map<Long, List<RedisGeoCommands.GeoLocation<String>>> byType = new HashMap<>();
+        for (Shop shop : batch) {
+            if (shop.getTypeId() != null && shop.getX() != null && shop.getY() != null) {
+                byType.computeIfAbsent(shop.getTypeId(), k -> new ArrayList<>())
+                        .add(new RedisGeoCommands.GeoLocation<>(shop.getId().toString(), new Point(shop.getX(), shop.getY())));
+            }
+        }
+        if (byType.isEmpty()) {
+            return;
+        }
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            byType.forEach((typeId, locations) -> conn.geoAdd(SHOP_GEO_KEY + typeId, locations));
+            return null;
+        });
+    }
+
+    /**
+     * 店铺新增、修改、删除后同步Redis GEO：类型变化或删除时从旧类型中移除，新坐标覆盖写入
+     * @param old 修改前的店铺，新增时为null
+     * @param updated 修改后的店铺，删除时为null
+     */
+    public void sync(Shop old, Shop updated) {
+        boolean hasLocation = updated != null && updated.getTypeId() != null
+                && updated.getX() != null && updated.getY() != null;
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            if (old != null && old.getTypeId() != null
+                    && (!hasLocation || !old.getTypeId().equals(updated.getTypeId()))) {
+                conn.zRem(SHOP_GEO_KEY + old.getTypeId(), old.getId().toString());
+            }
+            if (hasLocation) {
+                conn.geoAdd(SHOP_GEO_KEY + updated.getTypeId(), new Point(updated.getX(), updated.getY()),
+                        updated.getId().toString());
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 加载进度：已加载个数、总数、百分比、速度和检查点
+     */
+    public Map<String, Object> progress() {
+        return loader.progress();
+    }
+}
@@ -0,0 +1,498 @@
+package com.hmdp.utils;
+
+import com.alibaba.fastjson2.JSON;
+import com.hmdp.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import static com.hmdp.utils.RedisConstants.SHOP_NAME_CHANNEL;
+
+/**
+ * 店铺名称和商圈的字符二元组倒排索引，代替 like '%name%' 全表扫描。
+ * 每个单字、相邻两个字、名称的首字各对应一个压缩倒排列表，查询时对关键字的词项求交集，再用原文确认。
+ * 构建时文档号按销量从高到低分配，查询按文档号顺序扫描，取满一页后遇到销量更低的文档即可停止；
+ * 店铺修改时旧文档标记删除、新文档追加到末尾，末尾部分每次查询全部扫描，超过一定比例后在内存中重新整理
+ */
+@Slf4j
+@Component
+public class ShopNameIndex implements MessageListener {
+    private static final String PUT = "put:";
+    private static final String REMOVE = "remove:";
+    /**
+     * 名称首字词项的前导字符，不会出现在正常文本中
+     */
+    private static final char START = '\u0002';
+
+    @Resource
+    private StringRedisTemplate redisTemplate;
+    @Resource
+    private RedisMessageListenerContainer listenerContainer;
+    @Value("${hmdp.search.name-index.enabled:true}")
+    private boolean enabled = true;
+    /**
+     * 末尾追加的文档超过排好序部分的这个比例时重新整理
+     */
+    @Value("${hmdp.search.name-index.compact-ratio:0.2}")
+    private double compactRatio = 0.2;
+
+    /**
+     * 一个店铺的一个版本，修改后旧版本标记删除
+     */
+    private static final class Doc {
+        private final long id;
+        private final String name;
+        private final String area;
+        private final String normalizedName;
+        private final String normalizedArea;
+        private final int sold;
+        private volatile boolean deleted;
+
+        private Doc(long id, String name, String area, int sold) {
+            this.id = id;
+            this.name = name;
+            this.area = area;
+            this.normalizedName = normalize(name);
+            this.normalizedArea = normalize(area);
+            this.sold = sold;
+        }
+
+        private boolean sameAs(Doc other) {
+            return Objects.equals(name, other.name) && Objects.equals(area, other.area) && sold == other.sold;
+        }
+    }
+
+    /**
+     * 查询结果：店铺id、名称和商圈
+     */
+    public static final class Match {
+        private final long id;
+        private final String name;
+        private final String area;
+
+        private Match(long id, String name, String area) {
+            this.id = id;
+            this.name = name;
+            this.area = area;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public String getArea() {
+            return area;
+        }
+    }
+
+    /**
+     * 一份完整的索引数据，重新整理时整体替换
+     */
+    private static final class Segment {
+        private volatile Doc[] docs = new Doc[1024];
+        private volatile int docCount;
+        /**
+         * [0, sortedEnd) 的文档按销量从高到低排列，之后是追加的文档
+         */
+        private volatile int sortedEnd;
+        private final Map<Long, PostingList> postings = new ConcurrentHashMap<>();
+        private final Map<Long, Integer> docOfShop = new ConcurrentHashMap<>();
+        private long[] termBuffer = new long[64];
+    }
+
+    private Consumer<Consumer<Shop>> scanner;
+    private volatile Segment segment = new Segment();
+    private final Queue<String> pending = new ConcurrentLinkedQueue<>();
+    private final AtomicBoolean compacting = new AtomicBoolean();
+    private volatile boolean loading;
+    private volatile boolean ready;
+
+    @PostConstruct
+    private void init() {
+        if (enabled) {
+            listenerContainer.addMessageListener(this, new ChannelTopic(SHOP_NAME_CHANNEL));
+        }
+    }
+
+    /**
+     * @param scanner 按销量从高到低流式扫描数据库中全部店铺的id、名称、商圈和销量
+     */
+    public void register(Consumer<Consumer<Shop>> scanner) {
+        this.scanner = scanner;
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void load() {
+        if (!enabled || scanner == null) {
+            return;
+        }
+        Thread loader = new Thread(() -> rebuild(scanner, "数据库"), "shop-name-loader");
+        loader.setDaemon(true);
+        loader.start();
+    }
+
+    /**
+     * 构建新的索引数据后替换，期间的变更先排队，替换后重放
+     * @param source 按销量从高到低提供全部店铺
+     */
+    public void rebuild(Consumer<Consumer<Shop>> source, String from) {
+        synchronized (this) {
+            if (loading) {
+                return;
+            }
+            loading = true;
+        }
+        build(source, from);
+    }
+
+    private void build(Consumer<Consumer<Shop>> source, String from) {
+        try {
+            long begin = System.currentTimeMillis();
+            Segment built = new Segment();
+            source.accept(shop -> add(built, shop));
+            built.sortedEnd = built.docCount;
+            synchronized (this) {
+                segment = built;
+                loading = false;
+                String change;
+                while ((change = pending.poll()) != null) {
+                    apply(change);
+                }
+            }
+            ready = true;
+            log.info("从{}构建店铺名称索引：{}个店铺，{}个词项，耗时{}ms",
+                    from, built.docOfShop.size(), built.postings.size(), System.currentTimeMillis() - begin);
+        } catch (Exception e) {
+            synchronized (this) {
+                loading = false;
+            }
+            log.error("店铺名称索引构建失败，名称查询使用数据库", e);
+        }
+    }
+
+    /**
+     * 用内存中的有效文档按销量重新排序构建，清除已删除的旧版本
+     */
+    private void compact() {
+        // 取快照和开始排队在同一把锁内，快照之后的变更都会在替换后重放
+        List<Doc> live;
+        synchronized (this) {
+            if (loading) {
+                return;
+            }
+            loading = true;
+            Segment current = segment;
+            int count = current.docCount;
+            Doc[] docs = current.docs;
+            live = new ArrayList<>(current.docOfShop.size());
+            for (int i = 0; i < count; i++) {
+                if (!docs[i].deleted) {
+                    live.add(docs[i]);
+                }
+            }
+        }
+        live.sort(Comparator.comparingInt((Doc d) -> -d.sold).thenComparingLong(d -> d.id));
+        build(consumer -> live.forEach(doc -> {
+            Shop shop = new Shop();
+            shop.setId(doc.id);
+            shop.setName(doc.name);
+            shop.setArea(doc.area);
+            shop.setSold(doc.sold);
+            consumer.accept(shop);
+        }), "内存");
+    }
+
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * 追加一个文档，内容没有变化（例如收到自己发出的通知）时不产生新版本
+     */
+    private static void add(Segment seg, Shop shop) {
+        if (shop.getId() == null) {
+            return;
+        }
+        Doc doc = new Doc(shop.getId(), shop.getName(), shop.getArea(), shop.getSold() == null ? 0 : shop.getSold());
+        Integer old = seg.docOfShop.get(shop.getId());
+        if (old != null) {
+            Doc current = seg.docs[old];
+            if (current.sameAs(doc)) {
+                return;
+            }
+            current.deleted = true;
+        }
+        int docId = seg.docCount;
+        Doc[] array = seg.docs;
+        if (docId == array.length) {
+            array = Arrays.copyOf(array, array.length * 2);
+        }
+        array[docId] = doc;
+        seg.docs = array;
+        // 同一个文档中重复的词项只记录一次
+        int n = collectTerms(seg, doc);
+        long[] terms = seg.termBuffer;
+        Arrays.sort(terms, 0, n);
+        for (int i = 0; i < n; i++) {
+            if (i == 0 || terms[i] != terms[i - 1]) {
+                seg.postings.computeIfAbsent(terms[i], k -> new PostingList()).add(docId);
+            }
+        }
+        seg.docOfShop.put(shop.getId(), docId);
+        seg.docCount = docId + 1;
+    }
+
+    private static int collectTerms(Segment seg, Doc doc) {
+        int size = 2 * (doc.normalizedName.length() + doc.normalizedArea.length()) + 1;
+        if (seg.termBuffer.length < size) {
+            seg.termBuffer = new long[size * 2];
+        }
+        long[] terms = seg.termBuffer;
+        int n = 0;
+        if (!doc.normalizedName.isEmpty()) {
+            terms[n++] = bigram(START, doc.normalizedName.charAt(0));
+        }
+        n = collectTerms(doc.normalizedName, terms, n);
+        return collectTerms(doc.normalizedArea, terms, n);
+    }
+
+    private static int collectTerms(String text, long[] terms, int n) {
+        for (int i = 0; i < text.length(); i++) {
+            terms[n++] = text.charAt(i);
+            if (i + 1 < text.length()) {
+                terms[n++] = bigram(text.charAt(i), text.charAt(i + 1));
+            }
+        }
+        return n;
+    }
+
+    /**
+     * 店铺新增或修改后调用，更新本节点并通知其他节点
+     */
+    public void put(Shop shop) {
+        if (!enabled || shop == null || shop.getId() == null) {
+            return;
+        }
+        Shop indexed = new Shop();
+        indexed.setId(shop.getId());
+        indexed.setName(shop.getName());
+        indexed.setArea(shop.getArea());
+        indexed.setSold(shop.getSold());
+        publish(PUT + JSON.toJSONString(indexed));
+    }
+
+    public void remove(Long id) {
+        if (enabled && id != null) {
+            publish(REMOVE + id);
+        }
+    }
+
+    private void publish(String change) {
+        submit(change);
+        redisTemplate.convertAndSend(SHOP_NAME_CHANNEL, change);
+    }
+
+    private synchronized void submit(String change) {
+        if (loading) {
+            pending.add(change);
+        } else {
+            apply(change);
+        }
+    }
+
+    private void apply(String change) {
+        Segment seg = segment;
+        if (change.startsWith(PUT)) {
+            add(seg, JSON.parseObject(change.substring(PUT.length()), Shop.class));
+        } else if (change.startsWith(REMOVE)) {
+            Integer docId = seg.docOfShop.remove(Long.parseLong(change.substring(REMOVE.length())));
+            if (docId != null) {
+                seg.docs[docId].deleted = true;
+            }
+        }
+        // 追加的文档太多时每次查询要全部扫描的部分变长，在后台重新整理
+        if (ready && seg.docCount - seg.sortedEnd > Math.max(1000, seg.sortedEnd * compactRatio)
+                && compacting.compareAndSet(false, true)) {
+            Thread compactor = new Thread(() -> {
+                try {
+                    compact();
+                } finally {
+                    compacting.set(false);
+                }
+            }, "shop-name-compactor");
+            compactor.setDaemon(true);
+            compactor.start();
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        submit(new String(message.getBody(), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * 名称前缀联想，按销量从高到低排列
+     */
+    public List<Match> suggest(String prefix, int limit) {
+        String q = normalize(prefix);
+        if (q.isEmpty()) {
+            return new ArrayList<>();
+        }
+        // 加上首字词项，只有名称以关键字的第一个字开头的店铺参与求交集
+        long[] terms = queryTerms(q);
+        long[] withStart = Arrays.copyOf(terms, terms.length + 1);
+        withStart[terms.length] = bigram(START, q.charAt(0));
+        return top(withStart, 0, limit, doc -> doc.normalizedName.startsWith(q));
+    }
+
+    /**
+     * 名称或商圈包含关键字的店铺，按销量从高到低排列
+     */
+    public List<Match> search(String keyword, int offset, int limit) {
+        String q = normalize(keyword);
+        if (q.isEmpty()) {
+            return new ArrayList<>();
+        }
+        return top(queryTerms(q), offset, limit,
+                doc -> doc.normalizedName.contains(q) || doc.normalizedArea.contains(q));
+    }
+
+    @FunctionalInterface
+    private interface Verifier {
+        boolean matches(Doc doc);
+    }
+
+    private List<Match> top(long[] terms, int offset, int limit, Verifier verifier) {
+        if (limit <= 0) {
+            return new ArrayList<>();
+        }
+        Segment seg = segment;
+        // 1.先取倒排列表再取文档数组，列表中的文档一定在数组中；任何一个词项不存在都说明没有结果
+        PostingList[] lists = new PostingList[terms.length];
+        for (int i = 0; i < terms.length; i++) {
+            lists[i] = seg.postings.get(terms[i]);
+            if (lists[i] == null) {
+                return new ArrayList<>();
+            }
+        }
+        Arrays.sort(lists, Comparator.comparingInt(PostingList::count));
+        PostingList.Cursor[] cursors = new PostingList.Cursor[lists.length];
+        for (int i = 0; i < lists.length; i++) {
+            cursors[i] = lists[i].cursor();
+        }
+        int sortedEnd = seg.sortedEnd;
+        Doc[] docs = seg.docs;
+        int k = offset + limit;
+
+        // 2.从最短的列表开始求交集；大顶堆保留销量最高的k个，堆顶是其中最差的
+        Comparator<Doc> order = Comparator.comparingInt((Doc d) -> -d.sold).thenComparingLong(d -> d.id);
+        PriorityQueue<Doc> heap = new PriorityQueue<>(Math.min(k + 1, lists[0].count() + 1), order.reversed());
+        int candidate = cursors[0].next();
+        outer:
+        while (candidate >= 0) {
+            // 排好序的部分中之后的文档销量不会更高，堆已满时直接跳到追加的部分
+            if (candidate < sortedEnd && heap.size() == k && docs[candidate].sold < heap.peek().sold) {
+                if (sortedEnd >= cursors[0].last()) {
+                    break;
+                }
+                candidate = cursors[0].advance(sortedEnd);
+                continue;
+            }
+            for (int i = 1; i < cursors.length; i++) {
+                int found = cursors[i].advance(candidate);
+                if (found < 0) {
+                    break outer;
+                }
+                if (found > candidate) {
+                    candidate = cursors[0].advance(found);
+                    continue outer;
+                }
+            }
+            // 3.词项都出现不代表连续出现，用原文确认
+            Doc doc = docs[candidate];
+            if (!doc.deleted && verifier.matches(doc)) {
+                heap.offer(doc);
+                if (heap.size() > k) {
+                    heap.poll();
+                }
+            }
+            candidate = cursors[0].next();
+        }
+        List<Doc> ranked = new ArrayList<>(heap);
+        ranked.sort(order);
+        List<Match> matches = new ArrayList<>(Math.max(0, ranked.size() - offset));
+        for (int i = offset; i < ranked.size(); i++) {
+            Doc doc = ranked.get(i);
+            matches.add(new Match(doc.id, doc.name, doc.area));
+        }
+        return matches;
+    }
+
+    /**
+     * 查询词项：单字查询用单字，否则用全部相邻二元组
+     */
+    private static long[] queryTerms(String q) {
+        if (q.length() == 1) {
+            return new long[]{q.charAt(0)};
+        }
+        long[] terms = new long[q.length() - 1];
+        for (int i = 0; i + 1 < q.length(); i++) {
+            terms[i] = bigram(q.charAt(i), q.charAt(i + 1));
+        }
+        return terms;
+    }
+
+    /**
+     * 二元组编码：第一个字加1后放在高位，单字的高位为0，不会与二元组冲突
+     */
+    private static long bigram(char first, char second) {
+        return ((long) (first + 1) << 16) | second;
+    }
+
+    private static String normalize(String text) {
+        return text == null ? "" : text.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * 文档数、已删除文档数、词项个数和倒排列表压缩后的字节数
+     */
+    public Map<String, Object> stats() {
+        Segment seg = segment;
+        Map<String, Object> stats = new LinkedHashMap<>();
+        long bytes = 0;
+        long entries = 0;
+        for (PostingList list : seg.postings.values()) {
+            bytes += list.bytes();
+            entries += list.count();
+        }
+        stats.put("ready", ready);
+        stats.put("shops", seg.docOfShop.size());
+        stats.put("docs", seg.docCount);
+        stats.put("sortedDocs", seg.sortedEnd);
+        stats.put("deletedDocs", seg.docCount - seg.docOfShop.size());
+        stats.put("terms", seg.postings.size());
+        stats.put("postings", entries);
+        stats.put("postingBytes", bytes);
+        return stats;
+    }
+}
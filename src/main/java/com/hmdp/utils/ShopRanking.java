@@ -0,0 +1,261 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import lombok.extern.slf4j.Slf4j;
+import org.redisson.api.RedissonClient;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.Resource;
+import java.util.*;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.LongSupplier;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+/**
+ * 每个店铺类型按销量、评分、评论数各维护一个排行榜（shop:rank:排序字段:类型id），按类型浏览店铺时不再查询数据库。
+ * 分数由排序值和店铺id拼成一个整数：排序值在高位，id取反后在低位，同值的店铺按id从小到大排列，每个分数都不相同，
+ * 翻页时以上一页最后一个分数为游标，用 ZREVRANGEBYSCORE 取严格小于游标的部分，不需要偏移量。
+ * 全量加载与 {@link ShopGeoLoader} 共用 {@link ResumableLoader}：按id顺序流式读取，管道批量写入，每批记录检查点；之后店铺新增、修改、删除时增量同步。
+ * id超过 {@link #MAX_ID} 的店铺不加入排行榜
+ */
+@Slf4j
+@Component
+public class ShopRanking {
+    /**
+     * 分数低位保存id的位数；排序值占剩下的位数，两者之和不超过double能精确表示的53位
+     */
+    private static final int ID_BITS = 28;
+    /**
+     * 能放进排行榜的最大店铺id
+     */
+    static final long MAX_ID = (1L << ID_BITS) - 1;
+    private static final long MAX_VALUE = (1L << (53 - ID_BITS)) - 1;
+
+    /**
+     * 排序字段
+     */
+    public enum Order {
+        SOLD("sold", Shop::getSold),
+        SCORE("score", Shop::getScore),
+        COMMENTS("comments", Shop::getComments);
+
+        private final String field;
+        private final Function<Shop, Integer> getter;
+
+        Order(String field, Function<Shop, Integer> getter) {
+            this.field = field;
+            this.getter = getter;
+        }
+
+        /**
+         * @return 不认识的排序字段返回null
+         */
+        public static Order of(String field) {
+            for (Order order : values()) {
+                if (order.field.equals(field)) {
+                    return order;
+                }
+            }
+            return null;
+        }
+
+        public String key(Object typeId) {
+            return SHOP_RANK_KEY + field + ":" + typeId;
+        }
+    }
+
+    /**
+     * 一页排行：店铺id和最后一个分数，没有下一页时游标为null
+     */
+    public static final class Page {
+        private final List<Long> ids;
+        private final Long cursor;
+
+        private Page(List<Long> ids, Long cursor) {
+            this.ids = ids;
+            this.cursor = cursor;
+        }
+
+        public List<Long> getIds() {
+            return ids;
+        }
+
+        public Long getCursor() {
+            return cursor;
+        }
+    }
+
+    @Resource
+    private StringRedisTemplate redisTemplate;
+    @Resource
+    private RedissonClient redissonClient;
+    @Value("${hmdp.search.rank.load-on-startup:true}")
+    private boolean loadOnStartup;
+    @Value("${hmdp.search.rank.batch-size:1000}")
+    private int batchSize;
+
+    @Value("${hmdp.search.rank.progress-interval-seconds:10}")
+    private long progressIntervalSeconds;
+
+    private ResumableLoader<Shop> loader;
+
+    @PostConstruct
+    private void init() {
+        loader = new ResumableLoader<>("店铺排行榜", SHOP_RANK_LOAD_KEY, LOCK_SHOP_RANK_LOAD_KEY,
+                redisTemplate, redissonClient, batchSize, progressIntervalSeconds, Shop::getId, this::write);
+    }
+
+    /**
+     * @param scanner 按id顺序流式读取id大于第一个参数的店铺
+     * @param counter 店铺总数，用于计算进度
+     */
+    public void register(BiConsumer<Long, Consumer<Shop>> scanner, LongSupplier counter) {
+        loader.register(scanner, counter);
+    }
+
+    @EventListener(ApplicationReadyEvent.class)
+    public void loadOnStartup() {
+        if (loadOnStartup) {
+            startLoad(false);
+        }
+    }
+
+    public void startLoad(boolean restart) {
+        loader.startLoad(restart);
+    }
+
+    /**
+     * 全量加载，所有节点同时只有一个在执行
+     * @param restart 忽略检查点，从头重新加载
+     * @return 是否执行了加载，已经加载完成或其他节点正在加载时返回false
+     */
+    public boolean load(boolean restart) {
+        return loader.load(restart);
+    }
+
+    /**
+     * 一个管道中写入一批店铺的全部排行
+     */
+    private void write(List<Shop> batch) {
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            for (Shop shop : batch) {
+                add(conn, shop);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 超过 {@link #MAX_ID} 的id放不进分数的低位，会与其他店铺的分数重复，不加入排行榜
+     */
+    private static void add(StringRedisConnection conn, Shop shop) {
+        if (shop.getTypeId() == null) {
+            return;
+        }
+        if (shop.getId() > MAX_ID) {
+            log.warn("店铺id {} 超过排行榜能容纳的上限 {}，不加入排行榜", shop.getId(), MAX_ID);
+            return;
+        }
+        String member = shop.getId().toString();
+        for (Order order : Order.values()) {
+            conn.zAdd(order.key(shop.getTypeId()), scoreOf(order.getter.apply(shop), shop.getId()), member);
+        }
+    }
+
+    /**
+     * 店铺新增、修改、删除后同步排行榜：类型变化或删除时从旧类型中移除，新的排序值覆盖写入
+     * @param old 修改前的店铺，新增时为null
+     * @param updated 修改后的店铺，删除时为null
+     */
+    public void sync(Shop old, Shop updated) {
+        redisTemplate.executePipelined((RedisCallback<Object>) connection -> {
+            StringRedisConnection conn = (StringRedisConnection) connection;
+            if (old != null && old.getTypeId() != null
+                    && (updated == null || !old.getTypeId().equals(updated.getTypeId()))) {
+                for (Order order : Order.values()) {
+                    conn.zRem(order.key(old.getTypeId()), old.getId().toString());
+                }
+            }
+            if (updated != null) {
+                add(conn, updated);
+            }
+            return null;
+        });
+    }
+
+    /**
+     * 排序值在高位，超过上限的按上限计算；id取反后在低位，同值时id小的分数大
+     * @throws IllegalArgumentException id超过 {@link #MAX_ID}
+     */
+    static double scoreOf(Integer value, long id) {
+        if (id < 0 || id > MAX_ID) {
+            throw new IllegalArgumentException("店铺id超出排行榜范围：" + id);
+        }
+        long v = value == null ? 0 : Math.max(0, Math.min(MAX_VALUE, value));
+        return (double) ((v << ID_BITS) | (MAX_ID - id));
+    }
+
+    /**
+     * 排行榜全量加载完成后才能代替数据库查询
+     */
+    public boolean isReady() {
+        return loader.isFinished();
+    }
+
+    /**
+     * 按游标取一页，多取一个判断是否还有下一页
+     * @param cursor 上一页返回的游标，第一页为null
+     */
+    public Page page(Order order, Object typeId, Long cursor, int limit) {
+        double max = cursor == null ? Double.POSITIVE_INFINITY : cursor - 1;
+        Set<ZSetOperations.TypedTuple<String>> tuples = redisTemplate.opsForZSet()
+                .reverseRangeByScoreWithScores(order.key(typeId), 0, max, 0, limit + 1);
+        return toPage(tuples, limit);
+    }
+
+    /**
+     * 按排名取一页，用于兼容按页码浏览
+     */
+    public Page range(Order order, Object typeId, long from, int limit) {
+        Set<ZSetOperations.TypedTuple<String>> tuples = redisTemplate.opsForZSet()
+                .reverseRangeWithScores(order.key(typeId), from, from + limit);
+        return toPage(tuples, limit);
+    }
+
+    private static Page toPage(Set<ZSetOperations.TypedTuple<String>> tuples, int limit) {
+        List<Long> ids = new ArrayList<>(limit);
+        Long next = null;
+        if (tuples != null) {
+            for (ZSetOperations.TypedTuple<String> tuple : tuples) {
+                if (ids.size() == limit) {
+                    break;
+                }
+                ids.add(Long.valueOf(tuple.getValue()));
+                next = tuple.getScore().longValue();
+            }
+            if (tuples.size() <= limit) {
+                next = null;
+            }
+        }
+        return new Page(ids, next);
+    }
+
+    /**
+     * 加载进度
+     */
+    public Map<String, Object> progress() {
+        return loader.progress();
+    }
+}
@@ -0,0 +1,66 @@
+package com.hmdp.utils;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Supplier;
+
+/**
+ * 进程内请求合并：同一个key同一时刻只有一个线程执行加载，其他线程等待它的结果；
+ * 等待超过 wait-millis 仍没有结果时自己加载，避免加载线程卡住时拖住所有请求
+ */
+@Component
+public class SingleFlight {
+    @Value("${hmdp.cache.single-flight.enabled:true}")
+    private boolean enabled = true;
+    @Value("${hmdp.cache.single-flight.wait-millis:3000}")
+    private long waitMillis = 3000;
+
+    private final Map<String, CompletableFuture<Object>> inFlight = new ConcurrentHashMap<>();
+
+    @SuppressWarnings("unchecked")
+    public <T> T execute(String key, Supplier<T> loader) {
+        if (!enabled) {
+            return loader.get();
+        }
+        CompletableFuture<Object> future = new CompletableFuture<>();
+        CompletableFuture<Object> running = inFlight.putIfAbsent(key, future);
+        if (running != null) {
+            // 已经有线程在加载，等待它的结果
+            try {
+                return (T) running.get(waitMillis, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                return loader.get();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("等待加载结果时被中断：" + key, e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RuntimeException) {
+                    throw (RuntimeException) cause;
+                }
+                if (cause instanceof Error) {
+                    throw (Error) cause;
+                }
+                throw new IllegalStateException(cause);
+            }
+        }
+        try {
+            T value = loader.get();
+            future.complete(value);
+            return value;
+        } catch (Throwable e) {
+            // Error 也要通知等待者，否则它们一直等到超时
+            future.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(key, future);
+        }
+    }
+}
@@ -0,0 +1,114 @@
+package com.hmdp.utils;
+
+import lombok.RequiredArgsConstructor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.data.redis.connection.Message;
+import org.springframework.data.redis.connection.MessageListener;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.data.redis.listener.ChannelTopic;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_CHANNEL;
+import static com.hmdp.utils.RedisConstants.SECKILL_SOLD_OUT_KEY;
+
+/**
+ * 本地售罄登记表，秒杀券售罄后直接在JVM内拒绝请求，不再访问Redis。
+ * 售罄标记记录在Redis有序集合中，分数为秒杀结束时间，供新节点启动时加载，并通过发布订阅同步到所有节点；
+ * 秒杀结束后标记自动失效，库存归还时清除标记
+ */
+@Slf4j
+@Component
+@RequiredArgsConstructor
+public class SoldOutRegistry implements MessageListener {
+    private static final String SOLD_OUT = "soldout:";
+    private static final String RESTOCK = "restock:";
+    /**
+     * 没有结束时间或已经结束的券，售罄标记保留的时间
+     */
+    private static final long DEFAULT_TTL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+    private final StringRedisTemplate redisTemplate;
+    private final RedisMessageListenerContainer listenerContainer;
+
+    /**
+     * 售罄的券id -> 标记失效的时间
+     */
+    private final Map<Long, Long> soldOutVouchers = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        listenerContainer.addMessageListener(this, new ChannelTopic(SECKILL_SOLD_OUT_CHANNEL));
+        long now = System.currentTimeMillis();
+        // 顺便清理已经结束的券
+        redisTemplate.opsForZSet().removeRangeByScore(SECKILL_SOLD_OUT_KEY, 0, now);
+        Set<ZSetOperations.TypedTuple<String>> members = redisTemplate.opsForZSet()
+                .rangeByScoreWithScores(SECKILL_SOLD_OUT_KEY, now, Double.POSITIVE_INFINITY);
+        if (members != null) {
+            members.forEach(tuple -> soldOutVouchers.put(Long.valueOf(tuple.getValue()), tuple.getScore().longValue()));
+        }
+    }
+
+    public boolean isSoldOut(Long voucherId) {
+        Long expireAt = soldOutVouchers.get(voucherId);
+        if (expireAt == null) {
+            return false;
+        }
+        if (expireAt <= System.currentTimeMillis()) {
+            soldOutVouchers.remove(voucherId, expireAt);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param endMillis 秒杀结束时间的毫秒时间戳，标记在这之后失效；不知道结束时间时传0
+     */
+    public void markSoldOut(Long voucherId, long endMillis) {
+        // 本节点已经标记过，说明已经广播过了
+        if (isSoldOut(voucherId)) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        long expireAt = endMillis;
+        if (expireAt <= now) {
+            expireAt = now + DEFAULT_TTL_MILLIS;
+        }
+        soldOutVouchers.put(voucherId, expireAt);
+        redisTemplate.opsForZSet().add(SECKILL_SOLD_OUT_KEY, voucherId.toString(), expireAt);
+        redisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, SOLD_OUT + voucherId + ":" + expireAt);
+    }
+
+    /**
+     * 库存归还后清除售罄标记，通知所有节点
+     */
+    public void clearSoldOut(Long voucherId) {
+        Long removed = redisTemplate.opsForZSet().remove(SECKILL_SOLD_OUT_KEY, voucherId.toString());
+        boolean local = soldOutVouchers.remove(voucherId) != null;
+        if ((removed != null && removed > 0) || local) {
+            redisTemplate.convertAndSend(SECKILL_SOLD_OUT_CHANNEL, RESTOCK + voucherId);
+        }
+    }
+
+    @Override
+    public void onMessage(Message message, byte[] pattern) {
+        String body = new String(message.getBody(), StandardCharsets.UTF_8);
+        if (body.startsWith(SOLD_OUT)) {
+            String[] parts = body.substring(SOLD_OUT.length()).split(":");
+            log.debug("秒杀券已售罄：{}", parts[0]);
+            soldOutVouchers.put(Long.valueOf(parts[0]), Long.valueOf(parts[1]));
+        } else if (body.startsWith(RESTOCK)) {
+            String voucherId = body.substring(RESTOCK.length());
+            log.debug("秒杀券库存已归还：{}", voucherId);
+            soldOutVouchers.remove(Long.valueOf(voucherId));
+        }
+    }
+}
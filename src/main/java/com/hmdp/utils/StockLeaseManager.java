@@ -0,0 +1,221 @@
+package com.hmdp.utils;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import javax.annotation.Resource;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 秒杀库存本地租约：每个节点按块从Redis租借库存，在本地原子计数器上扣减，
+ * 本地用完才再次访问Redis；租约过期或节点关闭时把未售出的库存归还Redis。
+ * 一人一单在本地去重，跨节点的重复请求由订单落库时的去重兜底，被剔除的订单占用的库存再归还Redis。
+ * 租约过期后整体回收，本地只保留正在销售的券；每个租约记录的买家数有上限，超出的部分同样由落库去重兜底
+ */
+@Slf4j
+@Component
+public class StockLeaseManager {
+    public static final int SUCCESS = 0;
+    public static final int SOLD_OUT = 1;
+    public static final int DUPLICATE = 2;
+
+    private static final DefaultRedisScript<Long> STOCK_LEASE_SCRIPT;
+
+    static {
+        STOCK_LEASE_SCRIPT = new DefaultRedisScript<>();
+        STOCK_LEASE_SCRIPT.setLocation(new ClassPathResource("stockLease.lua"));
+        STOCK_LEASE_SCRIPT.setResultType(Long.class);
+    }
+
+    @Resource
+    private StringRedisTemplate redisTemplate;
+    @Resource
+    private SoldOutRegistry soldOutRegistry;
+    @Value("${hmdp.seckill.lease.enabled:false}")
+    private boolean enabled;
+    @Value("${hmdp.seckill.lease.block-size:50}")
+    private int blockSize;
+    @Value("${hmdp.seckill.lease.ttl-seconds:30}")
+    private long ttlSeconds;
+    @Value("${hmdp.seckill.lease.max-buyers:100000}")
+    private long maxBuyers;
+    @Value("${hmdp.seckill.stock-shards:1}")
+    private int stockShards;
+
+    private final Map<Long, Lease> leases = new ConcurrentHashMap<>();
+    private ScheduledExecutorService leaseExpireExecutor;
+
+    private static class Lease {
+        private final AtomicInteger remaining = new AtomicInteger();
+        private final Cache<Long, Boolean> buyers;
+        private volatile long expireAt;
+        // Redis库存耗尽后，在此之前不再去Redis租借
+        private volatile long retryAt;
+        // 已经回收，不再续租，持有它的线程换新的租约重试
+        private volatile boolean retired;
+
+        private Lease(long maxBuyers) {
+            buyers = Caffeine.newBuilder().maximumSize(maxBuyers).build();
+        }
+    }
+
+    @PostConstruct
+    private void init() {
+        if (enabled) {
+            // 租约只从单key库存中租借，分片库存没有这个key
+            if (stockShards > 1) {
+                throw new IllegalStateException("秒杀库存租约不支持库存分片，hmdp.seckill.stock-shards 必须为1");
+            }
+            leaseExpireExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "seckill-lease-expire");
+                thread.setDaemon(true);
+                return thread;
+            });
+            leaseExpireExecutor.scheduleWithFixedDelay(this::returnExpiredLeases, 1, 1, TimeUnit.SECONDS);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    /**
+     * 尝试在本地租约中为用户扣减一件库存
+     * @return SUCCESS、SOLD_OUT 或 DUPLICATE
+     */
+    public int tryAcquire(Long voucherId, Long userId) {
+        while (true) {
+            Lease lease = leases.computeIfAbsent(voucherId, id -> new Lease(maxBuyers));
+            // 1.本地一人一单
+            if (lease.buyers.asMap().putIfAbsent(userId, Boolean.TRUE) != null) {
+                return DUPLICATE;
+            }
+            // 2.本地租约还有库存，直接扣减
+            if (take(lease) || refill(voucherId, lease)) {
+                return SUCCESS;
+            }
+            // 3.没有抢到库存，允许该用户再次尝试
+            lease.buyers.invalidate(userId);
+            if (!lease.retired) {
+                return SOLD_OUT;
+            }
+            // 4.租约刚被回收，换新的租约重试
+        }
+    }
+
+    /**
+     * 订单落库时因为用户已经下过单被剔除，归还这些订单占用的库存。
+     * 在事务提交后执行，事务回滚、消息重新投递时不会重复归还
+     */
+    public void returnRejected(Long voucherId, int count) {
+        if (!enabled || count <= 0) {
+            return;
+        }
+        Runnable release = () -> {
+            redisTemplate.opsForValue().increment(SeckillKeys.stock(voucherId), count);
+            soldOutRegistry.clearSoldOut(voucherId);
+            // 本节点的租约可能因为库存耗尽暂停了续租
+            Lease lease = leases.get(voucherId);
+            if (lease != null) {
+                lease.retryAt = 0;
+            }
+            log.debug("归还重复订单占用的库存：voucherId={}, stock={}", voucherId, count);
+        };
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCommit() {
+                    release.run();
+                }
+            });
+        } else {
+            release.run();
+        }
+    }
+
+    private boolean take(Lease lease) {
+        while (true) {
+            int remaining = lease.remaining.get();
+            if (remaining <= 0) {
+                return false;
+            }
+            if (lease.remaining.compareAndSet(remaining, remaining - 1)) {
+                return true;
+            }
+        }
+    }
+
+    private boolean refill(Long voucherId, Lease lease) {
+        synchronized (lease) {
+            // 其他线程可能已经续租成功
+            if (take(lease)) {
+                return true;
+            }
+            if (lease.retired) {
+                return false;
+            }
+            long now = System.currentTimeMillis();
+            if (now < lease.retryAt) {
+                return false;
+            }
+            Long leased = redisTemplate.execute(STOCK_LEASE_SCRIPT,
+                    Collections.singletonList(SeckillKeys.stock(voucherId)), String.valueOf(blockSize));
+            if (leased == null || leased <= 0) {
+                lease.retryAt = now + TimeUnit.SECONDS.toMillis(1);
+                return false;
+            }
+            lease.remaining.addAndGet(leased.intValue());
+            lease.expireAt = now + TimeUnit.SECONDS.toMillis(ttlSeconds);
+            return take(lease);
+        }
+    }
+
+    /**
+     * 过期的租约归还库存后从本地移除
+     */
+    private void returnExpiredLeases() {
+        long now = System.currentTimeMillis();
+        leases.forEach((voucherId, lease) -> {
+            if (lease.expireAt <= now) {
+                returnLease(voucherId, lease);
+                leases.remove(voucherId, lease);
+            }
+        });
+    }
+
+    private void returnLease(Long voucherId, Lease lease) {
+        synchronized (lease) {
+            lease.retired = true;
+            int unsold = lease.remaining.getAndSet(0);
+            if (unsold > 0) {
+                redisTemplate.opsForValue().increment(SeckillKeys.stock(voucherId), unsold);
+                soldOutRegistry.clearSoldOut(voucherId);
+                log.debug("归还秒杀库存租约：voucherId={}, stock={}", voucherId, unsold);
+            }
+        }
+    }
+
+    @PreDestroy
+    private void destroy() {
+        if (leaseExpireExecutor != null) {
+            leaseExpireExecutor.shutdownNow();
+        }
+        leases.forEach(this::returnLease);
+    }
+}
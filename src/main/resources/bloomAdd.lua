@@ -0,0 +1,17 @@
+---
+--- 布隆过滤器新增id：设置位图中的位，正在重新构建时同时设置临时位图，记录的id个数加一
+--- KEYS[1] 位图key
+--- KEYS[2] 重新构建时写入的临时位图key
+--- KEYS[3] 记录构建时间和id个数的哈希key
+--- ARGV 需要设置的位
+---
+
+local building = redis.call('exists', KEYS[2]) == 1
+for i = 1, #ARGV do
+    redis.call('setbit', KEYS[1], ARGV[i], 1)
+    if building then
+        redis.call('setbit', KEYS[2], ARGV[i], 1)
+    end
+end
+redis.call('hincrby', KEYS[3], 'count', 1)
+return 0
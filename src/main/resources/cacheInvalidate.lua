@@ -0,0 +1,17 @@
+---
+--- 数据更新后删除缓存，并把新版本号写入版本栅栏，比它旧的数据之后不能再写回缓存
+---
+
+--- 1.参数列表
+--- KEYS[1] 缓存key，KEYS[2] 版本栅栏key
+--- ARGV[1] 更新后的版本号，ARGV[2] 栅栏过期时间毫秒
+local fence = redis.call('get', KEYS[2])
+
+--- 2.栅栏只前进不后退
+if (not fence or tonumber(fence) < tonumber(ARGV[1])) then
+    redis.call('set', KEYS[2], ARGV[1], 'px', ARGV[2])
+end
+
+--- 3.删除缓存
+redis.call('del', KEYS[1])
+return 1
@@ -0,0 +1,21 @@
+---
+--- 带版本号写入缓存：数据的版本比版本栅栏旧时拒绝写入，防止更新后旧数据被写回缓存
+---
+
+--- 1.参数列表
+--- KEYS[1] 缓存key，KEYS[2] 版本栅栏key，与缓存key在同一个slot
+--- ARGV[1] 数据，ARGV[2] 数据的版本号，ARGV[3] 过期时间毫秒，0表示不过期
+local fence = redis.call('get', KEYS[2])
+
+--- 2.数据比最近一次更新旧，拒绝写入
+if (fence and tonumber(fence) > tonumber(ARGV[2])) then
+    return 0
+end
+
+--- 3.写入缓存
+if (tonumber(ARGV[3]) > 0) then
+    redis.call('set', KEYS[1], ARGV[1], 'px', ARGV[3])
+else
+    redis.call('set', KEYS[1], ARGV[1])
+end
+return 1
@@ -0,0 +1,11 @@
+---
+--- 续期租约：只有持有者才能续期
+--- KEYS[1] 租约key
+--- ARGV[1] 持有者标识
+--- ARGV[2] 续期秒数
+---
+
+if(redis.call('get', KEYS[1]) == ARGV[1]) then
+    return redis.call('expire', KEYS[1], ARGV[2])
+end
+return 0
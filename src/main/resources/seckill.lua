@@ -4,36 +4,75 @@
 --- DateTime: 2025/2/24 18:46
 ---
 
+--- 所有key都由调用方通过KEYS传入，且带有同一个 {voucherId} 哈希标签，可以在Redis Cluster上执行
+
 --- 1.参数列表
 --- 1.1秒杀券id
 local voucherId = ARGV[1]
 --- 1.2用户id
 local userId = ARGV[2]
---- 1.3订单id
-local orderId = ARGV[3]
+--- 1.3用户在买家位图中的偏移量，为空表示用集合去重
+local offset = ARGV[3]
 
 --- 2.数据key
 --- 2.1库存key
-local stockKey = "seckill:stock:" .. voucherId
---- 2.2订单集合key
-local orderKey = "seckill:order:" .. voucherId
+local stockKey = KEYS[1]
+--- 2.2买家去重key：集合保存用户id字符串；位图以用户id为偏移量，每个用户只占1位，
+---    偏移量由调用方限制在 SeckillKeys.BITMAP_MAX_USER_ID 以内，超出的用户传空偏移量改用集合
+local orderKey = KEYS[2]
+--- 2.3订单消息stream，按券分区
+local streamKey = KEYS[3]
+
+local function isBuyer()
+    if (offset ~= nil and offset ~= '') then
+        return redis.call('getbit', orderKey, offset) == 1
+    end
+    return redis.call('sismember', orderKey, userId) == 1
+end
+
+local function addBuyer()
+    if (offset ~= nil and offset ~= '') then
+        redis.call('setbit', orderKey, offset, 1)
+    else
+        redis.call('sadd', orderKey, userId)
+    end
+end
+
+
+--- 3.分片库存：KEYS[4]起是按尝试顺序排列的分片库存key，从用户所在分片开始，售罄时依次尝试下一个分片
+if (#KEYS > 3) then
+    if (isBuyer()) then
+        return 2
+    end
+    for i = 4, #KEYS do
+        local stock = tonumber(redis.call('get', KEYS[i]))
+        if (stock ~= nil and stock > 0) then
+            redis.call('incrby', KEYS[i], -1)
+            addBuyer()
+            redis.call('xadd', streamKey, '*', 'voucherId', voucherId, 'userId', userId)
+            return 0
+        end
+    end
+    --- 3.1所有分片都已售罄
+    return 1
+end
 
 
---- 3.脚本业务
---- 3.1判断库存是否充足
+--- 4.脚本业务
+--- 4.1判断库存是否充足
 if(tonumber(redis.call('get', stockKey)) <= 0) then
-    ---3.2库存不足，返回1
+    ---4.2库存不足，返回1
     return 1
 end 
----3.2判断用户是否重复下单
-if (redis.call('sismember', orderKey, userId) == 1) then
-    ---3.3用户重复下单，返回2
+---4.2判断用户是否重复下单
+if (isBuyer()) then
+    ---4.3用户重复下单，返回2
     return 2
 end
---- 3.4用户成功下单，扣减库存
+--- 4.4用户成功下单，扣减库存
 redis.call('incrby', stockKey, -1)
----  3.5添加用户到订单集合
-redis.call('sadd', orderKey, userId)
---- 3.6发送消息到消息队列中
-redis.call('xadd', 'stream.orders', '*', 'voucherId', voucherId, 'userId', userId, 'id', orderId)
-return 0
\ No newline at end of file
+---  4.5添加用户到订单集合
+addBuyer()
+--- 4.6发送消息到消息队列中
+redis.call('xadd', streamKey, '*', 'voucherId', voucherId, 'userId', userId)
+return 0
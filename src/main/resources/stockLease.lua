@@ -0,0 +1,14 @@
+---
+--- 从秒杀库存中租借一段库存到本地
+--- KEYS[1] 库存key
+--- ARGV[1] 期望租借的数量
+--- 返回实际租借到的数量，0表示已经售罄
+---
+
+local stock = tonumber(redis.call('get', KEYS[1]))
+if (stock == nil or stock <= 0) then
+    return 0
+end
+local leased = math.min(stock, tonumber(ARGV[1]))
+redis.call('incrby', KEYS[1], -leased)
+return leased
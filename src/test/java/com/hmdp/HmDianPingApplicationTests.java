@@ -2,16 +2,40 @@ package com.hmdp;
 
 import com.hmdp.entity.Shop;
 import com.hmdp.service.impl.ShopServiceImpl;
+import com.alibaba.fastjson2.JSON;
+import com.hmdp.utils.BloomFilter;
+import com.hmdp.utils.CacheClient;
+import com.hmdp.utils.CacheEnvelope;
+import com.hmdp.utils.HotKeyDetector;
+import com.hmdp.utils.RedisData;
+import com.hmdp.utils.RedisIdWorker;
+import com.hmdp.utils.SeckillKeys;
+import com.hmdp.utils.ShopNameIndex;
+import com.hmdp.utils.SingleFlight;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Tag;
 import org.junit.jupiter.api.Test;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.core.io.ClassPathResource;
 import org.springframework.data.geo.Point;
 import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.core.RedisCallback;
 import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.script.DefaultRedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
 
-import java.util.ArrayList;
-import java.util.List;
-import java.util.Map;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
 import java.util.stream.Collectors;
 
 @SpringBootTest
@@ -20,6 +44,12 @@ class HmDianPingApplicationTests {
     private ShopServiceImpl shopService;
     @Autowired
     private StringRedisTemplate redisTemplate;
+    @Autowired
+    private CacheClient cacheClient;
+    @Autowired
+    private SingleFlight singleFlight;
+    @Autowired
+    private HotKeyDetector hotKeyDetector;
 
     @Test
     void test01() {
@@ -59,5 +89,424 @@ class HmDianPingApplicationTests {
     void test03() {
     }
 
+    @Test
+    void seckillShardedStockNeverOversells() throws InterruptedException {
+        DefaultRedisScript<Long> script = seckillScript();
+
+        //1.101件库存不均匀地分到8个分片，400个用户每人并发抢3次
+        long voucherId = 900000003L;
+        int shards = 8;
+        int stock = 101;
+        for (int i = 0; i < shards; i++) {
+            redisTemplate.opsForValue().set(SeckillKeys.stockShard(voucherId, i),
+                    String.valueOf(stock / shards + (i < stock % shards ? 1 : 0)));
+        }
+        int users = 400;
+        Map<Long, AtomicInteger> successes = new ConcurrentHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(32);
+        CountDownLatch done = new CountDownLatch(users * 3);
+        try {
+            for (int attempt = 0; attempt < 3; attempt++) {
+                for (long userId = 1; userId <= users; userId++) {
+                    long id = userId;
+                    executor.submit(() -> {
+                        try {
+                            Long result = redisTemplate.execute(script,
+                                    SeckillKeys.scriptKeys(voucherId, id, shards, SeckillKeys.DEDUPE_SET, 65536),
+                                    String.valueOf(voucherId), String.valueOf(id), "");
+                            if (Long.valueOf(0L).equals(result)) {
+                                successes.computeIfAbsent(id, k -> new AtomicInteger()).incrementAndGet();
+                            }
+                        } finally {
+                            done.countDown();
+                        }
+                    });
+                }
+            }
+            done.await();
+
+            //2.恰好卖出全部库存，没有分片变成负数，每个用户最多买到一次，订单消息与成功次数一致
+            Assertions.assertEquals(stock, successes.size());
+            successes.forEach((userId, count) -> Assertions.assertEquals(1, count.get(), "用户重复下单：" + userId));
+            for (int i = 0; i < shards; i++) {
+                Assertions.assertEquals("0", redisTemplate.opsForValue().get(SeckillKeys.stockShard(voucherId, i)));
+            }
+            Assertions.assertEquals(Long.valueOf(stock), redisTemplate.opsForStream().size(SeckillKeys.orderStream(voucherId)));
+        } finally {
+            executor.shutdown();
+            redisTemplate.delete(Objects.requireNonNull(redisTemplate.keys("*{" + voucherId + "}*")));
+        }
+    }
+
+    @Tag("benchmark")
+    @Test
+    void seckillStockShardBenchmark() throws InterruptedException {
+        DefaultRedisScript<Long> script = seckillScript();
+
+        //1.单key库存与8分片库存，各自放入足够的库存保证压测期间不售罄
+        int stock = 1000000;
+        long singleVoucherId = 900000001L;
+        long shardedVoucherId = 900000002L;
+        redisTemplate.opsForValue().set(SeckillKeys.stock(singleVoucherId), String.valueOf(stock));
+        int shards = 8;
+        for (int i = 0; i < shards; i++) {
+            redisTemplate.opsForValue().set(SeckillKeys.stockShard(shardedVoucherId, i), String.valueOf(stock / shards));
+        }
+
+        //2.同样的并发度和请求数下比较吞吐量
+        try {
+            double single = seckillThroughput(script, singleVoucherId, 1, 64, 100000);
+            double sharded = seckillThroughput(script, shardedVoucherId, shards, 64, 100000);
+            System.out.println("single key: " + (long) single + " ops/s, sharded(" + shards + "): " + (long) sharded + " ops/s");
+        } finally {
+            Set<String> keys = new HashSet<>();
+            keys.addAll(Objects.requireNonNull(redisTemplate.keys("*{" + singleVoucherId + "}*")));
+            keys.addAll(Objects.requireNonNull(redisTemplate.keys("*{" + shardedVoucherId + "}*")));
+            redisTemplate.delete(keys);
+        }
+    }
+
+    @Tag("benchmark")
+    @Test
+    void seckillDedupeMemoryReport() {
+        DefaultRedisScript<Long> script = seckillScript();
+
+        //1.连续id：1..N；稀疏id：在 [0, 2^31) 里随机取 N 个
+        int buyers = 100000;
+        long[] denseIds = new long[buyers];
+        long[] sparseIds = new long[buyers];
+        Random random = new Random(1);
+        for (int i = 0; i < buyers; i++) {
+            denseIds[i] = i + 1;
+            sparseIds[i] = random.nextInt(Integer.MAX_VALUE);
+        }
+
+        //2.每种去重方式分别写入同样的买家，统计占用的内存
+        String[] modes = {"set", "bitmap", "sharded-bitmap"};
+        long voucherId = 900000100L;
+        Map<String, Long> memory = new HashMap<>();
+        for (String ids : new String[]{"dense", "sparse"}) {
+            for (String mode : modes) {
+                voucherId++;
+                String stockKey = SeckillKeys.stock(voucherId);
+                redisTemplate.opsForValue().set(stockKey, String.valueOf(buyers + 1));
+                try {
+                    //每个买家第一次下单成功，稀疏id中超出位图范围的买家改用集合，同样只能下单一次
+                    long[] userIds = "dense".equals(ids) ? denseIds : sparseIds;
+                    Set<Long> distinct = new HashSet<>();
+                    for (long userId : userIds) {
+                        Long result = redisTemplate.execute(script, SeckillKeys.scriptKeys(voucherId, userId, 1, mode, 65536),
+                                String.valueOf(voucherId), String.valueOf(userId),
+                                SeckillKeys.dedupeOffset(userId, mode, 65536));
+                        Assertions.assertEquals(distinct.add(userId) ? 0L : 2L, result, mode + " " + userId);
+                    }
+                    for (int i = 0; i < 100; i++) {
+                        long userId = userIds[i];
+                        Assertions.assertEquals(2L, redisTemplate.execute(script, SeckillKeys.scriptKeys(voucherId, userId, 1, mode, 65536),
+                                String.valueOf(voucherId), String.valueOf(userId),
+                                SeckillKeys.dedupeOffset(userId, mode, 65536)), mode + " " + userId);
+                    }
+                    Set<String> keys = Objects.requireNonNull(redisTemplate.keys(SeckillKeys.order(voucherId) + "*"));
+                    long bytes = 0;
+                    for (String key : keys) {
+                        Long usage = redisTemplate.execute((RedisCallback<Long>) connection ->
+                                (Long) connection.execute("MEMORY", "USAGE".getBytes(), key.getBytes()));
+                        bytes += usage == null ? 0 : usage;
+                    }
+                    System.out.printf("%-6s %-15s keys=%-6d memory=%d bytes%n", ids, mode, keys.size(), bytes);
+                    memory.put(ids + ":" + mode, bytes);
+                } finally {
+                    redisTemplate.delete(stockKey);
+                    redisTemplate.delete(Objects.requireNonNull(redisTemplate.keys(SeckillKeys.order(voucherId) + "*")));
+                    redisTemplate.delete(SeckillKeys.orderStream(voucherId));
+                }
+            }
+        }
+        //3.连续id时位图比集合省内存
+        Assertions.assertTrue(memory.get("dense:bitmap") < memory.get("dense:set"), memory.toString());
+    }
+
+    @Tag("benchmark")
+    @Test
+    void idWorkerBenchmark() throws InterruptedException {
+        //同样的并发度下比较每次INCR和号段两种模式的吞吐量，并检查号段模式生成的id没有重复
+        for (String mode : new String[]{RedisIdWorker.MODE_INCR, RedisIdWorker.MODE_SEGMENT}) {
+            RedisIdWorker idWorker = new RedisIdWorker();
+            ReflectionTestUtils.setField(idWorker, "stringRedisTemplate", redisTemplate);
+            ReflectionTestUtils.setField(idWorker, "mode", mode);
+            //预热
+            for (int i = 0; i < 2000; i++) {
+                idWorker.nextId("bench");
+            }
+
+            int threads = 32;
+            int idsPerThread = 10000;
+            Set<Long> ids = ConcurrentHashMap.newKeySet();
+            ExecutorService executor = Executors.newFixedThreadPool(threads);
+            CountDownLatch latch = new CountDownLatch(threads);
+            long begin = System.nanoTime();
+            for (int t = 0; t < threads; t++) {
+                executor.submit(() -> {
+                    try {
+                        for (int i = 0; i < idsPerThread; i++) {
+                            ids.add(idWorker.nextId("bench"));
+                        }
+                    } finally {
+                        latch.countDown();
+                    }
+                });
+            }
+            latch.await();
+            long cost = System.nanoTime() - begin;
+            executor.shutdown();
+            Assertions.assertEquals(threads * idsPerThread, ids.size());
+            System.out.printf("%-8s %d ids/s%n", mode, (long) (threads * idsPerThread / (cost / 1e9)));
+        }
+        redisTemplate.delete(Objects.requireNonNull(redisTemplate.keys("icr:bench:*")));
+    }
+
+    @Tag("benchmark")
+    @Test
+    void coldKeyLoadCount() throws InterruptedException {
+        //500个线程同时读取同一个冷key，分别统计关闭和开启请求合并时的回源次数
+        for (boolean enabled : new boolean[]{false, true}) {
+            ReflectionTestUtils.setField(singleFlight, "enabled", enabled);
+            String keyPrefix = "cache:bench:";
+            long id = 1L;
+            redisTemplate.delete(keyPrefix + id);
+
+            int readers = 500;
+            AtomicInteger loads = new AtomicInteger();
+            ExecutorService executor = Executors.newFixedThreadPool(readers);
+            CountDownLatch start = new CountDownLatch(1);
+            CountDownLatch done = new CountDownLatch(readers);
+            for (int i = 0; i < readers; i++) {
+                executor.submit(() -> {
+                    try {
+                        start.await();
+                        cacheClient.queryWithCachePassThrough(keyPrefix, id, Shop.class, shopId -> {
+                            loads.incrementAndGet();
+                            try {
+                                Thread.sleep(50);
+                            } catch (InterruptedException e) {
+                                Thread.currentThread().interrupt();
+                            }
+                            return new Shop().setId(shopId).setName("bench");
+                        }, 1L, TimeUnit.MINUTES);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    } finally {
+                        done.countDown();
+                    }
+                });
+            }
+            start.countDown();
+            done.await();
+            executor.shutdown();
+            redisTemplate.delete(keyPrefix + id);
+            System.out.println("single-flight " + (enabled ? "on" : "off") + ": " + loads.get() + " db queries");
+            if (enabled) {
+                Assertions.assertEquals(1, loads.get());
+            }
+        }
+        ReflectionTestUtils.setField(singleFlight, "enabled", true);
+    }
+
+    @Tag("benchmark")
+    @Test
+    void cacheCodecBenchmark() {
+        //不依赖Redis，比较旧的RedisData两次解析与信封格式（json/jsonb）读取一条逻辑过期店铺缓存的耗时和内存分配
+        Shop shop = new Shop().setId(1L).setName("103茶餐厅").setTypeId(1L).setImages("https://qcloud.dpfile.com/pc/jiclIsCKmOI2arxKN1Lf.jpg")
+                .setArea("大关").setAddress("金华路锦昌文华苑29号").setX(120.149192).setY(30.316078)
+                .setAvgPrice(80L).setSold(4215).setComments(3035).setScore(37).setOpenHours("10:00-22:00");
+        long expireAt = System.currentTimeMillis() + 60_000;
+
+        RedisData redisData = new RedisData(LocalDateTime.now().plusMinutes(1), shop);
+        byte[] legacy = JSON.toJSONString(redisData).getBytes(StandardCharsets.UTF_8);
+        Function<byte[], Boolean> legacyRead = bytes -> {
+            RedisData data = JSON.parseObject(new String(bytes, StandardCharsets.UTF_8), RedisData.class);
+            Shop value = JSON.parseObject(JSON.toJSONString(data.getData()), Shop.class);
+            return value != null && data.getExpireTime().isAfter(LocalDateTime.now());
+        };
+        report("legacy", legacy, legacyRead);
+
+        for (String codec : new String[]{"json", "jsonb"}) {
+            CacheEnvelope envelope = new CacheEnvelope();
+            ReflectionTestUtils.setField(envelope, "codecName", codec);
+            envelope.init();
+            byte[] bytes = envelope.encode(shop, expireAt);
+            Assertions.assertEquals(shop.getName(), envelope.decode(bytes, Shop.class).getName());
+            Assertions.assertEquals(expireAt, envelope.expireAt(bytes));
+            report(codec, bytes, b -> envelope.decode(b, Shop.class) != null && envelope.expireAt(b) > System.currentTimeMillis());
+        }
+    }
+
+    @Test
+    void bloomFilterFalsePositiveRate() {
+        //插入10万个id，检查没有漏判，用另外10万个不存在的id统计误判率
+        int n = 100000;
+        BloomFilter filter = new BloomFilter(n, 0.01);
+        for (long id = 1; id <= n; id++) {
+            filter.put(id);
+        }
+        int falsePositives = 0;
+        for (long id = 1; id <= n; id++) {
+            Assertions.assertTrue(filter.mightContain(id));
+            if (filter.mightContain(id + 1_000_000_000L)) {
+                falsePositives++;
+            }
+        }
+        double rate = (double) falsePositives / n;
+        Assertions.assertTrue(rate < 0.02, "fpp=" + rate);
+
+        //转成Redis位图后再读回来，内容不变
+        BloomFilter copy = new BloomFilter(n, 0.01);
+        Assertions.assertTrue(copy.mergeRedisBytes(filter.toRedisBytes()));
+        Assertions.assertEquals(filter.bitCount(), copy.bitCount());
+        System.out.printf("memory=%d bytes hashes=%d fpp=%.4f estimated=%.4f elements≈%d%n", filter.memoryBytes(),
+                filter.hashCount(), rate, filter.currentFpp(), filter.approximateElements());
+    }
+
+    @Test
+    void shopNameIndexVersusLike() {
+        //1.从数据库构建名称索引
+        ShopNameIndex index = new ShopNameIndex();
+        index.rebuild(consumer -> shopService.getBaseMapper().scanNames(
+                context -> consumer.accept(context.getResultObject())), "数据库");
+        System.out.println(index.stats());
+
+        //2.用已有店铺名称中的片段做关键字，对比like查询的耗时，like命中的店铺都应该被索引查到
+        List<String> keywords = new ArrayList<>();
+        for (Shop shop : shopService.query().last("limit 20").list()) {
+            String name = shop.getName();
+            keywords.add(name.substring(0, Math.min(2, name.length())));
+            keywords.add(name.substring(name.length() / 2));
+        }
+        for (String keyword : keywords) {
+            long begin = System.nanoTime();
+            Set<Long> expected = shopService.query().like("name", keyword).list()
+                    .stream().map(Shop::getId).collect(Collectors.toSet());
+            long likeCost = System.nanoTime() - begin;
+            begin = System.nanoTime();
+            Set<Long> actual = index.search(keyword, 0, Integer.MAX_VALUE / 2)
+                    .stream().map(ShopNameIndex.Match::getId).collect(Collectors.toSet());
+            long indexCost = System.nanoTime() - begin;
+            Assertions.assertTrue(actual.containsAll(expected), "名称索引漏掉了店铺：" + keyword);
+            System.out.printf("%-10s like=%d(%dus) index=%d(%dus)%n",
+                    keyword, expected.size(), likeCost / 1000, actual.size(), indexCost / 1000);
+        }
+    }
+
+    @Test
+    void logicalHotKeyReadByMultiGet() {
+        //逻辑过期方式读成热点的key，本地保存的是带过期时间的包装对象，批量查询读到时应取出其中的店铺
+        String keyPrefix = "cache:hot-logical:";
+        long id = 1L;
+        Shop shop = new Shop().setId(id).setName("hot");
+        Object threshold = ReflectionTestUtils.getField(hotKeyDetector, "threshold");
+        ReflectionTestUtils.setField(hotKeyDetector, "threshold", 1L);
+        try {
+            cacheClient.setWithLogicalExpiration(keyPrefix + id, shop, 1L, TimeUnit.MINUTES);
+            for (int i = 0; i < 3; i++) {
+                Assertions.assertEquals("hot", cacheClient.queryWithLogicalExpiration(keyPrefix, id, Shop.class,
+                        shopId -> shop, 1L, TimeUnit.MINUTES).getName());
+            }
+            List<Shop> shops = cacheClient.queryManyWithCachePassThrough(keyPrefix, Collections.singletonList(id),
+                    Shop.class, ids -> Collections.emptyList(), Shop::getId, 1L, TimeUnit.MINUTES);
+            Assertions.assertEquals(1, shops.size());
+            Assertions.assertEquals("hot", shops.get(0).getName());
+            Assertions.assertEquals("hot", cacheClient.queryWithCachePassThrough(keyPrefix, id, Shop.class,
+                    shopId -> null, 1L, TimeUnit.MINUTES).getName());
+        } finally {
+            ReflectionTestUtils.setField(hotKeyDetector, "threshold", threshold);
+            hotKeyDetector.evict(keyPrefix + id);
+            redisTemplate.delete(keyPrefix + id);
+        }
+    }
+
+    @Test
+    void staleVersionWriteRejected() {
+        //更新后写入版本栅栏，更新前读到的旧数据不能再写回缓存，新版本可以写入
+        String keyPrefix = "cache:fence:";
+        long id = 1L;
+        String key = keyPrefix + id;
+        LocalDateTime before = LocalDateTime.now().withNano(0).minusMinutes(1);
+        Shop stale = new Shop().setId(id).setName("stale").setUpdateTime(before);
+        Shop updated = new Shop().setId(id).setName("updated").setUpdateTime(before.plusSeconds(1));
+        // 关掉延迟删除，避免删掉本测试写入的数据
+        Object delayedDeleteMillis = ReflectionTestUtils.getField(cacheClient, "delayedDeleteMillis");
+        ReflectionTestUtils.setField(cacheClient, "delayedDeleteMillis", 0L);
+        try {
+            cacheClient.delete(key, updated);
+            Assertions.assertEquals(CacheClient.versionOf(updated),
+                    Long.parseLong(redisTemplate.opsForValue().get("{" + key + "}:ver")));
+
+            Assertions.assertFalse(cacheClient.setValue(key, stale, 1L, TimeUnit.MINUTES));
+            Assertions.assertEquals("stale", cacheClient.queryWithCachePassThrough(keyPrefix, id, Shop.class,
+                    shopId -> stale, 1L, TimeUnit.MINUTES).getName());
+            Assertions.assertNull(redisTemplate.opsForValue().get(key));
+
+            Assertions.assertEquals("updated", cacheClient.queryWithCachePassThrough(keyPrefix, id, Shop.class,
+                    shopId -> updated, 1L, TimeUnit.MINUTES).getName());
+            Assertions.assertNotNull(redisTemplate.opsForValue().get(key));
+            Assertions.assertTrue(cacheClient.setValue(key, updated, 1L, TimeUnit.MINUTES));
+        } finally {
+            ReflectionTestUtils.setField(cacheClient, "delayedDeleteMillis", delayedDeleteMillis);
+            cacheClient.delete(key);
+            redisTemplate.delete("{" + key + "}:ver");
+        }
+    }
+
+    private void report(String name, byte[] bytes, Function<byte[], Boolean> read) {
+        //没有引入JMH，这里用预热后的平均耗时和线程分配字节数做粗略对比
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        int warmup = 200000;
+        int iterations = 1000000;
+        for (int i = 0; i < warmup; i++) {
+            read.apply(bytes);
+        }
+        long threadId = Thread.currentThread().getId();
+        long allocated = threadBean.getThreadAllocatedBytes(threadId);
+        long begin = System.nanoTime();
+        for (int i = 0; i < iterations; i++) {
+            read.apply(bytes);
+        }
+        long cost = System.nanoTime() - begin;
+        allocated = threadBean.getThreadAllocatedBytes(threadId) - allocated;
+        System.out.printf("%-7s size=%-4d %6d ns/op %6d bytes/op%n", name, bytes.length, cost / iterations, allocated / iterations);
+    }
+
+    private static DefaultRedisScript<Long> seckillScript() {
+        DefaultRedisScript<Long> script = new DefaultRedisScript<>();
+        script.setLocation(new ClassPathResource("seckill.lua"));
+        script.setResultType(Long.class);
+        return script;
+    }
+
+    private double seckillThroughput(DefaultRedisScript<Long> script, long voucherId, int shards, int threads,
+                                     int requests) throws InterruptedException {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        CountDownLatch latch = new CountDownLatch(threads);
+        AtomicInteger userId = new AtomicInteger();
+        long begin = System.nanoTime();
+        for (int t = 0; t < threads; t++) {
+            executor.submit(() -> {
+                try {
+                    for (int i = 0; i < requests / threads; i++) {
+                        long id = userId.incrementAndGet();
+                        redisTemplate.execute(script,
+                                SeckillKeys.scriptKeys(voucherId, id, shards, SeckillKeys.DEDUPE_SET, 65536),
+                                String.valueOf(voucherId), String.valueOf(id), "");
+                    }
+                } finally {
+                    latch.countDown();
+                }
+            });
+        }
+        latch.await();
+        executor.shutdown();
+        return requests / ((System.nanoTime() - begin) / 1e9);
+    }
+
 
 }
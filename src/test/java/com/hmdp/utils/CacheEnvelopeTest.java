@@ -0,0 +1,86 @@
+package com.hmdp.utils;
+
+import com.alibaba.fastjson2.JSON;
+import com.alibaba.fastjson2.TypeReference;
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDateTime;
+import java.time.ZoneId;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.List;
+
+class CacheEnvelopeTest {
+
+    private static CacheEnvelope envelope(String codec) {
+        CacheEnvelope envelope = new CacheEnvelope();
+        ReflectionTestUtils.setField(envelope, "codecName", codec);
+        envelope.init();
+        return envelope;
+    }
+
+    private static Shop shop() {
+        return new Shop().setId(1L).setName("103茶餐厅").setTypeId(1L).setArea("大关")
+                .setX(120.149192).setY(30.316078).setAvgPrice(80L).setSold(4215).setScore(37);
+    }
+
+    @Test
+    void roundTripEachCodec() {
+        long expireAt = System.currentTimeMillis() + 60_000;
+        for (String codec : new String[]{"json", "jsonb"}) {
+            CacheEnvelope envelope = envelope(codec);
+            byte[] bytes = envelope.encode(shop(), expireAt, 123);
+            Assertions.assertTrue(CacheEnvelope.isEnvelope(bytes), codec);
+            Assertions.assertEquals(expireAt, envelope.expireAt(bytes), codec);
+            Assertions.assertEquals(123, envelope.loadMillis(bytes), codec);
+            Shop decoded = envelope.decode(bytes, Shop.class);
+            Assertions.assertEquals(JSON.toJSONString(shop()), JSON.toJSONString(decoded), codec);
+
+            //泛型类型也能还原
+            List<Shop> shops = Arrays.asList(shop(), shop().setId(2L));
+            List<Shop> list = envelope.decode(envelope.encode(shops, expireAt), new TypeReference<List<Shop>>() {
+            }.getType());
+            Assertions.assertEquals(2L, list.get(1).getId(), codec);
+        }
+    }
+
+    @Test
+    void readsEnvelopeWrittenByOtherCodec() {
+        //切换写入格式后，旧格式写入的数据仍然可以读取
+        byte[] bytes = envelope("jsonb").encode(shop(), 1L);
+        Assertions.assertEquals("103茶餐厅", envelope("json").decode(bytes, Shop.class).getName());
+    }
+
+    @Test
+    void readsLegacyFormats() {
+        CacheEnvelope envelope = envelope("json");
+        //旧的RedisData包装：过期时间从JSON中读取
+        LocalDateTime expireTime = LocalDateTime.now().plusMinutes(1).truncatedTo(ChronoUnit.MILLIS);
+        byte[] legacy = JSON.toJSONString(new RedisData(expireTime, shop())).getBytes(StandardCharsets.UTF_8);
+        Assertions.assertFalse(CacheEnvelope.isEnvelope(legacy));
+        Assertions.assertEquals(expireTime.atZone(ZoneId.systemDefault()).toInstant().toEpochMilli(), envelope.expireAt(legacy));
+        Assertions.assertEquals("103茶餐厅", envelope.decodeLogical(legacy, Shop.class).getName());
+        Assertions.assertEquals(0, envelope.loadMillis(legacy));
+
+        //普通JSON没有过期时间，视为已过期
+        byte[] plain = JSON.toJSONString(shop()).getBytes(StandardCharsets.UTF_8);
+        Assertions.assertEquals(0, envelope.expireAt(plain));
+        Assertions.assertEquals("103茶餐厅", envelope.decode(plain, Shop.class).getName());
+        Assertions.assertEquals("103茶餐厅", envelope.decodeLogical(plain, Shop.class).getName());
+    }
+
+    @Test
+    void plainJsonNotUnwrapped() {
+        //字段恰好是 expireTime 和 data 的实体按普通JSON读取时不拆包
+        CacheEnvelope envelope = envelope("json");
+        LocalDateTime expireTime = LocalDateTime.now().truncatedTo(ChronoUnit.MILLIS);
+        byte[] bytes = JSON.toJSONString(new RedisData(expireTime, "payload")).getBytes(StandardCharsets.UTF_8);
+        RedisData decoded = envelope.decode(bytes, RedisData.class);
+        Assertions.assertEquals(expireTime, decoded.getExpireTime());
+        Assertions.assertEquals("payload", decoded.getData());
+    }
+}
@@ -0,0 +1,65 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static com.hmdp.utils.RedisConstants.CACHE_LOADED_CHANNEL;
+
+class CacheLoadNotifierTest {
+    private final StringRedisTemplate redisTemplate = Mockito.mock(StringRedisTemplate.class);
+    private final CacheLoadNotifier notifier =
+            new CacheLoadNotifier(redisTemplate, Mockito.mock(RedisMessageListenerContainer.class));
+
+    @Test
+    void localLoadWakesWaiters() throws Exception {
+        CompletableFuture<Void> first = notifier.subscribe("cache:shop:1");
+        CompletableFuture<Void> second = notifier.subscribe("cache:shop:1");
+        CompletableFuture<Void> other = notifier.subscribe("cache:shop:2");
+
+        //本节点加载完成：唤醒同一个key的全部等待者，并通知其他节点
+        notifier.notifyLoaded("cache:shop:1");
+        first.get(1, TimeUnit.SECONDS);
+        second.get(1, TimeUnit.SECONDS);
+        Assertions.assertFalse(other.isDone());
+        Mockito.verify(redisTemplate).convertAndSend(CACHE_LOADED_CHANNEL, "cache:shop:1");
+        Assertions.assertEquals(1, waiters().size());
+    }
+
+    @Test
+    void remoteLoadWakesWaiters() throws Exception {
+        CompletableFuture<Void> future = notifier.subscribe("cache:shop:1");
+        //其他节点加载完成后通过发布订阅通知
+        notifier.onMessage(new DefaultMessage(CACHE_LOADED_CHANNEL.getBytes(StandardCharsets.UTF_8),
+                "cache:shop:1".getBytes(StandardCharsets.UTF_8)), null);
+        future.get(1, TimeUnit.SECONDS);
+        Assertions.assertTrue(waiters().isEmpty());
+    }
+
+    @Test
+    void waiterTimesOutAndUnsubscribes() {
+        CompletableFuture<Void> future = notifier.subscribe("cache:shop:1");
+        Assertions.assertThrows(TimeoutException.class, () -> future.get(50, TimeUnit.MILLISECONDS));
+
+        //超时的等待者取消订阅，没有等待者的key被移除，之后的通知不再唤醒它
+        notifier.unsubscribe("cache:shop:1", future);
+        Assertions.assertTrue(waiters().isEmpty());
+        notifier.notifyLoaded("cache:shop:1");
+        Assertions.assertFalse(future.isDone());
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, ?> waiters() {
+        return (Map<String, ?>) ReflectionTestUtils.getField(notifier, "waiters");
+    }
+}
@@ -0,0 +1,142 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ValueOperations;
+import org.springframework.data.redis.core.script.RedisScript;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+class CacheRebuildSchedulerTest {
+    private final CountDownLatch release = new CountDownLatch(1);
+    private StringRedisTemplate redisTemplate;
+    private ValueOperations<String, String> valueOperations;
+    private CacheRebuildScheduler scheduler;
+
+    @AfterEach
+    void tearDown() {
+        release.countDown();
+        ReflectionTestUtils.invokeMethod(scheduler, "destroy");
+    }
+
+    @Test
+    void sameKeyRebuiltOnce() throws InterruptedException {
+        scheduler = scheduler(1, 10, 10);
+        Assertions.assertTrue(scheduler.submit("cache:shop:", "cache:shop:1", "lock:shop:1", this::block));
+        //同一个key重建期间再次提交直接返回，不抢Redis锁
+        Assertions.assertFalse(scheduler.submit("cache:shop:", "cache:shop:1", "lock:shop:1", this::block));
+        Assertions.assertTrue(scheduler.submit("cache:shop:", "cache:shop:2", "lock:shop:2", () -> { }));
+        Mockito.verify(valueOperations, Mockito.times(2))
+                .setIfAbsent(ArgumentMatchers.anyString(), ArgumentMatchers.anyString(),
+                        ArgumentMatchers.anyLong(), ArgumentMatchers.any(TimeUnit.class));
+
+        //重建结束后释放锁，同一个key可以再次提交
+        release.countDown();
+        awaitIdle();
+        Mockito.verify(redisTemplate, Mockito.times(2)).execute(ArgumentMatchers.<RedisScript<Long>>any(),
+                ArgumentMatchers.anyList(), ArgumentMatchers.<Object>any());
+        Assertions.assertTrue(scheduler.submit("cache:shop:", "cache:shop:1", "lock:shop:1", () -> { }));
+        awaitIdle();
+        Assertions.assertEquals(3L, prefix("cache:shop:").get("completed"));
+    }
+
+    @Test
+    void perPrefixLimit() {
+        scheduler = scheduler(4, 10, 2);
+        Assertions.assertTrue(scheduler.submit("cache:shop:", "cache:shop:1", "lock:shop:1", this::block));
+        Assertions.assertTrue(scheduler.submit("cache:shop:", "cache:shop:2", "lock:shop:2", this::block));
+        //一个前缀占满配额后只限制这个前缀
+        Assertions.assertFalse(scheduler.submit("cache:shop:", "cache:shop:3", "lock:shop:3", this::block));
+        Assertions.assertTrue(scheduler.submit("cache:blog:", "cache:blog:1", "lock:blog:1", this::block));
+
+        Assertions.assertEquals(1L, prefix("cache:shop:").get("limited"));
+        Assertions.assertEquals(2, prefix("cache:shop:").get("pending"));
+        Assertions.assertEquals(0L, prefix("cache:blog:").get("limited"));
+    }
+
+    @Test
+    void shedWhenQueueFull() {
+        scheduler = scheduler(1, 1, 10);
+        // 第一个任务占住唯一的线程，第二个进入队列，第三个被放弃
+        Assertions.assertTrue(scheduler.submit("cache:shop:", "cache:shop:1", "lock:shop:1", this::block));
+        Assertions.assertTrue(scheduler.submit("cache:shop:", "cache:shop:2", "lock:shop:2", this::block));
+        Assertions.assertFalse(scheduler.submit("cache:shop:", "cache:shop:3", "lock:shop:3", this::block));
+
+        Map<String, Object> stats = scheduler.stats();
+        Assertions.assertEquals(1L, stats.get("shed"));
+        Assertions.assertEquals(1, stats.get("queueDepth"));
+        Assertions.assertEquals(2, prefix("cache:shop:").get("pending"));
+        //被放弃的任务立即释放锁
+        Mockito.verify(redisTemplate).execute(ArgumentMatchers.<RedisScript<Long>>any(),
+                ArgumentMatchers.eq(Collections.singletonList("lock:shop:3")), ArgumentMatchers.<Object>any());
+    }
+
+    @Test
+    void lockHeldByAnotherNode() {
+        scheduler = scheduler(1, 10, 10);
+        Mockito.when(valueOperations.setIfAbsent(ArgumentMatchers.anyString(), ArgumentMatchers.anyString(),
+                ArgumentMatchers.anyLong(), ArgumentMatchers.any(TimeUnit.class))).thenReturn(false);
+        Assertions.assertFalse(scheduler.submit("cache:shop:", "cache:shop:1", "lock:shop:1", this::block));
+        Assertions.assertEquals(0, prefix("cache:shop:").get("pending"));
+        Assertions.assertEquals(0L, prefix("cache:shop:").get("submitted"));
+
+        //其他节点的锁释放后本节点可以再次提交
+        Mockito.when(valueOperations.setIfAbsent(ArgumentMatchers.anyString(), ArgumentMatchers.anyString(),
+                ArgumentMatchers.anyLong(), ArgumentMatchers.any(TimeUnit.class))).thenReturn(true);
+        Assertions.assertTrue(scheduler.submit("cache:shop:", "cache:shop:1", "lock:shop:1", () -> { }));
+    }
+
+    @SuppressWarnings("unchecked")
+    private CacheRebuildScheduler scheduler(int threads, int queueCapacity, int perPrefixLimit) {
+        redisTemplate = Mockito.mock(StringRedisTemplate.class);
+        valueOperations = Mockito.mock(ValueOperations.class);
+        Mockito.when(redisTemplate.opsForValue()).thenReturn(valueOperations);
+        Mockito.when(valueOperations.setIfAbsent(ArgumentMatchers.anyString(), ArgumentMatchers.anyString(),
+                ArgumentMatchers.anyLong(), ArgumentMatchers.any(TimeUnit.class))).thenReturn(true);
+
+        CacheRebuildScheduler s = new CacheRebuildScheduler();
+        ReflectionTestUtils.setField(s, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(s, "threads", threads);
+        ReflectionTestUtils.setField(s, "queueCapacity", queueCapacity);
+        ReflectionTestUtils.setField(s, "perPrefixLimit", perPrefixLimit);
+        ReflectionTestUtils.setField(s, "lockTtlSeconds", 10L);
+        ReflectionTestUtils.invokeMethod(s, "init");
+        return s;
+    }
+
+    private void block() {
+        try {
+            release.await(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private Map<String, Object> prefix(String keyPrefix) {
+        Map<String, Object> prefixes = (Map<String, Object>) scheduler.stats().get("prefixes");
+        return (Map<String, Object>) prefixes.get(keyPrefix);
+    }
+
+    /**
+     * 等待所有任务结束，正在重建的key最后移除
+     */
+    @SuppressWarnings("unchecked")
+    private void awaitIdle() throws InterruptedException {
+        Set<String> inFlight = (Set<String>) ReflectionTestUtils.getField(scheduler, "inFlight");
+        long deadline = System.currentTimeMillis() + 5000;
+        while (!inFlight.isEmpty()) {
+            Assertions.assertTrue(System.currentTimeMillis() < deadline, "重建任务没有结束");
+            Thread.sleep(10);
+        }
+    }
+}
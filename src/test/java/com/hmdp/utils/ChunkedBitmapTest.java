@@ -0,0 +1,132 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.TreeSet;
+
+class ChunkedBitmapTest {
+    private static final int CHUNK = 1 << 16;
+
+    @Test
+    void andOrAcrossArrayAndBitmapContainers() {
+        //第0块：a为位图块，b为数组块；第1块：a为数组块，b为位图块；第2、3块只有一边有
+        TreeSet<Integer> a = new TreeSet<>();
+        TreeSet<Integer> b = new TreeSet<>();
+        for (int v = 0; v < 10000; v += 2) {
+            a.add(v);
+        }
+        for (int v = 0; v < 10000; v += 3) {
+            b.add(v);
+        }
+        for (int v = CHUNK; v < CHUNK + 300; v += 7) {
+            a.add(v);
+        }
+        for (int v = CHUNK; v < CHUNK + 6000; v++) {
+            b.add(v);
+        }
+        a.add(2 * CHUNK + 1);
+        b.add(3 * CHUNK + 1);
+
+        ChunkedBitmap bitmapA = of(a);
+        ChunkedBitmap bitmapB = of(b);
+        assertSame(a, bitmapA);
+        assertSame(b, bitmapB);
+
+        TreeSet<Integer> and = new TreeSet<>(a);
+        and.retainAll(b);
+        TreeSet<Integer> or = new TreeSet<>(a);
+        or.addAll(b);
+        assertSame(and, bitmapA.and(bitmapB));
+        assertSame(and, bitmapB.and(bitmapA));
+        assertSame(and, ChunkedBitmap.and(Arrays.asList(bitmapA, bitmapB)));
+        assertSame(or, ChunkedBitmap.or(Arrays.asList(bitmapA, bitmapB)));
+    }
+
+    @Test
+    void randomSetsMatchBruteForce() {
+        Random random = new Random(7);
+        List<TreeSet<Integer>> sets = new ArrayList<>();
+        List<ChunkedBitmap> bitmaps = new ArrayList<>();
+        for (int s = 0; s < 3; s++) {
+            TreeSet<Integer> set = new TreeSet<>();
+            // 每个集合在不同的块上疏密不同
+            for (int chunk = 0; chunk < 4; chunk++) {
+                int count = (chunk + s) % 2 == 0 ? 8000 : 500;
+                for (int i = 0; i < count; i++) {
+                    set.add(chunk * CHUNK + random.nextInt(CHUNK / 4));
+                }
+            }
+            sets.add(set);
+            bitmaps.add(of(set));
+        }
+        TreeSet<Integer> and = new TreeSet<>(sets.get(0));
+        TreeSet<Integer> or = new TreeSet<>(sets.get(0));
+        for (TreeSet<Integer> set : sets.subList(1, sets.size())) {
+            and.retainAll(set);
+            or.addAll(set);
+        }
+        assertSame(and, ChunkedBitmap.and(bitmaps));
+        assertSame(or, ChunkedBitmap.or(bitmaps));
+        assertSame(sets.get(0), ChunkedBitmap.or(bitmaps.subList(0, 1)));
+    }
+
+    @Test
+    void removeConvertsBitmapBackToArray() {
+        TreeSet<Integer> set = new TreeSet<>();
+        ChunkedBitmap bitmap = new ChunkedBitmap();
+        for (int v = 0; v < 5000; v++) {
+            set.add(v);
+            bitmap.add(v);
+        }
+        // 重复添加不改变元素个数
+        bitmap.add(100);
+        Assertions.assertEquals(CHUNK / 8 + 2, bitmap.bytes());
+
+        //删到一半以下后块改回数组保存，剩余元素不变
+        for (int v = 0; v < 3000; v++) {
+            set.remove(v);
+            bitmap.remove(v);
+        }
+        bitmap.remove(100);
+        bitmap.remove(CHUNK + 1);
+        assertSame(set, bitmap);
+        Assertions.assertTrue(bitmap.bytes() < CHUNK / 8);
+        Assertions.assertFalse(bitmap.contains(2999));
+        Assertions.assertTrue(bitmap.contains(3000));
+
+        //块内元素删光后整块移除
+        for (int v = 3000; v < 5000; v++) {
+            bitmap.remove(v);
+        }
+        Assertions.assertTrue(bitmap.isEmpty());
+        Assertions.assertEquals(0, bitmap.bytes());
+    }
+
+    private static ChunkedBitmap of(TreeSet<Integer> values) {
+        ChunkedBitmap bitmap = new ChunkedBitmap();
+        // 乱序添加
+        List<Integer> shuffled = new ArrayList<>(values);
+        Collections.shuffle(shuffled, new Random(values.size()));
+        shuffled.forEach(bitmap::add);
+        return bitmap;
+    }
+
+    /**
+     * 元素个数、升序遍历结果和 contains 都与期望的集合一致
+     */
+    private static void assertSame(TreeSet<Integer> expected, ChunkedBitmap bitmap) {
+        Assertions.assertEquals(expected.size(), bitmap.cardinality());
+        List<Integer> actual = new ArrayList<>();
+        bitmap.forEach(actual::add);
+        Assertions.assertEquals(new ArrayList<>(expected), actual);
+        for (int v : new int[]{0, 1, 2, 3, 6, 9999, CHUNK, CHUNK + 7, 2 * CHUNK + 1, 3 * CHUNK + 1}) {
+            Assertions.assertEquals(expected.contains(v), bitmap.contains(v), "contains " + v);
+        }
+    }
+}
@@ -0,0 +1,159 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.lang.reflect.Type;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+class HmdpCacheAspectTest {
+    private CacheClient cacheClient;
+    private Service service;
+    private Service proxy;
+
+    static class Service {
+        private final AtomicInteger calls = new AtomicInteger();
+
+        @HmdpCached(keyPrefix = "cache:shop:", key = "#id", strategy = CacheStrategy.MUTEX, ttl = 10)
+        public String shop(Long id) {
+            calls.incrementAndGet();
+            return "shop" + id;
+        }
+
+        @HmdpCached(keyPrefix = "cache:rank:", strategy = CacheStrategy.LOGICAL_EXPIRE, unit = TimeUnit.SECONDS)
+        public List<String> rank(Long typeId, String order) {
+            calls.incrementAndGet();
+            return Arrays.asList(typeId.toString(), order);
+        }
+
+        @HmdpCached(keyPrefix = "cache:user:", key = "#user.id + ':' + #user.name", cacheNull = false)
+        public String user(User user) {
+            calls.incrementAndGet();
+            return null;
+        }
+
+        @HmdpCacheEvict(keyPrefix = "cache:shop:", key = "#id")
+        public boolean update(Long id) {
+            calls.incrementAndGet();
+            return true;
+        }
+
+        @HmdpCacheEvict(keyPrefix = "cache:shop:", key = "#id")
+        public void fail(Long id) {
+            throw new IllegalStateException("更新失败");
+        }
+    }
+
+    static class User {
+        private final long id;
+        private final String name;
+
+        User(long id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+
+        public long getId() {
+            return id;
+        }
+
+        public String getName() {
+            return name;
+        }
+    }
+
+    @BeforeEach
+    void setUp() {
+        cacheClient = Mockito.mock(CacheClient.class);
+        service = new Service();
+        AspectJProxyFactory factory = new AspectJProxyFactory(service);
+        factory.setProxyTargetClass(true);
+        factory.addAspect(new HmdpCacheAspect(cacheClient));
+        proxy = factory.getProxy();
+    }
+
+    @Test
+    void mutexStrategyWithSpelKey() {
+        //缓存未命中时回源逻辑就是方法本身
+        Mockito.when(cacheClient.queryWithMutex(ArgumentMatchers.eq("cache:shop:"), ArgumentMatchers.eq(7L),
+                ArgumentMatchers.any(Type.class), ArgumentMatchers.<Function<Object, Object>>any(),
+                ArgumentMatchers.eq(10L), ArgumentMatchers.eq(TimeUnit.MINUTES), ArgumentMatchers.eq(true)))
+                .thenAnswer(invocation -> invocation.<Function<Object, Object>>getArgument(3)
+                        .apply(invocation.getArgument(1)));
+
+        Assertions.assertEquals("shop7", proxy.shop(7L));
+        Assertions.assertEquals(1, service.calls.get());
+    }
+
+    @Test
+    void cacheHitSkipsMethod() {
+        Mockito.when(cacheClient.queryWithMutex(ArgumentMatchers.eq("cache:shop:"), ArgumentMatchers.eq(7L),
+                ArgumentMatchers.any(Type.class), ArgumentMatchers.<Function<Object, Object>>any(),
+                ArgumentMatchers.anyLong(), ArgumentMatchers.any(), ArgumentMatchers.anyBoolean()))
+                .thenReturn("cached");
+
+        Assertions.assertEquals("cached", proxy.shop(7L));
+        Assertions.assertEquals(0, service.calls.get());
+    }
+
+    @Test
+    void defaultKeyJoinsArgumentsAndKeepsGenericType() throws NoSuchMethodException {
+        Mockito.when(cacheClient.queryWithLogicalExpiration(ArgumentMatchers.anyString(), ArgumentMatchers.any(),
+                ArgumentMatchers.any(Type.class), ArgumentMatchers.<Function<Object, Object>>any(),
+                ArgumentMatchers.anyLong(), ArgumentMatchers.any(), ArgumentMatchers.anyBoolean()))
+                .thenAnswer(invocation -> invocation.<Function<Object, Object>>getArgument(3)
+                        .apply(invocation.getArgument(1)));
+
+        Assertions.assertEquals(Arrays.asList("1", "sold"), proxy.rank(1L, "sold"));
+        //没有key模板时参数以冒号拼接，泛型返回值按完整类型交给缓存反序列化
+        Type type = Service.class.getMethod("rank", Long.class, String.class).getGenericReturnType();
+        Mockito.verify(cacheClient).queryWithLogicalExpiration(ArgumentMatchers.eq("cache:rank:"),
+                ArgumentMatchers.eq("1:sold"), ArgumentMatchers.eq(type),
+                ArgumentMatchers.<Function<Object, Object>>any(), ArgumentMatchers.eq(30L),
+                ArgumentMatchers.eq(TimeUnit.SECONDS), ArgumentMatchers.eq(true));
+    }
+
+    @Test
+    void passThroughIsDefault() {
+        proxy.user(new User(3, "tom"));
+        Mockito.verify(cacheClient).queryWithCachePassThrough(ArgumentMatchers.eq("cache:user:"),
+                ArgumentMatchers.eq("3:tom"), ArgumentMatchers.any(Type.class),
+                ArgumentMatchers.<Function<Object, Object>>any(), ArgumentMatchers.eq(30L),
+                ArgumentMatchers.eq(TimeUnit.MINUTES), ArgumentMatchers.eq(false));
+    }
+
+    @Test
+    void evictAfterMethodReturns() {
+        Assertions.assertTrue(proxy.update(5L));
+        Mockito.verify(cacheClient).delete("cache:shop:5");
+        Assertions.assertEquals(1, service.calls.get());
+
+        //方法抛出异常时不删除缓存
+        Assertions.assertThrows(IllegalStateException.class, () -> proxy.fail(6L));
+        Mockito.verify(cacheClient, Mockito.never()).delete("cache:shop:6");
+    }
+
+    @Test
+    void evictAfterCommitInTransaction() {
+        TransactionSynchronizationManager.initSynchronization();
+        try {
+            Assertions.assertTrue(proxy.update(5L));
+            //事务提交之前不删除缓存
+            Mockito.verify(cacheClient, Mockito.never()).delete(ArgumentMatchers.anyString());
+            TransactionSynchronizationManager.getSynchronizations().forEach(TransactionSynchronization::afterCommit);
+            Mockito.verify(cacheClient).delete("cache:shop:5");
+        } finally {
+            TransactionSynchronizationManager.clearSynchronization();
+        }
+    }
+}
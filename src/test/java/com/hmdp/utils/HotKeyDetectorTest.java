@@ -0,0 +1,113 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.data.redis.connection.DefaultMessage;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.listener.RedisMessageListenerContainer;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.nio.charset.StandardCharsets;
+
+import static com.hmdp.utils.RedisConstants.CACHE_HOT_KEY_CHANNEL;
+
+class HotKeyDetectorTest {
+    private StringRedisTemplate redisTemplate;
+    private HotKeyDetector detector;
+
+    @BeforeEach
+    void setUp() {
+        redisTemplate = Mockito.mock(StringRedisTemplate.class);
+        detector = new HotKeyDetector();
+        ReflectionTestUtils.setField(detector, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(detector, "listenerContainer", Mockito.mock(RedisMessageListenerContainer.class));
+        ReflectionTestUtils.setField(detector, "enabled", true);
+        // 窗口很长，测试期间定时任务不会执行，由测试手动推进
+        ReflectionTestUtils.setField(detector, "windowSeconds", 3600);
+        ReflectionTestUtils.setField(detector, "buckets", 2);
+        ReflectionTestUtils.setField(detector, "width", 256);
+        ReflectionTestUtils.setField(detector, "sampleRate", 1.0);
+        ReflectionTestUtils.setField(detector, "threshold", 10L);
+        ReflectionTestUtils.setField(detector, "demoteRatio", 0.5);
+        ReflectionTestUtils.setField(detector, "maxHotKeys", 100);
+        ReflectionTestUtils.setField(detector, "localTtlSeconds", 60L);
+        ReflectionTestUtils.setField(detector, "remoteHoldSeconds", 60L);
+        ReflectionTestUtils.invokeMethod(detector, "init");
+    }
+
+    @AfterEach
+    void tearDown() {
+        ReflectionTestUtils.invokeMethod(detector, "destroy");
+    }
+
+    @Test
+    void originDemotesAndBroadcasts() {
+        String nodeId = (String) ReflectionTestUtils.getField(detector, "nodeId");
+        for (int i = 0; i < 10; i++) {
+            detector.access("cache:shop:1");
+        }
+        Assertions.assertTrue(isHot("cache:shop:1"));
+        Mockito.verify(redisTemplate).convertAndSend(CACHE_HOT_KEY_CHANNEL, "promote:" + nodeId + ":cache:shop:1");
+
+        //访问量回落到阈值一半以下后，发现热点的节点降级并通知其他节点
+        tick();
+        tick();
+        Assertions.assertFalse(isHot("cache:shop:1"));
+        Mockito.verify(redisTemplate).convertAndSend(CACHE_HOT_KEY_CHANNEL, "demote:" + nodeId + ":cache:shop:1");
+    }
+
+    @Test
+    void remoteKeyKeptUntilOriginDemotes() {
+        receive("promote:other:cache:shop:2");
+        Assertions.assertTrue(isHot("cache:shop:2"));
+
+        //本节点上访问量很低，但热点是其他节点发现的，不由本节点降级
+        tick();
+        tick();
+        Assertions.assertTrue(isHot("cache:shop:2"));
+        Mockito.verify(redisTemplate, Mockito.never()).convertAndSend(ArgumentMatchers.eq(CACHE_HOT_KEY_CHANNEL),
+                ArgumentMatchers.startsWith("demote:"));
+
+        //其他节点的降级通知不移出别的节点发现的热点
+        receive("demote:third:cache:shop:2");
+        Assertions.assertTrue(isHot("cache:shop:2"));
+        receive("demote:other:cache:shop:2");
+        Assertions.assertFalse(isHot("cache:shop:2"));
+    }
+
+    @Test
+    void remoteKeyExpiresWithoutNotification() {
+        ReflectionTestUtils.setField(detector, "remoteHoldSeconds", 0L);
+        receive("promote:other:cache:shop:3");
+        Assertions.assertTrue(isHot("cache:shop:3"));
+        sleep(5);
+        //发现热点的节点下线、降级通知丢失时，超过保留时间后移出
+        tick();
+        Assertions.assertFalse(isHot("cache:shop:3"));
+    }
+
+    private boolean isHot(String key) {
+        return detector.hotKeys().stream().map(item -> item.get("key")).anyMatch(key::equals);
+    }
+
+    private void tick() {
+        ReflectionTestUtils.invokeMethod(detector, "tick");
+    }
+
+    private void receive(String body) {
+        detector.onMessage(new DefaultMessage(CACHE_HOT_KEY_CHANNEL.getBytes(StandardCharsets.UTF_8),
+                body.getBytes(StandardCharsets.UTF_8)), null);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+class NearbyCursorTest {
+
+    @Test
+    void encodeAndDecode() {
+        NearbyCursor cursor = new NearbyCursor(123.456, 42L);
+        NearbyCursor decoded = NearbyCursor.decode(cursor.encode());
+        Assertions.assertEquals(123.456, decoded.getDistance());
+        Assertions.assertEquals(42L, decoded.getId());
+
+        //第一页没有游标，格式错误的游标直接拒绝
+        Assertions.assertNull(NearbyCursor.decode(null));
+        Assertions.assertNull(NearbyCursor.decode(""));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> NearbyCursor.decode("AAAA"));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> NearbyCursor.decode("不是游标"));
+    }
+
+    @Test
+    void tiedDistanceOrderedById() {
+        NearbyCursor cursor = new NearbyCursor(100, 5);
+        Assertions.assertTrue(cursor.isBefore(100, 6));
+        Assertions.assertFalse(cursor.isBefore(100, 5));
+        Assertions.assertFalse(cursor.isBefore(100, 4));
+        Assertions.assertTrue(cursor.isBefore(100.5, 1));
+        Assertions.assertFalse(cursor.isBefore(99.5, 9));
+    }
+
+    @Test
+    void pagesThroughTiedDistancesWithoutGapsOrRepeats() {
+        //同一栋楼里的店铺坐标相同、距离相同，翻页时只能按id区分先后
+        long[] ids = {9, 3, 17, 1, 12, 5, 8, 20, 2, 14, 30, 31};
+        double[] lons = new double[ids.length];
+        double[] lats = new double[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+            lons[i] = 120.15;
+            lats[i] = 30.28;
+        }
+        // 最后两个店铺更远
+        lats[10] = 30.29;
+        lats[11] = 30.29;
+        NearbyResultCache.Candidates candidates = new NearbyResultCache.Candidates(ids, lons, lats);
+
+        List<Long> seen = new ArrayList<>();
+        NearbyCursor cursor = null;
+        int limit = 3;
+        while (true) {
+            List<GeoGrid.Hit> hits = NearbyResultCache.page(candidates, 120.15, 30.28, 5000, cursor, limit);
+            boolean hasNext = hits.size() > limit;
+            List<GeoGrid.Hit> page = hasNext ? hits.subList(0, limit) : hits;
+            for (GeoGrid.Hit hit : page) {
+                seen.add(hit.getId());
+            }
+            if (!hasNext) {
+                break;
+            }
+            GeoGrid.Hit last = page.get(page.size() - 1);
+            cursor = NearbyCursor.decode(new NearbyCursor(last.getDistance(), last.getId()).encode());
+        }
+
+        List<Long> expected = new ArrayList<>();
+        for (long id : new long[]{1, 2, 3, 5, 8, 9, 12, 14, 17, 20, 30, 31}) {
+            expected.add(id);
+        }
+        Assertions.assertEquals(expected, seen);
+    }
+
+    @Test
+    void pageSkipsCandidatesOutsideRadius() {
+        NearbyResultCache.Candidates candidates = new NearbyResultCache.Candidates(
+                new long[]{1, 2}, new double[]{120.15, 121.15}, new double[]{30.28, 30.28});
+        List<GeoGrid.Hit> hits = NearbyResultCache.page(candidates, 120.15, 30.28, 5000, null, 10);
+        Assertions.assertEquals(1, hits.size());
+        Assertions.assertEquals(1L, hits.get(0).getId());
+    }
+
+    @Test
+    void truncatedCandidatesStopWhereCoverageEnds() {
+        //网格中心东西两侧各排一列店铺，候选集只能装下离中心最近的8个
+        int count = 40;
+        long[] ids = new long[count];
+        double[] lons = new double[count];
+        double[] lats = new double[count];
+        for (int i = 0; i < count; i++) {
+            ids[i] = i + 1;
+            lons[i] = 120.1525 + (i % 2 == 0 ? 1 : -1) * 0.0004 * (i / 2 + 1);
+            lats[i] = 30.2825;
+        }
+        NearbyResultCache cache = new NearbyResultCache();
+        ReflectionTestUtils.setField(cache, "maxCandidates", 8);
+        cache.init();
+        NearbyResultCache.Candidates candidates = cache.get(1L, 120.153, 30.2827, 5000,
+                (centerX, centerY, radius, limit) -> NearbyResultCache.Candidates.of(
+                        nearest(ids, lons, lats, centerX, centerY).subList(0, limit)));
+        Assertions.assertEquals(8, candidates.size());
+
+        //请求坐标偏向东侧，按游标翻到底：结果与直接查询全部店铺的前几名一致，不会跳过候选集之外更近的店铺
+        double x = 120.153;
+        double y = 30.2827;
+        List<Long> seen = new ArrayList<>();
+        NearbyCursor cursor = null;
+        while (true) {
+            List<GeoGrid.Hit> hits = NearbyResultCache.page(candidates, x, y, 5000, cursor, 2);
+            boolean hasNext = hits.size() > 2;
+            List<GeoGrid.Hit> page = hasNext ? hits.subList(0, 2) : hits;
+            page.forEach(hit -> seen.add(hit.getId()));
+            if (!hasNext) {
+                break;
+            }
+            GeoGrid.Hit last = page.get(page.size() - 1);
+            cursor = new NearbyCursor(last.getDistance(), last.getId());
+        }
+        List<Long> expected = new ArrayList<>();
+        nearest(ids, lons, lats, x, y).forEach(hit -> expected.add(hit.getId()));
+        Assertions.assertFalse(seen.isEmpty());
+        Assertions.assertTrue(seen.size() < 8);
+        Assertions.assertEquals(expected.subList(0, seen.size()), seen);
+    }
+
+    /**
+     * 全部店铺按到 (x, y) 的距离从近到远排列，模拟索引查询
+     */
+    private static List<GeoGrid.Hit> nearest(long[] ids, double[] lons, double[] lats, double x, double y) {
+        List<GeoGrid.Hit> hits = new ArrayList<>();
+        for (int i = 0; i < ids.length; i++) {
+            hits.add(new GeoGrid.Hit(ids[i], GeoGrid.distance(x, y, lons[i], lats[i]), lons[i], lats[i]));
+        }
+        hits.sort(Comparator.comparingDouble(GeoGrid.Hit::getDistance).thenComparingLong(GeoGrid.Hit::getId));
+        return hits;
+    }
+}
@@ -0,0 +1,62 @@
+package com.hmdp.utils;
+
+import io.lettuce.core.cluster.SlotHash;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+class SeckillKeysTest {
+
+    @Test
+    void seckillKeysShareOneClusterSlot() {
+        //模拟三主节点的Redis Cluster，按默认方式平均分配16384个slot
+        int[] slotUpperBounds = {5460, 10922, 16383};
+        int[] vouchersOfNode = new int[slotUpperBounds.length];
+        for (long voucherId = 1; voucherId <= 1000; voucherId++) {
+            for (String mode : new String[]{SeckillKeys.DEDUPE_SET, SeckillKeys.DEDUPE_BITMAP, SeckillKeys.DEDUPE_SHARDED_BITMAP}) {
+                //同一次脚本调用的所有key，包括全部库存分片，必须落在同一个slot
+                List<String> keys = SeckillKeys.scriptKeys(voucherId, voucherId * 7919, 8, mode, 65536);
+                int slot = SlotHash.getSlot(keys.get(0));
+                for (String key : keys) {
+                    Assertions.assertEquals(slot, SlotHash.getSlot(key), key);
+                }
+            }
+            int slot = SlotHash.getSlot(SeckillKeys.stock(voucherId));
+            int node = 0;
+            while (slot > slotUpperBounds[node]) {
+                node++;
+            }
+            vouchersOfNode[node]++;
+        }
+        //分片不能分散单张券的压力，不同的券则按哈希标签大致均匀地分布在各个节点上
+        for (int count : vouchersOfNode) {
+            Assertions.assertTrue(count > 250, Arrays.toString(vouchersOfNode));
+        }
+    }
+
+    @Test
+    void bitmapOffsetStaysWithinRange() {
+        //范围内的用户id直接作为位图偏移量
+        long userId = SeckillKeys.BITMAP_MAX_USER_ID - 1;
+        List<String> keys = SeckillKeys.scriptKeys(1L, userId, 1, SeckillKeys.DEDUPE_BITMAP, 65536);
+        Assertions.assertEquals(SeckillKeys.order(1L) + ":bitmap", keys.get(1));
+        Assertions.assertEquals(String.valueOf(userId), SeckillKeys.dedupeOffset(userId, SeckillKeys.DEDUPE_BITMAP, 65536));
+
+        //超出范围的用户id改用集合，偏移量为空串
+        for (long outside : new long[]{SeckillKeys.BITMAP_MAX_USER_ID, Long.MAX_VALUE, -1L}) {
+            keys = SeckillKeys.scriptKeys(1L, outside, 1, SeckillKeys.DEDUPE_BITMAP, 65536);
+            Assertions.assertEquals(SeckillKeys.order(1L), keys.get(1));
+            Assertions.assertEquals("", SeckillKeys.dedupeOffset(outside, SeckillKeys.DEDUPE_BITMAP, 65536));
+        }
+    }
+
+    @Test
+    void shardedBitmapOffsetWithinSegment() {
+        long userId = 3L * 65536 + 17;
+        List<String> keys = SeckillKeys.scriptKeys(1L, userId, 1, SeckillKeys.DEDUPE_SHARDED_BITMAP, 65536);
+        Assertions.assertEquals(SeckillKeys.order(1L) + ":bitmap:3", keys.get(1));
+        Assertions.assertEquals("17", SeckillKeys.dedupeOffset(userId, SeckillKeys.DEDUPE_SHARDED_BITMAP, 65536));
+    }
+}
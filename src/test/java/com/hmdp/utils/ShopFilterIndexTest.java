@@ -0,0 +1,64 @@
+package com.hmdp.utils;
+
+import com.hmdp.dto.ShopFilter;
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+
+import java.time.LocalTime;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+class ShopFilterIndexTest {
+
+    @Test
+    void parseOpenHours() {
+        Assertions.assertArrayEquals(new int[]{600, 1320}, ShopFilterIndex.parseOpenHours("10:00-22:00"));
+        //跨过零点的营业时间拆成两段
+        Assertions.assertArrayEquals(new int[]{1320, 1440, 0, 120}, ShopFilterIndex.parseOpenHours("22:00-02:00"));
+        Assertions.assertArrayEquals(new int[]{600, 840, 1020, 1440, 0, 120},
+                ShopFilterIndex.parseOpenHours("10:00-14:00,17:00-02:00"));
+        Assertions.assertArrayEquals(new int[]{1080, 1440}, ShopFilterIndex.parseOpenHours("18:00-00:00"));
+        //起止相同表示全天营业
+        Assertions.assertArrayEquals(new int[]{0, 1440}, ShopFilterIndex.parseOpenHours("00:00-00:00"));
+        Assertions.assertArrayEquals(new int[0], ShopFilterIndex.parseOpenHours(null));
+        Assertions.assertArrayEquals(new int[0], ShopFilterIndex.parseOpenHours("全天"));
+    }
+
+    @Test
+    void overnightOpenHours() {
+        String openHours = "22:00-02:00";
+        Assertions.assertTrue(ShopFilterIndex.isOpenAt(openHours, LocalTime.of(23, 30)));
+        Assertions.assertTrue(ShopFilterIndex.isOpenAt(openHours, LocalTime.of(0, 0)));
+        Assertions.assertTrue(ShopFilterIndex.isOpenAt(openHours, LocalTime.of(1, 59)));
+        Assertions.assertFalse(ShopFilterIndex.isOpenAt(openHours, LocalTime.of(2, 0)));
+        Assertions.assertFalse(ShopFilterIndex.isOpenAt(openHours, LocalTime.of(12, 0)));
+        Assertions.assertFalse(ShopFilterIndex.isOpenAt(openHours, LocalTime.of(21, 59)));
+    }
+
+    @Test
+    void openNowQueryIncludesOvernightShops() {
+        List<Shop> shops = Arrays.asList(
+                shop(1L, "22:00-02:00", 30),
+                shop(2L, "10:00-22:00", 50),
+                shop(3L, "10:00-14:00,17:00-01:15", 20),
+                shop(4L, "00:00-00:00", 10),
+                shop(5L, "01:15-03:00", 40));
+        ShopFilterIndex index = new ShopFilterIndex();
+        index.rebuild(consumer -> shops.forEach(consumer));
+        Assertions.assertTrue(index.isReady());
+
+        ShopFilter filter = new ShopFilter();
+        filter.setOpenNow(true);
+        //01:00营业中的店铺按销量排序；5号店所在时段有01:00，但要到01:15才开门，3号店01:15关门
+        Assertions.assertEquals(Arrays.asList(1L, 3L, 4L), index.query(filter, LocalTime.of(1, 0), 0, 10));
+        Assertions.assertEquals(Arrays.asList(5L, 1L, 4L), index.query(filter, LocalTime.of(1, 15), 0, 10));
+        Assertions.assertEquals(Collections.singletonList(3L), index.query(filter, LocalTime.of(1, 0), 1, 1));
+        Assertions.assertEquals(Arrays.asList(2L, 3L, 4L), index.query(filter, LocalTime.of(12, 0), 0, 10));
+    }
+
+    private static Shop shop(long id, String openHours, int sold) {
+        return new Shop().setId(id).setTypeId(1L).setOpenHours(openHours).setSold(sold).setScore(45);
+    }
+}
@@ -0,0 +1,36 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import static com.hmdp.utils.RedisConstants.SHOP_GEO_CHANNEL;
+
+class ShopGeoIndexTest {
+
+    @Test
+    void clearedLocationRemovesShop() {
+        StringRedisTemplate redisTemplate = Mockito.mock(StringRedisTemplate.class);
+        ShopGeoIndex index = new ShopGeoIndex();
+        ReflectionTestUtils.setField(index, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(index, "enabled", true);
+        ReflectionTestUtils.setField(index, "ready", true);
+
+        index.put(new Shop().setId(1L).setTypeId(1L).setX(120.149192).setY(30.316078));
+        Assertions.assertEquals(1, index.within(1L, 120.149192, 30.316078, 1000, 10).size());
+
+        //修改后清空了坐标，店铺从原类型的网格中移除，并通知其他节点
+        index.put(new Shop().setId(1L).setTypeId(1L));
+        Assertions.assertTrue(index.within(1L, 120.149192, 30.316078, 1000, 10).isEmpty());
+        Mockito.verify(redisTemplate).convertAndSend(SHOP_GEO_CHANNEL, "remove:1");
+
+        //清空类型同样移除
+        index.put(new Shop().setId(2L).setTypeId(2L).setX(120.149192).setY(30.316078));
+        index.put(new Shop().setId(2L).setX(120.149192).setY(30.316078));
+        Assertions.assertTrue(index.within(2L, 120.149192, 30.316078, 1000, 10).isEmpty());
+        Mockito.verify(redisTemplate).convertAndSend(SHOP_GEO_CHANNEL, "remove:2");
+    }
+}
@@ -0,0 +1,147 @@
+package com.hmdp.utils;
+
+import com.hmdp.entity.Shop;
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.redisson.api.RLock;
+import org.redisson.api.RedissonClient;
+import org.springframework.data.redis.connection.RedisGeoCommands;
+import org.springframework.data.redis.connection.StringRedisConnection;
+import org.springframework.data.redis.core.HashOperations;
+import org.springframework.data.redis.core.RedisCallback;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.hmdp.utils.RedisConstants.*;
+
+class ShopGeoLoaderTest {
+    private final Map<Object, Object> checkpoint = new HashMap<>();
+    private final Map<String, Set<String>> geo = new HashMap<>();
+    private final List<Shop> shops = new ArrayList<>();
+    private final AtomicInteger scans = new AtomicInteger();
+    private RLock lock;
+    private ShopGeoLoader loader;
+    /**
+     * 读到这个id后模拟数据库连接中断，0表示不中断
+     */
+    private long failAfterId;
+
+    @BeforeEach
+    @SuppressWarnings("unchecked")
+    void setUp() {
+        for (long id = 1; id <= 25; id++) {
+            Shop shop = new Shop().setId(id).setTypeId(id % 2 + 1);
+            // 每5个店铺有一个没有坐标
+            if (id % 5 != 0) {
+                shop.setX(120.0 + id / 1000.0).setY(30.0);
+            }
+            shops.add(shop);
+        }
+
+        StringRedisTemplate redisTemplate = Mockito.mock(StringRedisTemplate.class);
+        HashOperations<String, Object, Object> hashOperations = Mockito.mock(HashOperations.class);
+        Mockito.when(redisTemplate.<Object, Object>opsForHash()).thenReturn(hashOperations);
+        Mockito.when(hashOperations.entries(SHOP_GEO_LOAD_KEY)).thenAnswer(invocation -> new HashMap<>(checkpoint));
+        Mockito.doAnswer(invocation -> {
+            checkpoint.putAll(invocation.getArgument(1));
+            return null;
+        }).when(hashOperations).putAll(ArgumentMatchers.eq(SHOP_GEO_LOAD_KEY), ArgumentMatchers.anyMap());
+        Mockito.doAnswer(invocation -> checkpoint.put(invocation.getArgument(1), invocation.getArgument(2)))
+                .when(hashOperations).put(ArgumentMatchers.eq(SHOP_GEO_LOAD_KEY), ArgumentMatchers.any(), ArgumentMatchers.any());
+        Mockito.when(redisTemplate.delete(SHOP_GEO_LOAD_KEY)).thenAnswer(invocation -> {
+            checkpoint.clear();
+            return true;
+        });
+
+        // 管道中的GEOADD写入内存
+        StringRedisConnection connection = Mockito.mock(StringRedisConnection.class);
+        Mockito.when(connection.geoAdd(ArgumentMatchers.anyString(),
+                ArgumentMatchers.<Iterable<RedisGeoCommands.GeoLocation<String>>>any())).thenAnswer(invocation -> {
+            Set<String> members = geo.computeIfAbsent(invocation.getArgument(0), k -> new HashSet<>());
+            invocation.<Iterable<RedisGeoCommands.GeoLocation<String>>>getArgument(1)
+                    .forEach(location -> members.add(location.getName()));
+            return 0L;
+        });
+        Mockito.when(redisTemplate.executePipelined(ArgumentMatchers.<RedisCallback<Object>>any())).thenAnswer(invocation -> {
+            invocation.<RedisCallback<Object>>getArgument(0).doInRedis(connection);
+            return Collections.emptyList();
+        });
+
+        RedissonClient redissonClient = Mockito.mock(RedissonClient.class);
+        lock = Mockito.mock(RLock.class);
+        Mockito.when(redissonClient.getLock(LOCK_SHOP_GEO_LOAD_KEY)).thenReturn(lock);
+        Mockito.when(lock.tryLock()).thenReturn(true);
+
+        loader = new ShopGeoLoader();
+        ReflectionTestUtils.setField(loader, "redisTemplate", redisTemplate);
+        ReflectionTestUtils.setField(loader, "redissonClient", redissonClient);
+        ReflectionTestUtils.setField(loader, "batchSize", 10);
+        ReflectionTestUtils.setField(loader, "progressIntervalSeconds", 10L);
+        ReflectionTestUtils.invokeMethod(loader, "init");
+        loader.register((lastId, consumer) -> {
+            scans.incrementAndGet();
+            for (Shop shop : shops) {
+                if (shop.getId() > lastId) {
+                    consumer.accept(shop);
+                    if (shop.getId() == failAfterId) {
+                        throw new IllegalStateException("数据库连接中断");
+                    }
+                }
+            }
+        }, () -> shops.size());
+    }
+
+    @Test
+    void resumesFromCheckpointAfterInterruption() {
+        //第一次读到第15个店铺时中断，只有写完的第一批记入检查点
+        failAfterId = 15;
+        Assertions.assertFalse(loader.load(false));
+        Assertions.assertEquals("10", checkpoint.get("lastId"));
+        Assertions.assertEquals("10", checkpoint.get("loaded"));
+        Assertions.assertFalse(checkpoint.containsKey("finishedAt"));
+        Mockito.verify(lock).unlock();
+
+        //第二次从检查点继续，没有坐标的店铺计入进度但不写入
+        failAfterId = 0;
+        Assertions.assertTrue(loader.load(false));
+        Assertions.assertEquals("25", checkpoint.get("lastId"));
+        Assertions.assertEquals("25", checkpoint.get("loaded"));
+        Assertions.assertTrue(checkpoint.containsKey("finishedAt"));
+        Assertions.assertEquals(expectedGeo(), geo);
+        Map<String, Object> progress = loader.progress();
+        Assertions.assertEquals(25L, progress.get("loaded"));
+        Assertions.assertEquals(true, progress.get("finished"));
+
+        //已经完成的加载不再执行，restart忽略检查点从头加载
+        Assertions.assertFalse(loader.load(false));
+        Assertions.assertEquals(2, scans.get());
+        geo.clear();
+        Assertions.assertTrue(loader.load(true));
+        Assertions.assertEquals(3, scans.get());
+        Assertions.assertEquals(expectedGeo(), geo);
+    }
+
+    @Test
+    void skipsWhenAnotherNodeIsLoading() {
+        Mockito.when(lock.tryLock()).thenReturn(false);
+        Assertions.assertFalse(loader.load(false));
+        Assertions.assertEquals(0, scans.get());
+        Mockito.verify(lock, Mockito.never()).unlock();
+    }
+
+    private Map<String, Set<String>> expectedGeo() {
+        Map<String, Set<String>> expected = new HashMap<>();
+        for (Shop shop : shops) {
+            if (shop.getX() != null) {
+                expected.computeIfAbsent(SHOP_GEO_KEY + shop.getTypeId(), k -> new HashSet<>()).add(shop.getId().toString());
+            }
+        }
+        return expected;
+    }
+}
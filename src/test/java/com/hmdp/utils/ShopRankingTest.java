@@ -0,0 +1,121 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.mockito.ArgumentMatchers;
+import org.mockito.Mockito;
+import org.springframework.data.redis.core.DefaultTypedTuple;
+import org.springframework.data.redis.core.StringRedisTemplate;
+import org.springframework.data.redis.core.ZSetOperations;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+class ShopRankingTest {
+
+    @Test
+    void tiedValuesGetDistinctScores() {
+        //同值的店铺分数各不相同，id小的排在前面；排序值高的店铺总排在前面
+        Assertions.assertTrue(ShopRanking.scoreOf(100, 1) > ShopRanking.scoreOf(100, 2));
+        Assertions.assertTrue(ShopRanking.scoreOf(100, 2) > ShopRanking.scoreOf(100, 1000000));
+        Assertions.assertTrue(ShopRanking.scoreOf(101, 1000000) > ShopRanking.scoreOf(100, 1));
+        Assertions.assertEquals(ShopRanking.scoreOf(0, 5), ShopRanking.scoreOf(null, 5));
+        Assertions.assertEquals(ShopRanking.scoreOf(0, 5), ShopRanking.scoreOf(-3, 5));
+        // 分数不超过double能精确表示的整数
+        double max = ShopRanking.scoreOf(Integer.MAX_VALUE, 0);
+        Assertions.assertTrue(max < 0x1p53);
+        Assertions.assertNotEquals(max, max - 1);
+    }
+
+    @Test
+    void idOutOfRangeRejected() {
+        //超过28位的id会与小id的分数重复，翻页时跳过其中一个
+        Assertions.assertDoesNotThrow(() -> ShopRanking.scoreOf(100, ShopRanking.MAX_ID));
+        Assertions.assertThrows(IllegalArgumentException.class,
+                () -> ShopRanking.scoreOf(100, ShopRanking.MAX_ID + 1));
+        Assertions.assertThrows(IllegalArgumentException.class, () -> ShopRanking.scoreOf(100, -1));
+    }
+
+    @Test
+    void keysetPagingAcrossTiedScores() {
+        // 30个店铺销量只有3种取值
+        List<ZSetOperations.TypedTuple<String>> members = new ArrayList<>();
+        for (long id = 1; id <= 30; id++) {
+            int sold = (int) (id % 3) * 100;
+            members.add(new DefaultTypedTuple<>(String.valueOf(id), ShopRanking.scoreOf(sold, id)));
+        }
+        ShopRanking ranking = ranking(members);
+
+        //按游标逐页读取：每个店铺恰好出现一次，同销量按id从小到大
+        List<Long> seen = new ArrayList<>();
+        Long cursor = null;
+        int pages = 0;
+        do {
+            ShopRanking.Page page = ranking.page(ShopRanking.Order.SOLD, 1L, cursor, 4);
+            Assertions.assertTrue(page.getIds().size() <= 4);
+            seen.addAll(page.getIds());
+            cursor = page.getCursor();
+            pages++;
+        } while (cursor != null);
+
+        List<Long> expected = new ArrayList<>();
+        for (int sold : new int[]{2, 1, 0}) {
+            for (long id = 1; id <= 30; id++) {
+                if (id % 3 == sold) {
+                    expected.add(id);
+                }
+            }
+        }
+        Assertions.assertEquals(expected, seen);
+        Assertions.assertEquals(8, pages);
+    }
+
+    @Test
+    void lastPageHasNoCursor() {
+        List<ZSetOperations.TypedTuple<String>> members = new ArrayList<>();
+        for (long id = 1; id <= 4; id++) {
+            members.add(new DefaultTypedTuple<>(String.valueOf(id), ShopRanking.scoreOf(10, id)));
+        }
+        ShopRanking ranking = ranking(members);
+        ShopRanking.Page page = ranking.page(ShopRanking.Order.SOLD, 1L, null, 4);
+        Assertions.assertEquals(4, page.getIds().size());
+        Assertions.assertNull(page.getCursor());
+    }
+
+    /**
+     * 用内存中的有序集合模拟 ZREVRANGEBYSCORE ... WITHSCORES LIMIT
+     */
+    @SuppressWarnings("unchecked")
+    private static ShopRanking ranking(List<ZSetOperations.TypedTuple<String>> members) {
+        List<ZSetOperations.TypedTuple<String>> sorted = members.stream()
+                .sorted(Comparator.comparingDouble((ZSetOperations.TypedTuple<String> t) -> t.getScore()).reversed())
+                .collect(Collectors.toList());
+        StringRedisTemplate redisTemplate = Mockito.mock(StringRedisTemplate.class);
+        ZSetOperations<String, String> zSetOperations = Mockito.mock(ZSetOperations.class);
+        Mockito.when(redisTemplate.opsForZSet()).thenReturn(zSetOperations);
+        Mockito.when(zSetOperations.reverseRangeByScoreWithScores(ArgumentMatchers.eq("shop:rank:sold:1"),
+                ArgumentMatchers.anyDouble(), ArgumentMatchers.anyDouble(),
+                ArgumentMatchers.anyLong(), ArgumentMatchers.anyLong()))
+                .thenAnswer(invocation -> {
+                    double min = invocation.getArgument(1);
+                    double max = invocation.getArgument(2);
+                    long offset = invocation.getArgument(3);
+                    long count = invocation.getArgument(4);
+                    Set<ZSetOperations.TypedTuple<String>> result = new LinkedHashSet<>();
+                    sorted.stream()
+                            .filter(t -> t.getScore() >= min && t.getScore() <= max)
+                            .skip(offset)
+                            .limit(count)
+                            .forEach(result::add);
+                    return result;
+                });
+        ShopRanking ranking = new ShopRanking();
+        ReflectionTestUtils.setField(ranking, "redisTemplate", redisTemplate);
+        return ranking;
+    }
+}
@@ -0,0 +1,121 @@
+package com.hmdp.utils;
+
+import org.junit.jupiter.api.Assertions;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+class SingleFlightTest {
+
+    @Test
+    void concurrentCallersShareOneLoad() throws Exception {
+        //同一个key的并发请求只回源一次，所有请求拿到同一个结果
+        SingleFlight singleFlight = new SingleFlight();
+        AtomicInteger loads = new AtomicInteger();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        int callers = 50;
+        ExecutorService executor = Executors.newFixedThreadPool(callers);
+        try {
+            List<Future<String>> results = new ArrayList<>();
+            results.add(executor.submit(() -> singleFlight.execute("shop:1", () -> {
+                loads.incrementAndGet();
+                loading.countDown();
+                await(release);
+                return "shop";
+            })));
+            loading.await();
+            for (int i = 1; i < callers; i++) {
+                results.add(executor.submit(() -> singleFlight.execute("shop:1", () -> {
+                    loads.incrementAndGet();
+                    return "other";
+                })));
+            }
+            //等其他请求都进入等待后再结束第一次加载
+            Thread.sleep(200);
+            release.countDown();
+            for (Future<String> result : results) {
+                Assertions.assertEquals("shop", result.get(5, TimeUnit.SECONDS));
+            }
+            Assertions.assertEquals(1, loads.get());
+
+            //加载结束后再来的请求重新加载
+            Assertions.assertEquals("again", singleFlight.execute("shop:1", () -> "again"));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void failureIsSharedAndNotCached() {
+        SingleFlight singleFlight = new SingleFlight();
+        Assertions.assertThrows(IllegalStateException.class, () -> singleFlight.execute("shop:2", () -> {
+            throw new IllegalStateException("db down");
+        }));
+        Assertions.assertEquals("ok", singleFlight.execute("shop:2", () -> "ok"));
+    }
+
+    @Test
+    void errorReachesWaiters() throws Exception {
+        //加载线程抛出Error时等待者也立即失败，不会一直阻塞
+        SingleFlight singleFlight = new SingleFlight();
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<String> first = executor.submit(() -> singleFlight.execute("shop:3", () -> {
+                loading.countDown();
+                await(release);
+                throw new OutOfMemoryError("boom");
+            }));
+            loading.await();
+            Future<String> waiter = executor.submit(() -> singleFlight.execute("shop:3", () -> "unused"));
+            Thread.sleep(100);
+            release.countDown();
+            ExecutionException e = Assertions.assertThrows(ExecutionException.class, () -> waiter.get(1, TimeUnit.SECONDS));
+            Assertions.assertTrue(e.getCause() instanceof OutOfMemoryError);
+            Assertions.assertThrows(ExecutionException.class, () -> first.get(1, TimeUnit.SECONDS));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    void waiterLoadsItselfAfterTimeout() throws Exception {
+        SingleFlight singleFlight = new SingleFlight();
+        ReflectionTestUtils.setField(singleFlight, "waitMillis", 50L);
+        CountDownLatch loading = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            executor.submit(() -> singleFlight.execute("shop:4", () -> {
+                loading.countDown();
+                await(release);
+                return "slow";
+            }));
+            loading.await();
+            //加载线程卡住，等待超时后自己回源
+            Assertions.assertEquals("own", singleFlight.execute("shop:4", () -> "own"));
+        } finally {
+            release.countDown();
+            executor.shutdownNow();
+        }
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}